@@ -19,5 +19,24 @@ if (project.parent?.name?.contains("multi_agent_ide_parent") ?: false) {
 dependencies {
     implementation(project(":persistence"))
     implementation(project("${utilLib}:utilitymodule"))
+    // optional - LimitAccess takes a permit per subscription of returned Mono and Flux when reactor is present
+    compileOnly("io.projectreactor:reactor-core")
+    testImplementation("io.projectreactor:reactor-core")
 }
 
+
+// wall-clock micro benchmarks - too noisy for the unit test run, ./gradlew benchmark runs them
+tasks.test {
+    useJUnitPlatform {
+        excludeTags("benchmark")
+    }
+}
+
+tasks.register<Test>("benchmark") {
+    group = "verification"
+    testClassesDirs = sourceSets.test.get().output.classesDirs
+    classpath = sourceSets.test.get().runtimeClasspath
+    useJUnitPlatform {
+        includeTags("benchmark")
+    }
+}
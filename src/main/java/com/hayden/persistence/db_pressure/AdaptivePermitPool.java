@@ -0,0 +1,182 @@
+package com.hayden.persistence.db_pressure;
+
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.TransientDataAccessException;
+
+import java.sql.SQLTransientException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ * Permits whose limit follows the latency of the calls holding them, gradient style:
+ * - a short and a long exponential average of the call latency are kept, the long one being the latency the
+ *   database gives without queueing
+ * - every sample moves the limit towards limit * long / short plus a queue allowance of sqrt(limit), so the limit
+ *   grows while latency stays at the baseline and shrinks as soon as calls start queueing in the database
+ * - calls failing on overload (timeouts, lock or connection failures) cut the limit by 10%
+ * - the limit only grows while at least half of it is in use, and always stays within [minPermits, maxPermits]
+ * </p>
+ * Resizing moves maxPermits, and the limit with it if it was above.
+ */
+public final class AdaptivePermitPool implements PermitPool {
+
+    private static final double SHORT_WINDOW = 10;
+    private static final double LONG_WINDOW = 600;
+    private static final double TOLERANCE = 1.5;
+    private static final double SMOOTHING = 0.2;
+    private static final double BACKOFF_RATIO = 0.9;
+
+    // guarded by lock
+    private int minPermits;
+    private int maxPermits;
+
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition permitReturned = lock.newCondition();
+
+    // guarded by lock
+    private double limit;
+    private int inFlight;
+    private double shortRtt;
+    private double longRtt;
+
+    public AdaptivePermitPool(int initialPermits, int minPermits, int maxPermits) {
+        this.minPermits = Math.max(1, minPermits);
+        this.maxPermits = Math.max(this.minPermits, maxPermits);
+        this.limit = Math.clamp(initialPermits, this.minPermits, this.maxPermits);
+    }
+
+    @Override
+    public void acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= (int) limit) {
+                permitReturned.await();
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        long remaining = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= (int) limit) {
+                if (remaining <= 0)
+                    return false;
+                remaining = permitReturned.awaitNanos(remaining);
+            }
+            inFlight++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            permitReturned.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int availablePermits() {
+        lock.lock();
+        try {
+            return Math.max(0, (int) limit - inFlight);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int limit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void resize(int permits) {
+        if (permits < 1)
+            throw new IllegalArgumentException("permits must be positive, was %d".formatted(permits));
+        lock.lock();
+        try {
+            maxPermits = permits;
+            minPermits = Math.min(minPermits, permits);
+            limit = Math.min(limit, permits);
+            permitReturned.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onSample(long latencyNanos, Throwable failure) {
+        lock.lock();
+        try {
+            int previous = (int) limit;
+            if (isOverload(failure)) {
+                limit = Math.max(minPermits, limit * BACKOFF_RATIO);
+            } else {
+                updateLimit(latencyNanos);
+            }
+            int grown = (int) limit - previous;
+            for (int i = 0; i < grown; i++) {
+                permitReturned.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // under lock
+    private void updateLimit(long latencyNanos) {
+        if (longRtt == 0) {
+            shortRtt = latencyNanos;
+            longRtt = latencyNanos;
+            return;
+        }
+
+        shortRtt += (latencyNanos - shortRtt) * 2 / (SHORT_WINDOW + 1);
+        longRtt += (shortRtt - longRtt) * 2 / (LONG_WINDOW + 1);
+
+        // after a sustained latency shift the baseline catches up faster, so the limit can recover
+        if (longRtt > shortRtt * 2) {
+            longRtt *= 0.95;
+        }
+
+        // nothing to learn about the limit while the callers don't use it
+        if (inFlight < limit / 2) {
+            return;
+        }
+
+        double gradient = Math.clamp(TOLERANCE * longRtt / shortRtt, 0.5, 1.0);
+        double next = limit * gradient + Math.sqrt(limit);
+        limit = Math.clamp(limit * (1 - SMOOTHING) + next * SMOOTHING, minPermits, maxPermits);
+    }
+
+    private static boolean isOverload(Throwable failure) {
+        for (Throwable t = failure; t != null; t = t.getCause()) {
+            // query timeouts, lock failures and connection failures - not constraint violations or bad sql
+            if (t instanceof TransientDataAccessException
+                    || t instanceof DataAccessResourceFailureException
+                    || t instanceof SQLTransientException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
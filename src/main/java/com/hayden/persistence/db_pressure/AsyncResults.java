@@ -0,0 +1,118 @@
+package com.hayden.persistence.db_pressure;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.ClassUtils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * <p>
+ * Async return types of limited methods, whose work goes on after the method returns:
+ * - CompletionStage - the work is already running when the method returns, so the call's permit is handed to the
+ *   stage and onDone runs when it completes, exceptionally or by cancellation. The caller gets a dependent stage,
+ *   so cancelling it does not give the permit back while the work still runs
+ * - Mono and Flux, when reactor is on the classpath - the method only assembles the publisher and the work runs on
+ *   each subscription, so every subscription takes its own {@link Lease} and gives it back when it terminates or
+ *   is cancelled. A publisher that is never subscribed takes nothing.
+ * </p>
+ * Rejected async calls don't throw - they return a failed stage or an erroring publisher, and skipped ones an empty
+ * result.
+ */
+@Slf4j
+final class AsyncResults {
+
+    private static final boolean REACTOR_PRESENT =
+            ClassUtils.isPresent("reactor.core.publisher.Mono", AsyncResults.class.getClassLoader());
+
+    /**
+     * What one subscription of a publisher holds while it runs.
+     */
+    interface Lease {
+
+        /**
+         * Takes the lease on the subscribing thread, if that needs no waiting.
+         *
+         * @return false if it has to wait - acquire then runs on a worker thread.
+         * @throws LimitAccessRejectedException if it would have to wait and may not.
+         */
+        boolean tryAcquire();
+
+        /**
+         * @throws LimitAccessRejectedException if the lease could not be taken within the acquire timeout.
+         */
+        void acquire();
+
+        /**
+         * Called once, when the subscription terminates or is cancelled.
+         *
+         * @param failure the publisher's error, null if it completed or was cancelled.
+         */
+        void release(Throwable failure);
+    }
+
+    private AsyncResults() {}
+
+    static boolean isAsync(Class<?> returnType) {
+        return CompletionStage.class.isAssignableFrom(returnType) || isPublisher(returnType);
+    }
+
+    static boolean isPublisher(Class<?> returnType) {
+        return REACTOR_PRESENT && ReactorResults.isPublisher(returnType);
+    }
+
+    /**
+     * onDone runs once, when stage itself terminates, with the failure if there was one. The caller gets a stage
+     * depending on it, so cancelling or completing what the caller holds leaves stage - and whatever onDone gives
+     * back - alone until the work is done. A failing onDone is logged, the caller still sees the work's result.
+     * <p>
+     * If the dependent stage is not a returnType, as for a CompletableFuture subclass that does not override
+     * newIncompleteFuture, stage itself is returned - and a caller cancelling it runs onDone early.
+     *
+     * @return the stage to hand to the caller in place of stage.
+     */
+    static Object onTermination(CompletionStage<?> stage, Class<?> returnType, Consumer<Throwable> onDone) {
+        var dependent = stage.whenComplete((r, failure) -> {
+            try {
+                onDone.accept(failure);
+            } catch (RuntimeException e) {
+                log.error("Failed to give back what an async call held: {}", e.getMessage());
+            }
+        });
+        return returnType.isInstance(dependent) ? dependent : stage;
+    }
+
+    /**
+     * @param onRejected result to subscribe to instead when a subscription's lease is rejected.
+     */
+    static Object perSubscription(Object publisher,
+                                  Supplier<Lease> leases,
+                                  Function<LimitAccessRejectedException, Object> onRejected) {
+        return ReactorResults.perSubscription(publisher, leases, onRejected);
+    }
+
+    /**
+     * @return a completed empty result of the async type, null if the type is not one we can create.
+     */
+    static Object empty(Class<?> returnType) {
+        if (returnType.isAssignableFrom(CompletableFuture.class))
+            return CompletableFuture.completedFuture(null);
+        if (isPublisher(returnType))
+            return ReactorResults.empty(returnType);
+        return null;
+    }
+
+    /**
+     * @return a failed result of the async type, null if the type is not one we can create.
+     */
+    static Object failed(Class<?> returnType, Throwable failure) {
+        if (returnType.isAssignableFrom(CompletableFuture.class))
+            return CompletableFuture.failedFuture(failure);
+        if (isPublisher(returnType))
+            return ReactorResults.failed(returnType, failure);
+        return null;
+    }
+}
@@ -0,0 +1,68 @@
+package com.hayden.persistence.db_pressure;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Runs a waiter's work in chunks, one transaction per chunk, and checkpoints between chunks with no transaction
+ * open - so a waiter that needs transactions still yields to phasers once per chunk instead of once per job. Call
+ * it from a waiter that is not itself transactional, otherwise every chunk joins the outer transaction and the
+ * checkpoints can't park.
+ */
+@Slf4j
+@Component
+public class ChunkedWaiterExecutor {
+
+    @Autowired
+    WaiterCheckpoint waiterCheckpoint;
+
+    @Autowired(required = false)
+    PlatformTransactionManager transactionManager;
+
+    /**
+     * @return number of chunks run.
+     */
+    public <T> int executeInChunks(Iterable<T> items, int chunkSize, Consumer<List<T>> chunkHandler) {
+        return executeInChunks(items.iterator(), chunkSize, chunkHandler);
+    }
+
+    public <T> int executeInChunks(Iterator<T> items, int chunkSize, Consumer<List<T>> chunkHandler) {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("chunkSize must be positive, was %d".formatted(chunkSize));
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            log.warn("Chunked waiter started inside a transaction - chunks join it and checkpoints won't yield.");
+        }
+
+        int chunks = 0;
+        List<T> chunk = new ArrayList<>(chunkSize);
+        while (items.hasNext()) {
+            chunk.add(items.next());
+            if (chunk.size() == chunkSize || !items.hasNext()) {
+                if (chunks > 0) {
+                    waiterCheckpoint.checkpoint();
+                }
+                runChunk(chunk, chunkHandler);
+                chunks++;
+                chunk = new ArrayList<>(chunkSize);
+            }
+        }
+        return chunks;
+    }
+
+    private <T> void runChunk(List<T> chunk, Consumer<List<T>> chunkHandler) {
+        if (transactionManager == null) {
+            chunkHandler.accept(chunk);
+            return;
+        }
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> chunkHandler.accept(chunk));
+    }
+}
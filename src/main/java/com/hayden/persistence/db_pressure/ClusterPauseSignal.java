@@ -0,0 +1,275 @@
+package com.hayden.persistence.db_pressure;
+
+import com.hayden.persistence.lock.AdvisoryLock;
+import com.hayden.persistence.lock.PgNotificationListener;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.intellij.lang.annotations.Language;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ * Propagates phasers of semaphores with distributedPause to the waiters of every node, over LISTEN/NOTIFY on the
+ * semaphore's routing key database:
+ * - the first phaser of a semaphore on a node publishes a pause with a lease, the last one a resume
+ * - while phasers run the pause is re-published every third of the lease, so a node that dies mid phaser stops
+ *   pausing the others once its lease runs out
+ * - other nodes pause their barrier of the semaphore on behalf of the publishing node, waiters park at their next
+ *   checkpoint - there is no handshake across nodes, a remote phaser does not wait for them
+ * - signals are sent from the renew thread, a phaser calling in from its critical section never waits on the
+ *   database
+ * </p>
+ * Notifications are best effort, a lost resume is covered by the lease.
+ */
+@Slf4j
+@Component
+public class ClusterPauseSignal {
+
+    @Language("sql")
+    public static final String NOTIFY_PAUSE_SQL = """
+                SELECT pg_notify(?, ?);
+            """;
+
+    private static final String PAUSE = "pause";
+    private static final String RESUME = "resume";
+
+    @Autowired(required = false)
+    AdvisoryLock advisoryLock;
+    @Autowired(required = false)
+    PgNotificationListener pgNotificationListener;
+    @Autowired(required = false)
+    LimitAccessConfigProperties limitAccessConfigProperties = new LimitAccessConfigProperties();
+
+    private final String node = UUID.randomUUID().toString();
+
+    private record Subscription(String semaphoreName, AdvisoryLock.DatabaseMetadata metadata, AutoCloseable handle) {}
+
+    private final ConcurrentHashMap<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, PauseBarrier> barriers = new ConcurrentHashMap<>();
+
+    // semaphore -> phasers of this node running on it
+    private final ConcurrentHashMap<String, Integer> activePhasers = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<AdvisoryLock.DatabaseMetadata, Sender> senders = new ConcurrentHashMap<>();
+
+    final ScheduledExecutorService renewExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "limit-access-pause-renew");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private volatile boolean renewing;
+
+    public boolean isAvailable() {
+        return advisoryLock != null && pgNotificationListener != null;
+    }
+
+    /**
+     * Starts receiving pauses of other nodes for the semaphore into barrier.
+     */
+    public void register(String semaphoreName, String routingKey, PauseBarrier barrier) {
+        if (!isAvailable()) {
+            log.error("Semaphore {} has distributed pause but no advisory lock or notification listener is available.", semaphoreName);
+            return;
+        }
+        var metadata = advisoryLock.metadataFor(routingKey);
+        if (metadata.isEmpty())
+            return;
+        barriers.put(semaphoreName, barrier);
+        subscriptions.computeIfAbsent(semaphoreName, name -> new Subscription(name, metadata.get(),
+                pgNotificationListener.subscribe(metadata.get(), limitAccessConfigProperties.pauseChannel, this::onSignal)));
+        startRenewing();
+    }
+
+    public void pause(String semaphoreName) {
+        if (activePhasers.merge(semaphoreName, 1, Integer::sum) == 1) {
+            publishLater(semaphoreName);
+        }
+    }
+
+    public void resume(String semaphoreName) {
+        var remaining = activePhasers.computeIfPresent(semaphoreName, (k, n) -> n == 1 ? null : n - 1);
+        if (remaining == null) {
+            publishLater(semaphoreName);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        renewExecutor.shutdownNow();
+        activePhasers.keySet().forEach(s -> publish(s, RESUME));
+        activePhasers.clear();
+        subscriptions.values().forEach(s -> {
+            try {
+                s.handle().close();
+            } catch (Exception e) {
+                log.debug("Failed to close pause subscription of {}: {}", s.semaphoreName(), e.getMessage());
+            }
+        });
+        subscriptions.clear();
+        senders.values().forEach(Sender::close);
+        senders.clear();
+    }
+
+    private void startRenewing() {
+        if (renewing)
+            return;
+        synchronized (this) {
+            if (renewing)
+                return;
+            long every = Math.max(1, limitAccessConfigProperties.pauseLease.toMillis() / 3);
+            renewExecutor.scheduleAtFixedRate(this::renew, every, every, TimeUnit.MILLISECONDS);
+            renewing = true;
+        }
+    }
+
+    /**
+     * The task publishes the state the semaphore is in when it runs rather than the change that queued it, so a
+     * resume racing the pause of the next phaser can't leave the other nodes resumed.
+     */
+    private void publishLater(String semaphoreName) {
+        try {
+            renewExecutor.execute(() -> {
+                try {
+                    publish(semaphoreName, activePhasers.containsKey(semaphoreName) ? PAUSE : RESUME);
+                } catch (RuntimeException e) {
+                    log.error("Failed to publish pause state of {}: {}", semaphoreName, e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.debug("Not publishing pause state of {} - shutting down.", semaphoreName);
+        }
+    }
+
+    private void renew() {
+        for (String semaphoreName : activePhasers.keySet()) {
+            try {
+                publish(semaphoreName, PAUSE);
+            } catch (RuntimeException e) {
+                log.error("Failed to renew pause of {}: {}", semaphoreName, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Payload is action:node:leaseMillis:semaphore - the semaphore name goes last as it may contain colons.
+     */
+    private void publish(String semaphoreName, String action) {
+        var subscription = subscriptions.get(semaphoreName);
+        if (subscription == null)
+            return;
+        String payload = "%s:%s:%d:%s".formatted(action, node, limitAccessConfigProperties.pauseLease.toMillis(), semaphoreName);
+        senders.computeIfAbsent(subscription.metadata(), Sender::new)
+                .send(limitAccessConfigProperties.pauseChannel, payload);
+    }
+
+    void onSignal(String payload) {
+        String[] parts = payload.split(":", 4);
+        if (parts.length != 4) {
+            log.warn("Ignoring pause signal with payload {}", payload);
+            return;
+        }
+        if (node.equals(parts[1]))
+            return;
+        var barrier = barriers.get(parts[3]);
+        if (barrier == null)
+            return;
+        switch (parts[0]) {
+            case PAUSE -> {
+                long leaseMillis;
+                try {
+                    leaseMillis = Long.parseLong(parts[2]);
+                } catch (NumberFormatException e) {
+                    log.warn("Ignoring pause signal with payload {}", payload);
+                    return;
+                }
+                barrier.pauseRemote(parts[1], Duration.ofMillis(leaseMillis));
+            }
+            case RESUME -> barrier.resumeRemote(parts[1]);
+            default -> log.warn("Ignoring pause signal with payload {}", payload);
+        }
+    }
+
+    String node() {
+        return node;
+    }
+
+    Map<String, Integer> activePhasers() {
+        return Map.copyOf(activePhasers);
+    }
+
+    /**
+     * One session per database for publishing, outside of any transaction of the caller so the notification is
+     * delivered when sent rather than on the caller's commit.
+     */
+    private final class Sender {
+
+        private final AdvisoryLock.DatabaseMetadata metadata;
+        private final ReentrantLock lock = new ReentrantLock();
+        private Connection connection;
+
+        Sender(AdvisoryLock.DatabaseMetadata metadata) {
+            this.metadata = metadata;
+        }
+
+        void send(String channel, String payload) {
+            lock.lock();
+            try {
+                for (int attempt = 0; attempt < 2; attempt++) {
+                    try {
+                        if (connection == null || connection.isClosed()) {
+                            connection = advisoryLock.newIsolatedConnection(metadata);
+                        }
+                        try (PreparedStatement ps = connection.prepareStatement(NOTIFY_PAUSE_SQL)) {
+                            ps.setString(1, channel);
+                            ps.setString(2, payload);
+                            ps.execute();
+                        }
+                        return;
+                    } catch (SQLException e) {
+                        // the session may have dropped - retry once on a fresh one
+                        log.error("Failed to publish pause signal to {}: {}", metadata.jdbcUrl(), e.getMessage());
+                        closeQuietly();
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void close() {
+            lock.lock();
+            try {
+                closeQuietly();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void closeQuietly() {
+            Optional.ofNullable(connection).ifPresent(c -> {
+                try {
+                    c.close();
+                } catch (SQLException e) {
+                    log.debug("Failed to close pause signal session: {}", e.getMessage());
+                }
+            });
+            connection = null;
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package com.hayden.persistence.db_pressure;
+
+import com.hayden.persistence.lock.AdvisoryLock;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ * Permits shared by every node of the cluster. The budget is a fixed set of advisory lock keys, one per permit, and
+ * a permit is held while its key is locked:
+ * - the JVM keeps one sticky session per pool and leases slots on it in batches of leaseBatch, so most acquires are
+ *   served from the local cache without a round trip
+ * - released permits go back to the local cache, slots beyond maxCached, and every cached slot once the pool has
+ *   been idle for a while, are unlocked again so other nodes can take them
+ * - when every slot is held somewhere, acquirers retry the lease every retryInterval
+ * - if the session dies postgres drops all of its slots; permits handed out on it are forgotten on release
+ * - once closed, e.g. replaced by a reconfiguration, the slots go back to the cluster and acquirers, waiting or
+ *   not, get a {@link PermitPoolClosedException}
+ * </p>
+ * The slots are the budget of every node, so a pool can't be resized on its own - change the permits on every
+ * node and restart them.
+ */
+@Slf4j
+public final class ClusterPermitPool implements PermitPool {
+
+    private final AdvisoryLock advisoryLock;
+    private final String routingKey;
+    private final String name;
+    private final long[] slots;
+    private final int leaseBatch;
+    private final int maxCached;
+    private final long retryNanos;
+
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition permitReturned = lock.newCondition();
+
+    // guarded by lock
+    private final ArrayDeque<Long> free = new ArrayDeque<>();
+    private final ArrayDeque<Long> leased = new ArrayDeque<>();
+    private final Set<Long> held = new HashSet<>();
+    private int orphaned;
+    private boolean leasing;
+    private volatile boolean closed;
+    private long lastAcquireNanos = System.nanoTime();
+
+    // guarded by sessionLock
+    private final ReentrantLock sessionLock = new ReentrantLock();
+    private SingleConnectionDataSource dataSource;
+    private JdbcTemplate session;
+
+    public ClusterPermitPool(AdvisoryLock advisoryLock, String routingKey, String name, int permits,
+                             int leaseBatch, int maxCached, Duration retryInterval) {
+        this.advisoryLock = advisoryLock;
+        this.routingKey = routingKey;
+        this.name = name;
+        this.slots = new long[permits];
+        for (int i = 0; i < permits; i++) {
+            this.slots[i] = AdvisoryLock.lockKey("limit-access:%s:%d".formatted(name, i));
+        }
+        this.leaseBatch = Math.max(1, leaseBatch);
+        this.maxCached = Math.max(0, maxCached);
+        this.retryNanos = retryInterval.toNanos();
+    }
+
+    @Override
+    public void acquire() throws InterruptedException {
+        acquire(false, 0);
+    }
+
+    /**
+     * A zero timeout still tries one lease from the cluster if the local cache is empty.
+     */
+    @Override
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        return acquire(true, unit.toNanos(timeout));
+    }
+
+    private boolean acquire(boolean timed, long timeoutNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                if (closed)
+                    throw new PermitPoolClosedException("Cluster permits %s are closed".formatted(name));
+                if (!free.isEmpty()) {
+                    leased.push(free.pop());
+                    lastAcquireNanos = System.nanoTime();
+                    return true;
+                }
+
+                if (!leasing) {
+                    long[] candidates = candidates();
+                    int wanted = Math.min(leaseBatch, slots.length - held.size());
+                    leasing = true;
+                    lock.unlock();
+                    long[] granted;
+                    try {
+                        granted = leaseSlots(candidates, wanted);
+                    } finally {
+                        lock.lock();
+                        leasing = false;
+                    }
+                    // granted on the session close dropped - nothing to hold
+                    if (closed)
+                        continue;
+                    for (long slot : granted) {
+                        held.add(slot);
+                        free.push(slot);
+                    }
+                    if (granted.length > 0) {
+                        permitReturned.signalAll();
+                        continue;
+                    }
+                }
+
+                if (!timed) {
+                    permitReturned.awaitNanos(retryNanos);
+                    continue;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                    return false;
+                permitReturned.awaitNanos(Math.min(remaining, retryNanos));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void release() {
+        long[] excess;
+        lock.lock();
+        try {
+            if (closed)
+                return;
+            if (orphaned > 0) {
+                orphaned--;
+                return;
+            }
+            if (leased.isEmpty()) {
+                return;
+            }
+            free.push(leased.pop());
+            if (lock.hasWaiters(permitReturned)) {
+                permitReturned.signal();
+                return;
+            }
+            excess = takeFree(free.size() - maxCached);
+        } finally {
+            lock.unlock();
+        }
+        unlockSlots(excess);
+    }
+
+    @Override
+    public int availablePermits() {
+        lock.lock();
+        try {
+            return free.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int limit() {
+        return slots.length;
+    }
+
+    /**
+     * Gives every cached slot back to the cluster if nothing was acquired for idleFor.
+     */
+    public void releaseIdle(Duration idleFor) {
+        long[] idle;
+        lock.lock();
+        try {
+            if (System.nanoTime() - lastAcquireNanos < idleFor.toNanos())
+                return;
+            idle = takeFree(free.size());
+        } finally {
+            lock.unlock();
+        }
+        unlockSlots(idle);
+    }
+
+    /**
+     * Gives every slot back to the cluster. Waiting acquirers are woken to fail, and permits still out are released
+     * without effect.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            leased.clear();
+            free.clear();
+            held.clear();
+            orphaned = 0;
+            permitReturned.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        sessionLock.lock();
+        try {
+            closeSession();
+        } finally {
+            sessionLock.unlock();
+        }
+    }
+
+    // under lock
+    private long[] takeFree(int count) {
+        if (count <= 0)
+            return new long[0];
+        long[] taken = new long[count];
+        for (int i = 0; i < count; i++) {
+            // oldest cached slots go back first
+            taken[i] = free.removeLast();
+        }
+        return taken;
+    }
+
+    /**
+     * Slots not held by this JVM, starting at a random offset so nodes don't all race for the same keys.
+     */
+    // under lock
+    private long[] candidates() {
+        long[] candidates = new long[slots.length - held.size()];
+        int offset = ThreadLocalRandom.current().nextInt(slots.length);
+        int c = 0;
+        for (int i = 0; i < slots.length && c < candidates.length; i++) {
+            long slot = slots[(offset + i) % slots.length];
+            if (!held.contains(slot))
+                candidates[c++] = slot;
+        }
+        return candidates;
+    }
+
+    private long[] leaseSlots(long[] candidates, int wanted) {
+        if (wanted <= 0)
+            return new long[0];
+        sessionLock.lock();
+        try {
+            // a session opened after close would hold slots nobody releases
+            if (closed)
+                return new long[0];
+            return advisoryLock.doTryLockAny(candidates, wanted, session());
+        } catch (SQLException | RuntimeException e) {
+            log.error("Failed to lease permits of {} from the cluster, dropping the session: {}", name, e.getMessage());
+            sessionLost();
+            return new long[0];
+        } finally {
+            sessionLock.unlock();
+        }
+    }
+
+    private void unlockSlots(long[] toUnlock) {
+        if (toUnlock.length == 0)
+            return;
+        sessionLock.lock();
+        try {
+            if (session != null) {
+                advisoryLock.doUnlockAll(toUnlock, AdvisoryLock.LockMode.EXCLUSIVE, session);
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to give permits of {} back to the cluster, dropping the session: {}", name, e.getMessage());
+            sessionLost();
+            return;
+        } finally {
+            sessionLock.unlock();
+        }
+
+        lock.lock();
+        try {
+            for (long slot : toUnlock) {
+                held.remove(slot);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // under sessionLock
+    private JdbcTemplate session() throws SQLException {
+        if (session == null) {
+            var metadata = advisoryLock.metadataFor(routingKey)
+                    .orElseThrow(() -> new SQLException("Could not resolve database for cluster permits %s".formatted(name)));
+            dataSource = new SingleConnectionDataSource(advisoryLock.newIsolatedConnection(metadata), false);
+            session = new JdbcTemplate(dataSource);
+        }
+        return session;
+    }
+
+    /**
+     * Postgres released every slot of the session - forget the cache, and let the permits that are out be
+     * released without returning to it.
+     */
+    // under sessionLock
+    private void sessionLost() {
+        closeSession();
+        lock.lock();
+        try {
+            orphaned += leased.size();
+            leased.clear();
+            free.clear();
+            held.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // under sessionLock
+    private void closeSession() {
+        if (dataSource != null) {
+            dataSource.destroy();
+        }
+        dataSource = null;
+        session = null;
+    }
+}
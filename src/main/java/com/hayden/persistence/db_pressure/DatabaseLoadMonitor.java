@@ -0,0 +1,182 @@
+package com.hayden.persistence.db_pressure;
+
+import com.hayden.persistence.lock.AdvisoryLock;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.intellij.lang.annotations.Language;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Pauses waiters while their database is loaded by anyone, not only by local phasers. Every db.load-sample-interval
+ * each routing key of db.load-monitor is sampled:
+ * - active client queries on the database, from pg_stat_activity
+ * - sessions waiting on a lock
+ * - replication lag - replay lag of the standbys on a primary, time since the last replayed transaction on a standby
+ * </p>
+ * While any threshold is crossed the barriers of the key's semaphores are paused, as a remote pause leased for two
+ * intervals and renewed by every sample that is still over - a monitor that stops sampling, or can't reach the
+ * database, lets the waiters go once the lease runs out. Waiters give their permit back while parked, so the
+ * pause doesn't keep interactive callers of the same semaphore out.
+ * <p>
+ * Samples run on a session of their own per routing key, not on the application's pool - when the database is
+ * loaded the pool is likely exhausted too, and the sample must not queue behind the calls it is meant to throttle.
+ * db.load-sample-timeout bounds each sample.
+ */
+@Slf4j
+@Component
+public class DatabaseLoadMonitor {
+
+    @Language("sql")
+    public static final String SAMPLE_LOAD_SQL = """
+                SELECT count(*) FILTER (WHERE a.state = 'active' AND a.pid <> pg_backend_pid()) AS active_queries,
+                       count(*) FILTER (WHERE a.wait_event_type = 'Lock') AS lock_waits,
+                       CASE WHEN pg_is_in_recovery()
+                            THEN COALESCE(EXTRACT(EPOCH FROM (now() - pg_last_xact_replay_timestamp())), 0)
+                            ELSE COALESCE((SELECT EXTRACT(EPOCH FROM max(r.replay_lag)) FROM pg_stat_replication r), 0)
+                       END AS replication_lag_seconds
+                FROM pg_stat_activity a
+                WHERE a.datname = current_database() AND a.backend_type = 'client backend';
+            """;
+
+    private static final String PAUSE_SOURCE = "database-load:";
+
+    public record LoadSample(int activeQueries, int lockWaits, Duration replicationLag) {}
+
+    @Autowired(required = false)
+    AdvisoryLock advisoryLock;
+    @Autowired(required = false)
+    LimitAccessConfigProperties limitAccessConfigProperties = new LimitAccessConfigProperties();
+    @Autowired
+    LimitAccessAspect limitAccessAspect;
+
+    private final ConcurrentHashMap<String, LoadSample> lastSamples = new ConcurrentHashMap<>();
+
+    // routing key -> sampling session, guarded by this
+    private final Map<String, Connection> sessions = new HashMap<>();
+
+    private final ScheduledExecutorService samplerExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "database-load-monitor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @PostConstruct
+    public void init() {
+        if (!limitAccessConfigProperties.enable || limitAccessConfigProperties.loadMonitor.isEmpty())
+            return;
+        if (advisoryLock == null) {
+            log.error("Database load monitor is configured but no advisory lock is available to open its sessions.");
+            return;
+        }
+        long every = limitAccessConfigProperties.loadSampleInterval.toMillis();
+        samplerExecutor.scheduleWithFixedDelay(this::sampleConfiguredKeys, every, every, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        samplerExecutor.shutdownNow();
+        synchronized (this) {
+            new ArrayList<>(sessions.keySet()).forEach(this::closeSession);
+        }
+    }
+
+    public Optional<LoadSample> lastSample(String routingKey) {
+        return Optional.ofNullable(lastSamples.get(routingKey));
+    }
+
+    private void sampleConfiguredKeys() {
+        limitAccessConfigProperties.loadMonitor.forEach((routingKey, thresholds) -> {
+            try {
+                apply(routingKey, thresholds, sample(routingKey));
+            } catch (RuntimeException e) {
+                log.error("Failed to sample load of {}: {}", routingKey, e.getMessage());
+            }
+        });
+    }
+
+    public synchronized LoadSample sample(String routingKey) {
+        try (PreparedStatement ps = session(routingKey).prepareStatement(SAMPLE_LOAD_SQL)) {
+            // the server's statement timeout bounds the query, this bounds a server that doesn't answer at all
+            ps.setQueryTimeout((int) Math.max(1, limitAccessConfigProperties.loadSampleTimeout.toSeconds() + 1));
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return new LoadSample(
+                        rs.getInt("active_queries"),
+                        rs.getInt("lock_waits"),
+                        Duration.ofMillis((long) (rs.getDouble("replication_lag_seconds") * 1000)));
+            }
+        } catch (SQLException e) {
+            // the session may be gone or stuck - the next sample opens a fresh one
+            closeSession(routingKey);
+            throw new IllegalStateException("Failed to sample load of %s: %s".formatted(routingKey, e.getMessage()), e);
+        }
+    }
+
+    // under this
+    private Connection session(String routingKey) throws SQLException {
+        var session = sessions.get(routingKey);
+        if (session != null && !session.isClosed())
+            return session;
+        var metadata = advisoryLock.metadataFor(routingKey)
+                .orElseThrow(() -> new SQLException("Could not resolve database of %s".formatted(routingKey)));
+        session = advisoryLock.newIsolatedConnection(metadata);
+        try (Statement statement = session.createStatement()) {
+            statement.execute("SET statement_timeout = %d".formatted(limitAccessConfigProperties.loadSampleTimeout.toMillis()));
+        } catch (SQLException e) {
+            session.close();
+            throw e;
+        }
+        sessions.put(routingKey, session);
+        return session;
+    }
+
+    // under this
+    private void closeSession(String routingKey) {
+        Optional.ofNullable(sessions.remove(routingKey)).ifPresent(session -> {
+            try {
+                session.close();
+            } catch (SQLException e) {
+                log.debug("Failed to close load sampling session of {}: {}", routingKey, e.getMessage());
+            }
+        });
+    }
+
+    void apply(String routingKey, LimitAccessConfigProperties.LoadThresholds thresholds, LoadSample sample) {
+        lastSamples.put(routingKey, sample);
+        String source = PAUSE_SOURCE + routingKey;
+        if (isOverloaded(thresholds, sample)) {
+            log.debug("Database of {} is loaded ({}), pausing waiters of {}.", routingKey, sample, thresholds.semaphores());
+            Duration lease = limitAccessConfigProperties.loadSampleInterval.multipliedBy(2);
+            thresholds.semaphores().forEach(s -> limitAccessAspect.retrievePauseBarrier(s).pauseRemote(source, lease));
+        } else {
+            thresholds.semaphores().forEach(s -> limitAccessAspect.retrievePauseBarrier(s).resumeRemote(source));
+        }
+    }
+
+    /**
+     * Thresholds that are not set (0 or null) are not checked.
+     */
+    static boolean isOverloaded(LimitAccessConfigProperties.LoadThresholds thresholds, LoadSample sample) {
+        return (thresholds.maxActiveQueries() > 0 && sample.activeQueries() > thresholds.maxActiveQueries())
+                || (thresholds.maxLockWaits() > 0 && sample.lockWaits() > thresholds.maxLockWaits())
+                || (thresholds.maxReplicationLag() != null && sample.replicationLag().compareTo(thresholds.maxReplicationLag()) > 0);
+    }
+}
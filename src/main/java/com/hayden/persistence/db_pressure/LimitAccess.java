@@ -13,6 +13,34 @@ public @interface LimitAccess {
 
     boolean isWaiter() default false;
 
+    /**
+     * Priority class of the call for semaphores that are prioritized - see db.priority-classes. Empty uses
+     * db.default-priority.
+     */
+    String priority() default "";
+
+    /**
+     * Don't wait for a permit - if none is free within acquireTimeoutMillis (now, if not set) the call is skipped:
+     * the fallback method runs if there is one, otherwise null (or the primitive default) is returned.
+     */
     boolean skipIfNotAvailable() default false;
 
+    /**
+     * How long to wait for a permit, -1 for db.acquire-timeout (unbounded if that is not set either). Without
+     * skipIfNotAvailable or a fallback method a timed out call throws {@link LimitAccessRejectedException}.
+     */
+    long acquireTimeoutMillis() default -1;
+
+    /**
+     * Method of the same bean run instead when no permit could be taken. It takes the same parameters, optionally
+     * followed by the {@link LimitAccessRejectedException}, and returns the same type.
+     */
+    String fallbackMethod() default "";
+
+    /**
+     * Rate limit from db.rate-limits taken before the permit, empty for none. Waiting for the rate counts against
+     * acquireTimeoutMillis, and a call that can't get a token in time is rejected like one without a permit.
+     */
+    String rateLimiter() default "";
+
 }
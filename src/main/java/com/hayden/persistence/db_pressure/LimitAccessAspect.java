@@ -1,23 +1,45 @@
 package com.hayden.persistence.db_pressure;
 
 
+import com.hayden.persistence.lock.AdvisoryLock;
 import com.hayden.utilitymodule.MapFunctions;
 import com.hayden.utilitymodule.db.DbDataSourceTrigger;
 import com.hayden.utilitymodule.db.WithDb;
+import com.zaxxer.hikari.HikariDataSource;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.annotation.Pointcut;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.bind.Binder;
 import org.springframework.core.Ordered;
+import org.springframework.core.annotation.AnnotationUtils;
 import org.springframework.core.annotation.Order;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
 import org.springframework.stereotype.Component;
+import org.springframework.util.ReflectionUtils;
 
+import javax.sql.DataSource;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.SQLException;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.hayden.utilitymodule.reflection.ParameterAnnotationUtils.resolveAnnotationForMethod;
 
@@ -33,6 +55,11 @@ import static com.hayden.utilitymodule.reflection.ParameterAnnotationUtils.resol
  * - If a transaction is open, waiters complete it without yielding
  * - If no transaction is open, waiters yield to allow phasers to execute
  * - Phasers pause all waiters, execute their critical section, then resume waiters
+ * <p>
+ * Methods returning a CompletionStage keep their permit, and phasers their pause, until the stage completes, fails
+ * or is cancelled - waiters only checkpoint while the method itself runs. Methods returning a Mono or Flux take a
+ * permit per subscription instead, held until it terminates or is cancelled, see {@link PublisherLease}. Rejected
+ * async calls return a failed stage or an erroring publisher rather than throwing.
  * </p>
  */
 @Slf4j
@@ -44,53 +71,395 @@ public class LimitAccessAspect {
 
     public static final String DEFAULT_SEMAPHORE_NAME = "default";
 
-    public record ReentrantSemaphore(Semaphore semaphore, ThreadLocal<Integer> holds) {
+    /**
+     * Permits taken once per thread however deeply limited calls nest - the depth is kept in the thread's
+     * {@link LimitAccessContext}.
+     *
+     * @param name key of the semaphore in the aspect, and of its meters - see {@link LimitAccessMetrics}.
+     */
+    public record ReentrantSemaphore(String name, PermitPool permits) {
 
-        public ReentrantSemaphore(Semaphore semaphore) {
-            this(semaphore, ThreadLocal.withInitial(() -> 0));
+        public void acquire(String priority) throws InterruptedException {
+            var context = LimitAccessContext.current();
+            if (context.depthOf(this) == 0) {
+                // Only the outermost acquire touches the real semaphore
+                permits.acquire(priority);
+            }
+            context.enter(this, priority);
         }
 
-        public void acquire() throws InterruptedException {
-            int h = holds.get();
-            if (h == 0) {
-                // Only the outermost acquire touches the real semaphore
-                semaphore.acquire();
+        public boolean tryAcquire(String priority, long timeout, TimeUnit unit) throws InterruptedException {
+            var context = LimitAccessContext.current();
+            if (context.depthOf(this) == 0 && !permits.tryAcquire(priority, timeout, unit)) {
+                return false;
             }
-            holds.set(h + 1);
+            context.enter(this, priority);
+            return true;
         }
 
-        public void release() {
-            int h = holds.get();
-            if (h <= 0) {
-                return;
+        /**
+         * Priority the current thread's permit was taken with, null if it holds none.
+         */
+        public String heldPriority() {
+            return (String) LimitAccessContext.tag(this);
+        }
+
+        /**
+         * Leaves the semaphore on this thread without releasing the permit, for a permit handed off to an async
+         * result - the result releases it through the pool when it terminates.
+         */
+        public void handOff() {
+            LimitAccessContext.current().exit(this);
+        }
+
+        public int holds() {
+            return LimitAccessContext.depth(this);
+        }
+
+        /**
+         * Only the outermost call's latency is reported to the pool.
+         */
+        public void sample(long latencyNanos, Throwable failure) {
+            if (holds() == 1) {
+                permits.onSample(latencyNanos, failure);
             }
-            int next = h - 1;
-            if (next == 0) {
-                holds.remove();
-                semaphore.release();
-            } else {
-                holds.set(next);
+        }
+
+        /**
+         * Release with the priority of the matching acquire - the outermost one is the one that took the permit.
+         */
+        public void release(String priority) {
+            if (LimitAccessContext.current().exit(this) == 0) {
+                permits.release(priority);
             }
         }
+
+        // identity, not the pool - the record is the context key
+        @Override
+        public boolean equals(Object o) {
+            return this == o;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this);
+        }
     }
 
     ConcurrentHashMap<String, ReentrantSemaphore> semaphoreMap;
     ConcurrentHashMap<String, PauseBarrier> pauseBarrierMap;
 
+    /**
+     * Plans and fallbacks are per implementation - behind an interface proxy every implementation calls through the
+     * same interface method, and each can annotate it differently.
+     */
+    record MethodKey(Class<?> targetClass, Method method) {
+
+        static MethodKey of(ProceedingJoinPoint joinPoint) {
+            return new MethodKey(joinPoint.getTarget().getClass(), ((MethodSignature) joinPoint.getSignature()).getMethod());
+        }
+    }
+
+    private final ConcurrentHashMap<MethodKey, Method> fallbackMethods = new ConcurrentHashMap<>();
+
+    enum Mode {PHASER, WAITER, DEFAULT}
+
+    /**
+     * Everything around() needs for a method, resolved on its first call. semaphore is null for the default
+     * semaphore and semaphores per routing key, which depend on the routing key of the call, and pauseBarrier is
+     * null in default mode.
+     * distributedPause is set for phasers whose pause goes to every node, async for methods returning a
+     * CompletionStage or publisher, and publisher for the latter only. rateLimit is null without a rate limit, and
+     * rateLimiter null for rate limits per routing key.
+     */
+    record InvocationPlan(LimitAccess limited,
+                          Mode mode,
+                          String priority,
+                          long timeoutMillis,
+                          ReentrantSemaphore semaphore,
+                          boolean semaphorePerRoutingKey,
+                          PauseBarrier pauseBarrier,
+                          boolean distributedPause,
+                          boolean async,
+                          boolean publisher,
+                          String rateLimit,
+                          TokenBucket rateLimiter,
+                          Class<?> returnType) {}
+
+    final ConcurrentHashMap<MethodKey, InvocationPlan> plans = new ConcurrentHashMap<>();
+
+    // rate limit name, or name@routingKey for rate limits per routing key
+    final ConcurrentHashMap<String, TokenBucket> rateLimiterMap = new ConcurrentHashMap<>();
+
     @Autowired(required = false)
     DbDataSourceTrigger trigger;
     @Autowired(required = false)
     LimitAccessConfigProperties limitAccessConfigProperties = new LimitAccessConfigProperties();
+    @Autowired(required = false)
+    AdvisoryLock advisoryLock;
+    @Autowired(required = false)
+    JdbcTemplate jdbcTemplate;
+    @Autowired(required = false)
+    ClusterPauseSignal clusterPauseSignal;
+    @Autowired(required = false)
+    Environment environment;
+    @Autowired(required = false)
+    LimitAccessMetrics limitAccessMetrics = new LimitAccessMetrics();
+
+    private final ScheduledExecutorService clusterPermitExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "cluster-permit-release");
+        t.setDaemon(true);
+        return t;
+    });
 
     @PostConstruct
     public void init() {
         semaphoreMap = MapFunctions.CollectMap(limitAccessConfigProperties.semaphores
                         .entrySet()
                         .stream()
-                        .map(s -> Map.entry(s.getKey(), new ReentrantSemaphore(new Semaphore(s.getValue().permits(), true)))),
+                        // semaphores per routing key are created on the first call for each key
+                        .filter(s -> !s.getValue().perRoutingKey())
+                        .map(s -> Map.entry(s.getKey(), newSemaphore(s.getKey(), createPermitPool(s.getKey(), s.getValue())))),
                 ConcurrentHashMap::new);
 
         pauseBarrierMap = new ConcurrentHashMap<>();
+        // subscribe to remote pauses before any local call
+        limitAccessConfigProperties.semaphores.forEach((name, s) -> {
+            if (s.distributedPause())
+                retrievePauseBarrier(name);
+        });
+
+        long idleRelease = limitAccessConfigProperties.clusterIdleRelease.toMillis();
+        clusterPermitExecutor.scheduleAtFixedRate(this::releaseIdleClusterPermits, idleRelease, idleRelease, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        clusterPermitExecutor.shutdownNow();
+        semaphoreMap.values().forEach(LimitAccessAspect::closePermitPool);
+    }
+
+    /**
+     * Re-binds db.* from the environment and applies it - see {@link #reconfigure(LimitAccessConfigProperties)}.
+     */
+    public void reload() {
+        if (environment == null) {
+            log.error("No environment to reload limit access configuration from.");
+            return;
+        }
+        reconfigure(Binder.get(environment)
+                .bind("db", LimitAccessConfigProperties.class)
+                .orElseGet(LimitAccessConfigProperties::new));
+    }
+
+    /**
+     * <p>
+     * Applies a new configuration to the running aspect, without dropping calls in flight:
+     * - semaphores whose permits changed are resized in place, semaphores that changed otherwise or can't be
+     *   resized get a new pool - calls holding a permit of the old one release it there
+     * - semaphores no longer configured fall back to maxAccess on their next call, default semaphores are resized
+     *   to maxAccess
+     * - rate limits that changed start over with a full bucket, and timeouts and priorities apply from the next call
+     * </p>
+     * The properties bean is updated in place, so it keeps describing what runs. Pause barriers keep their grace
+     * period. Calls waiting on a cluster pool that is replaced or removed are rejected.
+     *
+     * @throws IllegalArgumentException if a semaphore of next can't be applied - nothing is changed then.
+     */
+    public synchronized void reconfigure(LimitAccessConfigProperties next) {
+        validate(next);
+        var previousSemaphores = Map.copyOf(limitAccessConfigProperties.semaphores);
+        var previousRateLimits = Map.copyOf(limitAccessConfigProperties.rateLimits);
+        int previousMaxAccess = limitAccessConfigProperties.maxAccess;
+        BeanUtils.copyProperties(next, limitAccessConfigProperties);
+        // restoring a failed semaphore below must not write into next
+        limitAccessConfigProperties.semaphores = new HashMap<>(next.semaphores);
+
+        for (String name : new ArrayList<>(semaphoreMap.keySet())) {
+            var configured = configuredSemaphore(next.semaphores, name);
+            var previous = configuredSemaphore(previousSemaphores, name);
+            try {
+                if (configured != null) {
+                    if (!configured.equals(previous))
+                        applySemaphore(name, previous, configured);
+                } else if (previous != null) {
+                    closePermitPool(semaphoreMap.remove(name));
+                    limitAccessMetrics.removeSemaphore(name);
+                } else {
+                    resizeOrLog(name, semaphoreMap.get(name), next.maxAccess);
+                }
+            } catch (RuntimeException e) {
+                log.error("Failed to reconfigure semaphore {}, it keeps its previous configuration: {}", name, e.getMessage());
+                restoreConfiguration(name, previousSemaphores, previousMaxAccess);
+            }
+        }
+
+        previousRateLimits.forEach((name, rateLimit) -> {
+            if (!rateLimit.equals(next.rateLimits.get(name)))
+                rateLimiterMap.keySet().removeIf(k -> k.equals(name) || k.startsWith(name + "@"));
+        });
+        plans.clear();
+        log.info("Reconfigured limit access - semaphores {}, rate limits {}.", next.semaphores.keySet(), next.rateLimits.keySet());
+    }
+
+    /**
+     * Checks every semaphore of next, and the running pools it would resize, before anything is changed.
+     */
+    private void validate(LimitAccessConfigProperties next) {
+        if (next.maxAccess < 0)
+            throw new IllegalArgumentException("maxAccess must not be negative, was %d".formatted(next.maxAccess));
+        int reserved = next.priorityClasses.values().stream()
+                .mapToInt(c -> Math.max(0, c.reserved()))
+                .sum();
+        next.semaphores.forEach((name, semaphore) -> {
+            validate(name, semaphore, reserved);
+            semaphore.routingKeyPermits()
+                    .keySet()
+                    .forEach(key -> validate(name + "@" + key, semaphore.forRoutingKey(key), reserved));
+        });
+        semaphoreMap.forEach((name, running) -> {
+            var configured = configuredSemaphore(next.semaphores, name);
+            // resized in place, so bound by the classes it was created with
+            if (configured != null && running.permits() instanceof PriorityPermitPool p && configured.permits() < p.reserved())
+                throw new IllegalArgumentException("Semaphore %s reserves %d permits for priority classes, can't resize to %d"
+                        .formatted(name, p.reserved(), configured.permits()));
+        });
+    }
+
+    private static void validate(String name, LimitAccessConfigProperties.Semaphore semaphore, int reserved) {
+        if (semaphore.permits() < 0)
+            throw new IllegalArgumentException("Semaphore %s permits must not be negative, was %d".formatted(name, semaphore.permits()));
+        if (semaphore.scope() == LimitAccessConfigProperties.Scope.CLUSTER) {
+            if (semaphore.permits() == 0)
+                throw new IllegalArgumentException("Cluster semaphore %s needs at least one permit".formatted(name));
+            return;
+        }
+        if (semaphore.prioritized() && semaphore.permits() < reserved)
+            throw new IllegalArgumentException("Priority classes reserve %d permits but semaphore %s has only %d"
+                    .formatted(reserved, name, semaphore.permits()));
+        if (semaphore.adaptive() && !semaphore.prioritized() && semaphore.adaptiveMaxPermits() < 1)
+            throw new IllegalArgumentException("Adaptive semaphore %s needs at least one permit".formatted(name));
+    }
+
+    /**
+     * Puts the configuration a semaphore that could not be reconfigured still runs with back into the properties.
+     */
+    private void restoreConfiguration(String name,
+                                      Map<String, LimitAccessConfigProperties.Semaphore> previousSemaphores,
+                                      int previousMaxAccess) {
+        String configName = previousSemaphores.containsKey(name) || limitAccessConfigProperties.semaphores.containsKey(name)
+                ? name
+                : name.substring(0, Math.max(0, name.lastIndexOf('@')));
+        var previous = previousSemaphores.get(configName);
+        if (previous != null)
+            limitAccessConfigProperties.semaphores.put(configName, previous);
+        else if (limitAccessConfigProperties.semaphores.remove(configName) == null)
+            limitAccessConfigProperties.maxAccess = previousMaxAccess;
+    }
+
+    /**
+     * Configuration of a running semaphore - a name@routingKey pool of a perRoutingKey semaphore gets its key's.
+     */
+    private static LimitAccessConfigProperties.Semaphore configuredSemaphore(Map<String, LimitAccessConfigProperties.Semaphore> semaphores,
+                                                                             String name) {
+        var semaphore = semaphores.get(name);
+        if (semaphore != null)
+            return semaphore.perRoutingKey() ? null : semaphore;
+        int at = name.lastIndexOf('@');
+        if (at < 0)
+            return null;
+        var partitioned = semaphores.get(name.substring(0, at));
+        return partitioned != null && partitioned.perRoutingKey()
+                ? partitioned.forRoutingKey(name.substring(at + 1))
+                : null;
+    }
+
+    private void applySemaphore(String name,
+                                LimitAccessConfigProperties.Semaphore previous,
+                                LimitAccessConfigProperties.Semaphore configured) {
+        var existing = semaphoreMap.get(name);
+        if (previous != null && isResize(previous, configured)) {
+            try {
+                existing.permits().resize(configured.adaptive() ? configured.adaptiveMaxPermits() : configured.permits());
+                return;
+            } catch (UnsupportedOperationException e) {
+                log.info("Semaphore {} can't be resized in place, replacing it: {}", name, e.getMessage());
+            }
+        }
+        semaphoreMap.put(name, newSemaphore(name, createPermitPool(name, configured)));
+        closePermitPool(existing);
+    }
+
+    /**
+     * Same semaphore with a different size.
+     */
+    private static boolean isResize(LimitAccessConfigProperties.Semaphore previous,
+                                    LimitAccessConfigProperties.Semaphore configured) {
+        return configured.equals(previous.toBuilder()
+                .permits(configured.permits())
+                .maxPermits(configured.maxPermits())
+                .build());
+    }
+
+    /**
+     * Resizes the pool of a running semaphore - until the next reconfiguration, which resizes it from the
+     * properties again.
+     */
+    public void resize(String semaphoreName, int permits) {
+        var existing = semaphoreMap.get(semaphoreName);
+        if (existing == null)
+            throw new IllegalArgumentException("No semaphore %s is running".formatted(semaphoreName));
+        existing.permits().resize(permits);
+    }
+
+    private static void resizeOrLog(String name, ReentrantSemaphore semaphore, int permits) {
+        try {
+            if (semaphore.permits().limit() != permits)
+                semaphore.permits().resize(permits);
+        } catch (UnsupportedOperationException e) {
+            log.debug("Not resizing semaphore {}: {}", name, e.getMessage());
+        }
+    }
+
+    private static void closePermitPool(ReentrantSemaphore semaphore) {
+        if (semaphore != null && semaphore.permits() instanceof ClusterPermitPool c)
+            c.close();
+    }
+
+    private PermitPool createPermitPool(String name, LimitAccessConfigProperties.Semaphore semaphore) {
+        if (semaphore.scope() == LimitAccessConfigProperties.Scope.CLUSTER) {
+            if (semaphore.adaptive() || semaphore.prioritized()) {
+                log.warn("Semaphore {} is cluster scoped - adaptive and prioritized limits are not supported for it and are ignored.", name);
+            }
+            if (advisoryLock != null) {
+                return new ClusterPermitPool(advisoryLock, semaphore.routingKey(), name, semaphore.permits(),
+                        semaphore.leaseBatch(), semaphore.maxCached(), limitAccessConfigProperties.clusterRetryInterval);
+            }
+            log.error("Semaphore {} is cluster scoped but no advisory lock is available. Using local permits.", name);
+        }
+        if (semaphore.prioritized()) {
+            if (semaphore.adaptive()) {
+                log.warn("Semaphore {} is prioritized - adaptive limit is not supported for it and is ignored.", name);
+            }
+            return new PriorityPermitPool(semaphore.permits(), limitAccessConfigProperties.priorityClasses,
+                    limitAccessConfigProperties.defaultPriority, limitAccessConfigProperties.priorityAging);
+        }
+        if (semaphore.adaptive()) {
+            return new AdaptivePermitPool(semaphore.permits(), semaphore.minPermits(), semaphore.adaptiveMaxPermits());
+        }
+        return new LocalPermitPool(semaphore.permits());
+    }
+
+    private void releaseIdleClusterPermits() {
+        semaphoreMap.values().forEach(s -> {
+            if (s.permits() instanceof ClusterPermitPool c) {
+                try {
+                    c.releaseIdle(limitAccessConfigProperties.clusterIdleRelease);
+                } catch (RuntimeException e) {
+                    log.error("Failed to release idle cluster permits: {}", e.getMessage());
+                }
+            }
+        });
     }
 
     @Pointcut("@annotation(com.hayden.persistence.db_pressure.LimitAccess)")
@@ -100,147 +469,649 @@ public class LimitAccessAspect {
     @Around("withLimitAccess()")
     public Object around(ProceedingJoinPoint joinPoint) throws Throwable {
         if (!this.limitAccessConfigProperties.enable)
-            return joinPoint.proceed(joinPoint.getArgs());
-
-        Optional<LimitAccess> limitAccessOpt = resolveAnnotationForMethod(joinPoint, LimitAccess.class);
+            return joinPoint.proceed();
 
-        if (limitAccessOpt.isEmpty()) {
-            throw new IllegalArgumentException("Limit access did not contain any annotation");
+        MethodKey method = MethodKey.of(joinPoint);
+        InvocationPlan plan = plans.get(method);
+        if (plan == null) {
+            plan = plans.computeIfAbsent(method, m -> createPlan(joinPoint, m));
         }
 
-        var limited = limitAccessOpt.get();
+        ReentrantSemaphore reentrantSemaphore = plan.semaphore() != null
+                ? plan.semaphore()
+                : plan.semaphorePerRoutingKey()
+                ? retrieveRoutingKeySemaphore(plan.limited().semaphoreName())
+                : retrieveRoutingKeySemaphore();
 
-        PauseBarrier pauseBarrier = retrievePauseBarrier(limited.semaphoreName());
-        boolean isPhaser = limited.isPhaser();
-        boolean isWaiter = limited.isWaiter();
+        if (plan.publisher())
+            return limitPerSubscription(joinPoint, plan, reentrantSemaphore);
+        return proceedWithPermit(joinPoint, plan, reentrantSemaphore);
+    }
+
+    private InvocationPlan createPlan(ProceedingJoinPoint joinPoint, MethodKey method) {
+        // the implementation's annotation wins over the one of the interface method the proxy was called through
+        var limited = Optional.ofNullable(AnnotationUtils.findAnnotation(
+                        AopUtils.getMostSpecificMethod(method.method(), method.targetClass()), LimitAccess.class))
+                .or(() -> resolveAnnotationForMethod(joinPoint, LimitAccess.class))
+                .orElseThrow(() -> new IllegalArgumentException("Limit access did not contain any annotation"));
 
-        // Handle phaser (short-lived, high-priority request)
-        if (isPhaser) {
-            var p = handlePhaser(joinPoint, limited, pauseBarrier);
-            return p;
+        Class<?> returnType = ((MethodSignature) joinPoint.getSignature()).getReturnType();
+        Mode mode = limited.isPhaser() ? Mode.PHASER : limited.isWaiter() ? Mode.WAITER : Mode.DEFAULT;
+
+        String rateLimit = limited.rateLimiter().isEmpty() ? null : limited.rateLimiter();
+        var rateLimitConfig = rateLimit == null ? null : limitAccessConfigProperties.rateLimits.get(rateLimit);
+        if (rateLimit != null && rateLimitConfig == null) {
+            log.error("Limit access did not contain rate limit with key {}. Calls are not rate limited.", rateLimit);
+            rateLimit = null;
         }
 
-        // Handle waiter (long-running operation)
-        if (isWaiter) {
-            var w = handleWaiter(joinPoint, limited, pauseBarrier);
-            return w;
+        long timeoutMillis = limited.acquireTimeoutMillis();
+        if (timeoutMillis < 0 && limited.skipIfNotAvailable()) {
+            timeoutMillis = 0;
+        } else if (timeoutMillis < 0 && limitAccessConfigProperties.acquireTimeout != null) {
+            timeoutMillis = limitAccessConfigProperties.acquireTimeout.toMillis();
         }
 
-        var d = handleDefault(joinPoint, limited);
+        return new InvocationPlan(
+                limited,
+                mode,
+                limited.priority().isEmpty() ? limitAccessConfigProperties.defaultPriority : limited.priority(),
+                timeoutMillis,
+                Objects.equals(limited.semaphoreName(), DEFAULT_SEMAPHORE_NAME) || isPerRoutingKey(limited.semaphoreName())
+                        ? null
+                        : retrieveSemaphore(limited),
+                isPerRoutingKey(limited.semaphoreName()),
+                mode == Mode.DEFAULT ? null : retrievePauseBarrier(limited.semaphoreName()),
+                mode == Mode.PHASER && isDistributedPause(limited.semaphoreName()),
+                AsyncResults.isAsync(returnType),
+                AsyncResults.isPublisher(returnType),
+                rateLimit,
+                rateLimit == null || rateLimitConfig.perRoutingKey() ? null : retrieveRateLimiter(rateLimit, rateLimit),
+                returnType);
+    }
 
-        return d;
+    private static void logInterrupted(InterruptedException e) {
+        log.error("Interrupted while waiting for Semaphore to acquire - could not acquire semaphore.", e);
     }
 
     /**
-     * Handle phaser: pause all waiters, execute critical section, resume waiters
+     * Runs the call holding a permit and reports its latency to the permit pool. The rate limit token is taken
+     * first, so no permit is held while waiting for the rate, and both waits share the acquire timeout.
+     * - Phaser: pause all waiters, execute critical section, resume waiters
+     * - Waiter: registered with the pause barrier while running, checkpoints before running - time parked there is
+     *   not part of the latency
+     * - Default: apply semaphore without pause barrier logic
+     * A CompletionStage returned by the outermost call takes the permit over, it is released and sampled when the
+     * stage completes.
      */
-    private Object handlePhaser(ProceedingJoinPoint joinPoint,
-                                LimitAccess limited,
-                                PauseBarrier pauseBarrier) throws Throwable {
-        ReentrantSemaphore reentrantSemaphore = retrieveSemaphore(limited);
+    private Object proceedWithPermit(ProceedingJoinPoint joinPoint,
+                                     InvocationPlan plan,
+                                     ReentrantSemaphore reentrantSemaphore) throws Throwable {
+        long waitStart = System.nanoTime();
         try {
-            reentrantSemaphore.acquire();
-            var p = pauseBarrier.pauseWaitersAndRun(() -> {
-                try {
-                    return PauseBarrier.ResultOrExc.of(joinPoint.proceed(joinPoint.getArgs()));
-                } catch (Throwable e) {
-                    return PauseBarrier.ResultOrExc.err(e);
-                }
-            });
-
-            if (p.isErr()) {
-                throw p.cause();
-            } else {
-                return p.t();
+            if (plan.rateLimit() != null && !acquireRateToken(plan, retrieveRateLimiter(plan))) {
+                limitAccessMetrics.rejected(reentrantSemaphore, LimitAccessMetrics.Rejection.RATE_LIMIT);
+                return reject(joinPoint, plan,
+                        new LimitAccessRejectedException(plan.rateLimit(), Duration.ofNanos(System.nanoTime() - waitStart)));
+            }
+            if (!acquirePermit(plan, reentrantSemaphore, waitStart)) {
+                limitAccessMetrics.rejected(reentrantSemaphore, LimitAccessMetrics.Rejection.TIMEOUT);
+                return reject(joinPoint, plan,
+                        new LimitAccessRejectedException(plan.limited().semaphoreName(), Duration.ofNanos(System.nanoTime() - waitStart)));
             }
         } catch (InterruptedException e) {
-            doInterrupt();
-            return joinPoint.proceed(joinPoint.getArgs());
+            // never run without a permit - keep the interrupt for the caller and reject.
+            Thread.currentThread().interrupt();
+            limitAccessMetrics.rejected(reentrantSemaphore, LimitAccessMetrics.Rejection.INTERRUPTED);
+            return reject(joinPoint, plan,
+                    new LimitAccessRejectedException(plan.limited().semaphoreName(), Duration.ofNanos(System.nanoTime() - waitStart), e));
+        } catch (PermitPoolClosedException e) {
+            // the pool was replaced or removed by a reconfiguration while the call waited on it
+            limitAccessMetrics.rejected(reentrantSemaphore, LimitAccessMetrics.Rejection.CLOSED);
+            return reject(joinPoint, plan,
+                    new LimitAccessRejectedException(plan.limited().semaphoreName(), Duration.ofNanos(System.nanoTime() - waitStart)));
+        }
+
+        boolean outermost = reentrantSemaphore.holds() == 1;
+        if (outermost)
+            limitAccessMetrics.acquired(reentrantSemaphore, plan.mode(), System.nanoTime() - waitStart);
+
+        Throwable failure = null;
+        long start = 0;
+        boolean waiter = plan.mode() == Mode.WAITER;
+        boolean handedOff = false;
+        try {
+            if (waiter) {
+                plan.pauseBarrier().registerWaiter();
+                checkpointWithoutPermit(reentrantSemaphore, plan.pauseBarrier());
+            }
+            start = System.nanoTime();
+            Object result = plan.mode() == Mode.PHASER
+                    ? proceedPausingWaiters(joinPoint, plan)
+                    : joinPoint.proceed();
+            if (plan.async() && result != null && outermost) {
+                handedOff = true;
+                result = releaseOnTermination(result, plan, reentrantSemaphore, start);
+            }
+            return result;
+        } catch (Throwable t) {
+            failure = t;
+            throw t;
         } finally {
-            reentrantSemaphore.release();
+            if (waiter)
+                plan.pauseBarrier().deregisterWaiter();
+            if (handedOff) {
+                reentrantSemaphore.handOff();
+            } else {
+                if (start != 0)
+                    reentrantSemaphore.sample(System.nanoTime() - start, failure);
+                if (outermost)
+                    limitAccessMetrics.released(reentrantSemaphore);
+                reentrantSemaphore.release(plan.priority());
+            }
         }
     }
 
     /**
-     * Handle waiter: register with pause barrier, call checkpoints periodically
+     * Checkpoint of a waiter call on semaphoreName, see {@link #checkpointWithoutPermit}.
      */
-    private Object handleWaiter(ProceedingJoinPoint joinPoint,
-                                LimitAccess limited,
-                                PauseBarrier pauseBarrier) throws Throwable {
-        ReentrantSemaphore reentrantSemaphore = retrieveSemaphore(limited);
-        try {
-            reentrantSemaphore.acquire();
-            pauseBarrier.checkpointIfPaused();
-            return joinPoint.proceed(joinPoint.getArgs());
-        } catch (InterruptedException e) {
-            doInterrupt();
-            return joinPoint.proceed(joinPoint.getArgs());
-        } finally {
-            reentrantSemaphore.release();
+    void checkpointWaiter(String semaphoreName, PauseBarrier barrier) {
+        checkpointWithoutPermit(heldSemaphore(semaphoreName), barrier);
+    }
+
+    /**
+     * Parks the waiter with the permit it holds given back to the pool, and takes a permit again with the same
+     * priority before it goes on - a waiter parked for long, by a phaser or the load monitor, doesn't keep
+     * interactive callers of the semaphore out. Nested holds keep their depth, only the pool sees the permit go and
+     * come back.
+     */
+    private void checkpointWithoutPermit(ReentrantSemaphore semaphore, PauseBarrier barrier) {
+        if (semaphore == null || semaphore.holds() == 0) {
+            barrier.checkpointIfPaused();
+            return;
         }
+        String priority = semaphore.heldPriority();
+        barrier.checkpointIfPaused(() -> {
+            limitAccessMetrics.released(semaphore);
+            semaphore.permits().release(priority);
+        }, () -> {
+            long waitStart = System.nanoTime();
+            reacquire(semaphore.permits(), priority);
+            limitAccessMetrics.acquired(semaphore, Mode.WAITER, System.nanoTime() - waitStart);
+        });
     }
 
-    private static void logInterrupted(InterruptedException e) {
-        log.error("Interrupted while waiting for Semaphore to acquire - could not acquire semaphore.", e);
+    /**
+     * The waiter's call goes on holding the permit whatever happens, an interrupt is kept for the caller. A pool
+     * closed while the waiter was parked has no permit to give - the call finishes without one, its release is a no-op
+     * on the closed pool.
+     */
+    private static void reacquire(PermitPool permits, String priority) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                permits.acquire(priority);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (PermitPoolClosedException e) {
+                log.warn("Pool of a parked waiter was closed, it goes on without a permit: {}", e.getMessage());
+                break;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * The semaphore a limited call on semaphoreName would use on this thread, null if there is none yet.
+     */
+    private ReentrantSemaphore heldSemaphore(String semaphoreName) {
+        if (isPerRoutingKey(semaphoreName))
+            return semaphoreMap.get(semaphoreName + "@" + currentRoutingKey());
+        if (Objects.equals(semaphoreName, DEFAULT_SEMAPHORE_NAME))
+            return semaphoreMap.get(currentRoutingKey());
+        return semaphoreMap.get(semaphoreName);
+    }
+
+    private Object releaseOnTermination(Object result,
+                                        InvocationPlan plan,
+                                        ReentrantSemaphore reentrantSemaphore,
+                                        long start) {
+        return AsyncResults.onTermination((CompletionStage<?>) result, plan.returnType(), failure -> {
+            reentrantSemaphore.permits().onSample(System.nanoTime() - start, failure);
+            limitAccessMetrics.released(reentrantSemaphore);
+            reentrantSemaphore.permits().release(plan.priority());
+        });
+    }
+
+    private Object proceedPausingWaiters(ProceedingJoinPoint joinPoint, InvocationPlan plan) throws Throwable {
+        // nested phasers on the thread don't handshake
+        boolean handshake = !plan.pauseBarrier().hasCoordinatorDepthLocal();
+        long pauseStart = System.nanoTime();
+        var p = plan.pauseBarrier().pauseWaitersAndRun(() -> {
+            if (handshake)
+                limitAccessMetrics.handshake(plan.limited().semaphoreName(), System.nanoTime() - pauseStart);
+            if (plan.distributedPause())
+                clusterPauseSignal.pause(plan.limited().semaphoreName());
+            try {
+                Object result = joinPoint.proceed();
+                if (plan.async() && result != null) {
+                    result = extendPauseUntilTermination(result, plan);
+                }
+                return PauseBarrier.ResultOrExc.of(result);
+            } catch (Throwable e) {
+                return PauseBarrier.ResultOrExc.err(e);
+            } finally {
+                if (plan.distributedPause())
+                    clusterPauseSignal.resume(plan.limited().semaphoreName());
+            }
+        });
+
+        if (p.isErr()) {
+            throw p.cause();
+        } else {
+            return p.t();
+        }
+    }
+
+    private Object extendPauseUntilTermination(Object result, InvocationPlan plan) {
+        Runnable resume = plan.pauseBarrier().extendPause();
+        if (plan.distributedPause())
+            clusterPauseSignal.pause(plan.limited().semaphoreName());
+        return AsyncResults.onTermination((CompletionStage<?>) result, plan.returnType(), failure -> {
+            resume.run();
+            if (plan.distributedPause())
+                clusterPauseSignal.resume(plan.limited().semaphoreName());
+        });
+    }
+
+    /**
+     * Publishers are cold - the method only assembles them and the work runs on subscription. The method runs
+     * without a permit, and every subscription takes its own {@link PublisherLease}. The semaphore and rate limiter
+     * are resolved now, they depend on the caller's routing key.
+     */
+    private Object limitPerSubscription(ProceedingJoinPoint joinPoint,
+                                        InvocationPlan plan,
+                                        ReentrantSemaphore reentrantSemaphore) throws Throwable {
+        Object publisher = joinPoint.proceed();
+        if (publisher == null)
+            return null;
+        TokenBucket rateLimiter = plan.rateLimit() == null ? null : retrieveRateLimiter(plan);
+        return AsyncResults.perSubscription(publisher,
+                () -> new PublisherLease(plan, reentrantSemaphore, rateLimiter),
+                rejected -> {
+                    try {
+                        return reject(joinPoint, plan, rejected);
+                    } catch (Throwable t) {
+                        return AsyncResults.failed(plan.returnType(), t);
+                    }
+                });
+    }
+
+    /**
+     * <p>
+     * Permit of one subscription to a publisher returned by a limited method. A subscription doesn't stay on one
+     * thread, so the permit is taken from the pool directly rather than through the thread's context - unless the
+     * subscribing thread already holds the semaphore, then the subscription runs under that permit as a nested call
+     * would.
+     * - tryAcquire runs on the subscribing thread and only succeeds if nothing has to wait
+     * - acquire runs on a worker: a waiter parks there while phasers run, before it takes a permit, then the rate
+     *   token and the permit are waited for within the acquire timeout, and a phaser does its handshake
+     * - a phaser keeps waiters paused until its subscription terminates
+     * Waiter subscriptions are not registered with the barrier - phasers don't wait for them to acknowledge.
+     * </p>
+     */
+    private final class PublisherLease implements AsyncResults.Lease {
+
+        private final InvocationPlan plan;
+        private final ReentrantSemaphore semaphore;
+        private final TokenBucket rateLimiter;
+        private final long waitStart = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private boolean rateToken;
+        private boolean permit;
+        private Runnable resume;
+        private long start;
+
+        PublisherLease(InvocationPlan plan, ReentrantSemaphore semaphore, TokenBucket rateLimiter) {
+            this.plan = plan;
+            this.semaphore = semaphore;
+            this.rateLimiter = rateLimiter;
+        }
+
+        @Override
+        public boolean tryAcquire() {
+            if (semaphore.holds() > 0) {
+                start = System.nanoTime();
+                return true;
+            }
+            if (plan.mode() == Mode.PHASER
+                    || (plan.mode() == Mode.WAITER && plan.pauseBarrier().isPaused()))
+                return false;
+            try {
+                if (rateLimiter != null && !rateToken) {
+                    if (!rateLimiter.tryAcquire())
+                        return mayWait(plan.rateLimit(), LimitAccessMetrics.Rejection.RATE_LIMIT);
+                    rateToken = true;
+                }
+                if (!semaphore.permits().tryAcquire(plan.priority(), 0, TimeUnit.NANOSECONDS))
+                    return mayWait(plan.limited().semaphoreName(), LimitAccessMetrics.Rejection.TIMEOUT);
+            } catch (InterruptedException e) {
+                throw interrupted(e);
+            } catch (PermitPoolClosedException e) {
+                throw rejected(plan.limited().semaphoreName(), LimitAccessMetrics.Rejection.CLOSED);
+            }
+            permit = true;
+            started();
+            return true;
+        }
+
+        @Override
+        public void acquire() {
+            try {
+                if (plan.mode() == Mode.WAITER)
+                    plan.pauseBarrier().checkpointIfPaused();
+                if (rateLimiter != null && !rateToken) {
+                    if (!acquireRateToken(plan, rateLimiter))
+                        throw rejected(plan.rateLimit(), LimitAccessMetrics.Rejection.RATE_LIMIT);
+                    rateToken = true;
+                }
+                if (plan.timeoutMillis() < 0) {
+                    semaphore.permits().acquire(plan.priority());
+                } else if (!semaphore.permits().tryAcquire(plan.priority(), remainingTimeoutNanos(plan, waitStart), TimeUnit.NANOSECONDS)) {
+                    throw rejected(plan.limited().semaphoreName(), LimitAccessMetrics.Rejection.TIMEOUT);
+                }
+            } catch (InterruptedException e) {
+                throw interrupted(e);
+            } catch (PermitPoolClosedException e) {
+                throw rejected(plan.limited().semaphoreName(), LimitAccessMetrics.Rejection.CLOSED);
+            }
+            permit = true;
+            if (plan.mode() == Mode.PHASER)
+                pause();
+            started();
+        }
+
+        @Override
+        public void release(Throwable failure) {
+            if (!released.compareAndSet(false, true))
+                return;
+            if (resume != null) {
+                resume.run();
+                if (plan.distributedPause())
+                    clusterPauseSignal.resume(plan.limited().semaphoreName());
+            }
+            if (!permit)
+                return;
+            semaphore.permits().onSample(System.nanoTime() - start, failure);
+            limitAccessMetrics.released(semaphore);
+            semaphore.permits().release(plan.priority());
+        }
+
+        private void pause() {
+            var barrier = plan.pauseBarrier();
+            long pauseStart = System.nanoTime();
+            resume = barrier.pauseWaitersAndRun(() -> {
+                limitAccessMetrics.handshake(plan.limited().semaphoreName(), System.nanoTime() - pauseStart);
+                return PauseBarrier.ResultOrExc.of(barrier.extendPause());
+            }).t();
+            if (plan.distributedPause())
+                clusterPauseSignal.pause(plan.limited().semaphoreName());
+        }
+
+        private void started() {
+            start = System.nanoTime();
+            limitAccessMetrics.acquired(semaphore, plan.mode(), start - waitStart);
+        }
+
+        private boolean mayWait(String name, LimitAccessMetrics.Rejection reason) {
+            if (plan.timeoutMillis() == 0)
+                throw rejected(name, reason);
+            return false;
+        }
+
+        private LimitAccessRejectedException rejected(String name, LimitAccessMetrics.Rejection reason) {
+            limitAccessMetrics.rejected(semaphore, reason);
+            return new LimitAccessRejectedException(name, Duration.ofNanos(System.nanoTime() - waitStart));
+        }
+
+        private LimitAccessRejectedException interrupted(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            limitAccessMetrics.rejected(semaphore, LimitAccessMetrics.Rejection.INTERRUPTED);
+            return new LimitAccessRejectedException(plan.limited().semaphoreName(), Duration.ofNanos(System.nanoTime() - waitStart), e);
+        }
     }
 
     /**
-     * Default behavior: apply semaphore without pause barrier logic
+     * @return false if the acquire timed out. Blocks without bound if neither the annotation, skipIfNotAvailable nor
+     * the configuration bound the wait.
      */
-    private Object handleDefault(ProceedingJoinPoint joinPoint,
-                                 LimitAccess limited) throws Throwable {
-        ReentrantSemaphore reentrantSemaphore = retrieveSemaphore(limited);
+    private static boolean acquirePermit(InvocationPlan plan, ReentrantSemaphore reentrantSemaphore, long waitStart) throws InterruptedException {
+        if (plan.timeoutMillis() < 0) {
+            reentrantSemaphore.acquire(plan.priority());
+            return true;
+        }
+        return reentrantSemaphore.tryAcquire(plan.priority(), remainingTimeoutNanos(plan, waitStart), TimeUnit.NANOSECONDS);
+    }
+
+    private static boolean acquireRateToken(InvocationPlan plan, TokenBucket rateLimiter) throws InterruptedException {
+        if (plan.timeoutMillis() < 0) {
+            rateLimiter.acquire();
+            return true;
+        }
+        return rateLimiter.tryAcquire(plan.timeoutMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private static long remainingTimeoutNanos(InvocationPlan plan, long waitStart) {
+        return Math.max(0, TimeUnit.MILLISECONDS.toNanos(plan.timeoutMillis()) - (System.nanoTime() - waitStart));
+    }
+
+    private Object reject(ProceedingJoinPoint joinPoint,
+                          InvocationPlan plan,
+                          LimitAccessRejectedException rejected) throws Throwable {
+        if (!plan.limited().fallbackMethod().isEmpty()) {
+            return invokeFallback(joinPoint, plan.limited(), rejected);
+        }
+        if (plan.limited().skipIfNotAvailable()) {
+            log.debug("Skipping {} - {}", joinPoint.getSignature().toShortString(), rejected.getMessage());
+            return skippedValue(plan.returnType());
+        }
+        if (plan.async()) {
+            Object failed = AsyncResults.failed(plan.returnType(), rejected);
+            if (failed != null)
+                return failed;
+        }
+        throw rejected;
+    }
+
+    private Object invokeFallback(ProceedingJoinPoint joinPoint,
+                                  LimitAccess limited,
+                                  LimitAccessRejectedException rejected) throws Throwable {
+        Object target = joinPoint.getTarget();
+        Method fallback = fallbackMethods.computeIfAbsent(MethodKey.of(joinPoint),
+                m -> resolveFallback(m.targetClass(), m.method(), limited.fallbackMethod()));
+
+        Object[] args = joinPoint.getArgs();
+        if (fallback.getParameterCount() > args.length) {
+            args = Arrays.copyOf(args, args.length + 1);
+            args[args.length - 1] = rejected;
+        }
         try {
-            reentrantSemaphore.acquire();
-            return joinPoint.proceed(joinPoint.getArgs());
-        } catch (InterruptedException e) {
-            doInterrupt();
-            return joinPoint.proceed(joinPoint.getArgs());
-        } finally {
-            reentrantSemaphore.release();
+            return fallback.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
         }
     }
 
-    private static void doInterrupt() {
-        log.error("Interrupted while waiting for Semaphore to acquire - could not acquire semaphore.");
-        Thread.currentThread().interrupt();
+    private static Method resolveFallback(Class<?> targetClass, Method method, String fallbackName) {
+        Class<?>[] params = method.getParameterTypes();
+        Class<?>[] withRejection = Arrays.copyOf(params, params.length + 1);
+        withRejection[params.length] = LimitAccessRejectedException.class;
+
+        Method fallback = Optional.ofNullable(ReflectionUtils.findMethod(targetClass, fallbackName, withRejection))
+                .or(() -> Optional.ofNullable(ReflectionUtils.findMethod(targetClass, fallbackName, params)))
+                .orElseThrow(() -> new IllegalArgumentException("Fallback method %s(%s) not found on %s"
+                        .formatted(fallbackName, Arrays.toString(params), targetClass.getName())));
+
+        if (!method.getReturnType().isAssignableFrom(fallback.getReturnType())) {
+            throw new IllegalArgumentException("Fallback method %s must return %s"
+                    .formatted(fallbackName, method.getReturnType().getName()));
+        }
+        ReflectionUtils.makeAccessible(fallback);
+        return fallback;
+    }
+
+    /**
+     * A proxy can't return null for a primitive, so skipped calls return the primitive's default, and callers of
+     * async methods expect a result to compose on, so they get an empty one.
+     */
+    private static Object skippedValue(Class<?> returnType) {
+        if (AsyncResults.isAsync(returnType))
+            return AsyncResults.empty(returnType);
+        if (!returnType.isPrimitive() || returnType == void.class)
+            return null;
+        return Array.get(Array.newInstance(returnType, 1), 0);
     }
 
     public ReentrantSemaphore retrieveSemaphore(LimitAccess limitAccess) {
+        if (isPerRoutingKey(limitAccess.semaphoreName())) {
+            return retrieveRoutingKeySemaphore(limitAccess.semaphoreName());
+        }
         if (!Objects.equals(limitAccess.semaphoreName(), DEFAULT_SEMAPHORE_NAME)) {
-            return semaphoreMap.compute(limitAccess.semaphoreName(), (key, prev) -> {
-                if (prev != null)
-                    return prev;
+            var existing = semaphoreMap.get(limitAccess.semaphoreName());
+            if (existing != null)
+                return existing;
 
-                int access;
+            return semaphoreMap.computeIfAbsent(limitAccess.semaphoreName(), key -> {
                 if (!this.limitAccessConfigProperties.semaphores.containsKey(limitAccess.semaphoreName())) {
                     log.error("Limit access did not contain semaphore with key {}. Using default size of {}",
                             limitAccess.semaphoreName(), this.limitAccessConfigProperties.maxAccess);
-                    access = this.limitAccessConfigProperties.maxAccess;
-                } else {
-                    access = this.limitAccessConfigProperties.semaphores.get(limitAccess.semaphoreName()).permits();
+                    return newSemaphore(key, new LocalPermitPool(this.limitAccessConfigProperties.maxAccess));
                 }
 
-                return new ReentrantSemaphore(new Semaphore(access, true));
+                return newSemaphore(key, createPermitPool(
+                        limitAccess.semaphoreName(),
+                        this.limitAccessConfigProperties.semaphores.get(limitAccess.semaphoreName())));
             });
         }
 
-        return semaphoreMap.compute(
-                Optional.ofNullable(trigger)
-                        .map(DbDataSourceTrigger::currentKey)
-                        .orElse("default"),
-                (key, prev) -> Optional.ofNullable(prev)
-                        .orElseGet(() -> {
-                            Semaphore semaphore = new Semaphore(limitAccessConfigProperties.getMaxAccess(), true);
-                            return new ReentrantSemaphore(semaphore);
-                        }));
+        return retrieveRoutingKeySemaphore();
+    }
+
+    /**
+     * The default semaphore of the current routing key. Looked up without locking once it exists.
+     */
+    private ReentrantSemaphore retrieveRoutingKeySemaphore() {
+        String routingKey = currentRoutingKey();
+        var existing = semaphoreMap.get(routingKey);
+        if (existing != null)
+            return existing;
+        return semaphoreMap.computeIfAbsent(routingKey, key -> newSemaphore(key, createRoutingKeyPermitPool(key)));
+    }
+
+    /**
+     * The pool of a perRoutingKey semaphore for the current routing key, kept as name@routingKey.
+     */
+    private ReentrantSemaphore retrieveRoutingKeySemaphore(String semaphoreName) {
+        String routingKey = currentRoutingKey();
+        String key = semaphoreName + "@" + routingKey;
+        var existing = semaphoreMap.get(key);
+        if (existing != null)
+            return existing;
+        return semaphoreMap.computeIfAbsent(key, k -> newSemaphore(k, createPermitPool(k,
+                limitAccessConfigProperties.semaphores.get(semaphoreName).forRoutingKey(routingKey))));
+    }
+
+    private ReentrantSemaphore newSemaphore(String name, PermitPool permits) {
+        var semaphore = new ReentrantSemaphore(name, permits);
+        limitAccessMetrics.registerSemaphore(semaphore);
+        return semaphore;
+    }
+
+    private boolean isPerRoutingKey(String semaphoreName) {
+        var semaphore = limitAccessConfigProperties.semaphores.get(semaphoreName);
+        return semaphore != null && semaphore.perRoutingKey();
+    }
+
+    private String currentRoutingKey() {
+        return trigger == null ? DEFAULT_SEMAPHORE_NAME : trigger.currentKey();
+    }
+
+    private PermitPool createRoutingKeyPermitPool(String routingKey) {
+        if (limitAccessConfigProperties.poolAwarePermits) {
+            var hikari = resolveHikari(routingKey);
+            if (hikari.isPresent()) {
+                return new PoolAwarePermitPool(hikari.get(), limitAccessConfigProperties.poolPermitRatio,
+                        limitAccessConfigProperties.poolStatsRefresh);
+            }
+            log.error("Could not resolve a Hikari pool for routing key {}. Using default size of {}",
+                    routingKey, limitAccessConfigProperties.maxAccess);
+        }
+        return new LocalPermitPool(limitAccessConfigProperties.getMaxAccess());
+    }
+
+    private Optional<HikariDataSource> resolveHikari(String routingKey) {
+        DataSource dataSource = Optional.ofNullable(jdbcTemplate).map(JdbcTemplate::getDataSource).orElse(null);
+        if (dataSource instanceof AbstractRoutingDataSource a) {
+            dataSource = a.getResolvedDataSources().get(routingKey);
+        }
+        if (dataSource instanceof HikariDataSource h) {
+            return Optional.of(h);
+        }
+        try {
+            if (dataSource != null && dataSource.isWrapperFor(HikariDataSource.class)) {
+                return Optional.of(dataSource.unwrap(HikariDataSource.class));
+            }
+        } catch (SQLException e) {
+            log.error("Could not unwrap data source for routing key {}: {}", routingKey, e.getMessage());
+        }
+        return Optional.empty();
+    }
+
+    private TokenBucket retrieveRateLimiter(InvocationPlan plan) {
+        if (plan.rateLimiter() != null)
+            return plan.rateLimiter();
+        return retrieveRateLimiter(plan.rateLimit(), plan.rateLimit() + "@" + currentRoutingKey());
+    }
+
+    private TokenBucket retrieveRateLimiter(String rateLimit, String key) {
+        var existing = rateLimiterMap.get(key);
+        if (existing != null)
+            return existing;
+        return rateLimiterMap.computeIfAbsent(key, k -> {
+            var config = limitAccessConfigProperties.rateLimits.get(rateLimit);
+            return new TokenBucket(config.permitsPerSecond(), config.burst());
+        });
     }
 
     /**
      * Retrieves or creates the PauseBarrier for the given semaphore name
      */
     public PauseBarrier retrievePauseBarrier(String semaphoreName) {
-        return pauseBarrierMap.computeIfAbsent(semaphoreName, k -> new PauseBarrier());
+        var existing = pauseBarrierMap.get(semaphoreName);
+        if (existing != null)
+            return existing;
+        return pauseBarrierMap.computeIfAbsent(semaphoreName, k -> {
+            var barrier = new PauseBarrier(limitAccessConfigProperties.pauseGracePeriod);
+            limitAccessMetrics.registerPauseBarrier(k, barrier);
+            if (isDistributedPause(k)) {
+                clusterPauseSignal.register(k, limitAccessConfigProperties.semaphores.get(k).routingKey(), barrier);
+            }
+            return barrier;
+        });
+    }
+
+    private boolean isDistributedPause(String semaphoreName) {
+        var semaphore = limitAccessConfigProperties.semaphores.get(semaphoreName);
+        if (semaphore == null || !semaphore.distributedPause())
+            return false;
+        if (clusterPauseSignal == null) {
+            log.error("Semaphore {} has distributed pause but no pause signal is available. Pausing locally only.", semaphoreName);
+            return false;
+        }
+        return true;
     }
 
 }
@@ -1,9 +1,11 @@
 package com.hayden.persistence.db_pressure;
 
+import lombok.Builder;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -14,12 +16,198 @@ import java.util.Map;
 @Data
 public class LimitAccessConfigProperties {
 
-    public record Semaphore(String name, int permits) {}
+    public enum Scope {
+        /**
+         * Permits are per JVM.
+         */
+        LOCAL,
+        /**
+         * Permits are one budget for every node, held as advisory locks on the routing key's database. See
+         * {@link ClusterPermitPool}.
+         */
+        CLUSTER
+    }
+
+    /**
+     * Built with {@link #builder()} outside of binding - unset fields get the defaults below.
+     *
+     * @param routingKey database holding the cluster permits, the current key if null.
+     * @param leaseBatch cluster permits leased from the database at once.
+     * @param maxCached released cluster permits kept locally before giving them back, leaseBatch if not set.
+     * @param adaptive   local only - permits is the starting limit, adjusted from call latency within
+     *                   [minPermits, maxPermits]. See {@link AdaptivePermitPool}.
+     * @param maxPermits upper bound of the adaptive limit, null to follow permits - see {@link #adaptiveMaxPermits()}.
+     * @param prioritized local only - permits go out by priority class instead of arrival order. See
+     *                   {@link PriorityPermitPool}.
+     * @param distributedPause phasers pause the waiters of every node, signalled on the routingKey database. See
+     *                   {@link ClusterPauseSignal}.
+     * @param perRoutingKey one pool per routing key of the call instead of one for every database, so a slow
+     *                   database only exhausts its own permits. Cluster permits are then held on each key's database.
+     * @param routingKeyPermits permits by routing key when perRoutingKey, permits for keys not listed.
+     */
+    @Builder(toBuilder = true)
+    public record Semaphore(String name, int permits, Scope scope, String routingKey, int leaseBatch, int maxCached,
+                            boolean adaptive, int minPermits, Integer maxPermits, boolean prioritized,
+                            boolean distributedPause, boolean perRoutingKey, Map<String, Integer> routingKeyPermits) {
+        public Semaphore {
+            if (scope == null)
+                scope = Scope.LOCAL;
+            if (leaseBatch <= 0)
+                leaseBatch = 8;
+            if (maxCached <= 0)
+                maxCached = leaseBatch;
+            if (minPermits <= 0)
+                minPermits = 1;
+            if (maxPermits != null && maxPermits <= 0)
+                maxPermits = null;
+            if (routingKeyPermits == null)
+                routingKeyPermits = Map.of();
+        }
+
+        /**
+         * A local semaphore of permits, every other field defaulted.
+         */
+        public Semaphore(String name, int permits) {
+            this(name, permits, null, null, 0, 0, false, 0, null, false, false, false, null);
+        }
+
+        /**
+         * Upper bound of the adaptive limit - permits, of the routing key's pool too, unless maxPermits was set.
+         */
+        public int adaptiveMaxPermits() {
+            return maxPermits == null ? permits : maxPermits;
+        }
+
+        /**
+         * The pool of one routing key of a perRoutingKey semaphore.
+         */
+        public Semaphore forRoutingKey(String key) {
+            return toBuilder()
+                    .permits(routingKeyPermits.getOrDefault(key, permits))
+                    .routingKey(key)
+                    .perRoutingKey(false)
+                    .routingKeyPermits(Map.of())
+                    .build();
+        }
+    }
+
+    /**
+     * @param weight   higher classes get freed permits first.
+     * @param reserved permits of every prioritized semaphore only this class can use.
+     */
+    public record PriorityClass(int weight, int reserved) {}
+
+    /**
+     * @param permitsPerSecond sustained rate.
+     * @param burst            calls that may go at once after the limit was idle, 1 if not set.
+     * @param perRoutingKey    one bucket per routing key instead of one for every database.
+     */
+    public record RateLimit(double permitsPerSecond, int burst, boolean perRoutingKey) {
+        public RateLimit {
+            if (burst <= 0)
+                burst = 1;
+        }
+    }
+
+    /**
+     * Load of a routing key's database above which the waiters of semaphores are paused - 0 or null is not checked.
+     * See {@link DatabaseLoadMonitor}.
+     *
+     * @param semaphores       semaphores whose waiters pause.
+     * @param maxActiveQueries active client queries on the database.
+     * @param maxLockWaits     sessions waiting on a lock.
+     */
+    public record LoadThresholds(List<String> semaphores, int maxActiveQueries, int maxLockWaits,
+                                 Duration maxReplicationLag) {
+        public LoadThresholds {
+            if (semaphores == null)
+                semaphores = List.of();
+        }
+    }
 
     Map<String, Semaphore> semaphores = new HashMap<>();
 
+    /**
+     * Rate limits by name, see {@link LimitAccess#rateLimiter()} and {@link TokenBucket}.
+     */
+    Map<String, RateLimit> rateLimits = new HashMap<>();
+
+    /**
+     * Priority classes of prioritized semaphores, e.g. interactive, api, batch, maintenance.
+     */
+    Map<String, PriorityClass> priorityClasses = new HashMap<>();
+
+    String defaultPriority = "default";
+
+    /**
+     * A waiting caller gains one weight per this much time waited, so that low classes are not starved.
+     */
+    Duration priorityAging = Duration.ofMillis(200);
+
     int maxAccess = 170;
 
+    /**
+     * Size the default semaphore of each routing key from that key's Hikari pool instead of maxAccess. See
+     * {@link PoolAwarePermitPool}.
+     */
+    boolean poolAwarePermits;
+
+    /**
+     * Share of the pool's maximum size given out as permits.
+     */
+    double poolPermitRatio = 1.0;
+
+    Duration poolStatsRefresh = Duration.ofMillis(100);
+
     boolean enable;
 
+    /**
+     * Registers the limitaccess actuator endpoint, see {@link LimitAccessEndpoint}. Its write operations resize
+     * semaphores and reload them from the environment, so whoever reaches it can throttle or unthrottle every
+     * limited call - only expose it on a management port behind authentication.
+     */
+    boolean limitAccessEndpoint;
+
+    /**
+     * Default bound on waiting for a permit for annotations that don't set acquireTimeoutMillis - unbounded if null.
+     */
+    Duration acquireTimeout;
+
+    /**
+     * How long a phaser waits for running waiters to reach a checkpoint before it proceeds without them.
+     */
+    Duration pauseGracePeriod = PauseBarrier.DEFAULT_GRACE_PERIOD;
+
+    /**
+     * Channel the phasers of distributedPause semaphores signal other nodes on.
+     */
+    String pauseChannel = "limit_access_pause";
+
+    /**
+     * How long other nodes stay paused without hearing from a node with a running phaser - renewed every third.
+     */
+    Duration pauseLease = Duration.ofSeconds(3);
+
+    /**
+     * Load thresholds by routing key.
+     */
+    Map<String, LoadThresholds> loadMonitor = new HashMap<>();
+
+    Duration loadSampleInterval = Duration.ofSeconds(1);
+
+    /**
+     * Statement timeout of a load sample - a database too loaded to answer within it counts as a failed sample.
+     */
+    Duration loadSampleTimeout = Duration.ofMillis(500);
+
+    /**
+     * How often acquirers of a cluster semaphore retry when every permit is held somewhere.
+     */
+    Duration clusterRetryInterval = Duration.ofMillis(50);
+
+    /**
+     * Cluster permits cached by a node that acquired nothing for this long are given back.
+     */
+    Duration clusterIdleRelease = Duration.ofSeconds(30);
+
 }
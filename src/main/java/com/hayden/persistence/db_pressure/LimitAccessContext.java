@@ -0,0 +1,165 @@
+package com.hayden.persistence.db_pressure;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+/**
+ * <p>
+ * Per-thread state of the aspect: how deep the thread is in each semaphore it holds and in each barrier it
+ * coordinates. One ThreadLocal entry per thread, whatever the number of semaphores, and entries are kept in two
+ * small parallel arrays compared by identity - once a thread has its context, entering and exiting allocate nothing.
+ * An entry may carry a tag from its outermost enter, e.g. the priority a permit was taken with.
+ * <p>
+ * Threads don't inherit the context. Tasks forked from inside a limited call and joined before it returns can be
+ * wrapped to run with a copy of it - nested limited calls of the task then run under the parent's permit and
+ * barrier instead of waiting for a permit or a phaser the parent holds.
+ * </p>
+ */
+public final class LimitAccessContext {
+
+    private static final ThreadLocal<LimitAccessContext> CONTEXT = new ThreadLocal<>();
+
+    private Object[] keys;
+    private int[] depths;
+    private Object[] tags;
+    private int size;
+
+    private LimitAccessContext(Object[] keys, int[] depths, Object[] tags, int size) {
+        this.keys = keys;
+        this.depths = depths;
+        this.tags = tags;
+        this.size = size;
+    }
+
+    static LimitAccessContext current() {
+        var context = CONTEXT.get();
+        if (context == null) {
+            context = new LimitAccessContext(new Object[4], new int[4], new Object[4], 0);
+            CONTEXT.set(context);
+        }
+        return context;
+    }
+
+    /**
+     * Depth of the current thread in key, without creating a context.
+     */
+    static int depth(Object key) {
+        var context = CONTEXT.get();
+        return context == null ? 0 : context.depthOf(key);
+    }
+
+    int depthOf(Object key) {
+        int i = indexOf(key);
+        return i < 0 ? 0 : depths[i];
+    }
+
+    /**
+     * Tag of the current thread's outermost enter of key, without creating a context.
+     */
+    static Object tag(Object key) {
+        var context = CONTEXT.get();
+        if (context == null)
+            return null;
+        int i = context.indexOf(key);
+        return i < 0 ? null : context.tags[i];
+    }
+
+    /**
+     * @return depth before entering.
+     */
+    int enter(Object key) {
+        return enter(key, null);
+    }
+
+    /**
+     * @param tag kept if this is the outermost enter, ignored for nested ones.
+     * @return depth before entering.
+     */
+    int enter(Object key, Object tag) {
+        int i = indexOf(key);
+        if (i >= 0) {
+            return depths[i]++;
+        }
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            depths = Arrays.copyOf(depths, size * 2);
+            tags = Arrays.copyOf(tags, size * 2);
+        }
+        keys[size] = key;
+        depths[size] = 1;
+        tags[size] = tag;
+        size++;
+        return 0;
+    }
+
+    /**
+     * @return depth after exiting, -1 if the thread was not in key.
+     */
+    int exit(Object key) {
+        int i = indexOf(key);
+        if (i < 0) {
+            return -1;
+        }
+        int next = --depths[i];
+        if (next == 0) {
+            size--;
+            keys[i] = keys[size];
+            depths[i] = depths[size];
+            tags[i] = tags[size];
+            keys[size] = null;
+            tags[size] = null;
+        }
+        return next;
+    }
+
+    private int indexOf(Object key) {
+        for (int i = 0; i < size; i++) {
+            if (keys[i] == key)
+                return i;
+        }
+        return -1;
+    }
+
+    private LimitAccessContext copy() {
+        return new LimitAccessContext(keys.clone(), depths.clone(), tags.clone(), size);
+    }
+
+    public static Runnable wrap(Runnable task) {
+        var parent = CONTEXT.get();
+        if (parent == null || parent.size == 0)
+            return task;
+        var snapshot = parent.copy();
+        return () -> {
+            var previous = CONTEXT.get();
+            CONTEXT.set(snapshot);
+            try {
+                task.run();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    public static <T> Callable<T> wrap(Callable<T> task) {
+        var parent = CONTEXT.get();
+        if (parent == null || parent.size == 0)
+            return task;
+        var snapshot = parent.copy();
+        return () -> {
+            var previous = CONTEXT.get();
+            CONTEXT.set(snapshot);
+            try {
+                return task.call();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    private static void restore(LimitAccessContext previous) {
+        if (previous == null)
+            CONTEXT.remove();
+        else
+            CONTEXT.set(previous);
+    }
+}
@@ -0,0 +1,62 @@
+package com.hayden.persistence.db_pressure;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <p>
+ * Running semaphores of {@link LimitAccessAspect}, to tune limits on a live system:
+ * - GET limitaccess - every semaphore, GET limitaccess/{name} - one of them
+ * - POST limitaccess/{name} with permits - resize it until the next reload
+ * - POST limitaccess - reload db.* from the environment
+ * </p>
+ * Off unless db.limit-access-endpoint is set - anyone who can write to it changes the limits of every caller.
+ */
+@Component
+@ConditionalOnProperty(prefix = "db", name = "limit-access-endpoint", havingValue = "true")
+@Endpoint(id = "limitaccess")
+public class LimitAccessEndpoint {
+
+    public record SemaphoreState(String pool, int limit, int available) {}
+
+    @Autowired
+    LimitAccessAspect limitAccessAspect;
+
+    @ReadOperation
+    public Map<String, SemaphoreState> semaphores() {
+        Map<String, SemaphoreState> states = new TreeMap<>();
+        limitAccessAspect.semaphoreMap.forEach((name, s) -> states.put(name, stateOf(s)));
+        return states;
+    }
+
+    @ReadOperation
+    public SemaphoreState semaphore(@Selector String name) {
+        var semaphore = limitAccessAspect.semaphoreMap.get(name);
+        return semaphore == null ? null : stateOf(semaphore);
+    }
+
+    @WriteOperation
+    public SemaphoreState resize(@Selector String name, int permits) {
+        limitAccessAspect.resize(name, permits);
+        return semaphore(name);
+    }
+
+    @WriteOperation
+    public Map<String, SemaphoreState> reload() {
+        limitAccessAspect.reload();
+        return semaphores();
+    }
+
+    private static SemaphoreState stateOf(LimitAccessAspect.ReentrantSemaphore semaphore) {
+        var permits = semaphore.permits();
+        return new SemaphoreState(permits.getClass().getSimpleName(), permits.limit(), permits.availablePermits());
+    }
+}
@@ -0,0 +1,137 @@
+package com.hayden.persistence.db_pressure;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+/**
+ * Micrometer surface for LimitAccess, per semaphore (name, routing key for default semaphores, name@routingKey for
+ * semaphores per routing key):
+ * - limit.access.permits.limit / limit.access.permits.available: size of the pool and permits free in it
+ * - limit.access.permits.in_use: permits held by calls of this JVM, async results included
+ * - limit.access.acquire: time waiting for a permit, rate limit included, per mode - histogram
+ * - limit.access.rejections: calls that got no permit, per reason (timeout, interrupted, rate_limit, closed)
+ * - limit.access.pause.depth / limit.access.pause.waiters / limit.access.pause.parked: phasers pausing the barrier
+ *   of the semaphore name, waiters running under it and waiters parked at a checkpoint
+ * - limit.access.pause.handshake: time a phaser waited for the waiters to park
+ * <p>
+ * Meters of a semaphore name are resolved once, when its first pool is created, so recording on the call path is a
+ * map lookup.
+ */
+@Component
+public class LimitAccessMetrics {
+
+    @Autowired(required = false)
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    /**
+     * Why a call got no permit - tagged as reason in lower case.
+     */
+    enum Rejection {
+        TIMEOUT, INTERRUPTED, RATE_LIMIT, CLOSED
+    }
+
+    private record SemaphoreMeters(Timer[] acquire, Counter[] rejections, AtomicInteger inUse) {}
+
+    // by semaphore name - a replaced pool is a new semaphore under the same name and keeps its meters
+    private final ConcurrentHashMap<String, SemaphoreMeters> semaphores = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LimitAccessAspect.ReentrantSemaphore> current = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Timer> handshakes = new ConcurrentHashMap<>();
+
+    void registerSemaphore(LimitAccessAspect.ReentrantSemaphore semaphore) {
+        current.put(semaphore.name(), semaphore);
+        semaphores.computeIfAbsent(semaphore.name(), this::registerMeters);
+    }
+
+    void removeSemaphore(String name) {
+        current.remove(name);
+    }
+
+    void registerPauseBarrier(String name, PauseBarrier barrier) {
+        Gauge.builder("limit.access.pause.depth", barrier, PauseBarrier::activePhasers)
+                .tag("semaphore", name)
+                .register(meterRegistry);
+        Gauge.builder("limit.access.pause.waiters", barrier, PauseBarrier::registeredWaiters)
+                .tag("semaphore", name)
+                .register(meterRegistry);
+        Gauge.builder("limit.access.pause.parked", barrier, PauseBarrier::parkedWaiters)
+                .tag("semaphore", name)
+                .register(meterRegistry);
+    }
+
+    /**
+     * A permit was taken by an outermost call.
+     */
+    void acquired(LimitAccessAspect.ReentrantSemaphore semaphore, LimitAccessAspect.Mode mode, long waitNanos) {
+        var meters = semaphores.get(semaphore.name());
+        if (meters == null)
+            return;
+        meters.acquire()[mode.ordinal()].record(waitNanos, TimeUnit.NANOSECONDS);
+        meters.inUse().incrementAndGet();
+    }
+
+    void released(LimitAccessAspect.ReentrantSemaphore semaphore) {
+        var meters = semaphores.get(semaphore.name());
+        if (meters != null)
+            meters.inUse().decrementAndGet();
+    }
+
+    void rejected(LimitAccessAspect.ReentrantSemaphore semaphore, Rejection reason) {
+        var meters = semaphores.get(semaphore.name());
+        if (meters != null)
+            meters.rejections()[reason.ordinal()].increment();
+    }
+
+    void handshake(String semaphore, long nanos) {
+        handshakes.computeIfAbsent(semaphore, s -> Timer.builder("limit.access.pause.handshake")
+                        .tag("semaphore", s)
+                        .register(meterRegistry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private SemaphoreMeters registerMeters(String name) {
+        var modes = LimitAccessAspect.Mode.values();
+        Timer[] acquire = new Timer[modes.length];
+        for (var mode : modes) {
+            acquire[mode.ordinal()] = Timer.builder("limit.access.acquire")
+                    .tag("semaphore", name)
+                    .tag("mode", mode.name())
+                    .publishPercentileHistogram()
+                    .register(meterRegistry);
+        }
+        var reasons = Rejection.values();
+        Counter[] rejections = new Counter[reasons.length];
+        for (var reason : reasons) {
+            rejections[reason.ordinal()] = Counter.builder("limit.access.rejections")
+                    .tag("semaphore", name)
+                    .tag("reason", reason.name().toLowerCase(Locale.ROOT))
+                    .register(meterRegistry);
+        }
+        var inUse = new AtomicInteger();
+        registerPoolGauge("limit.access.permits.limit", name, PermitPool::limit);
+        registerPoolGauge("limit.access.permits.available", name, PermitPool::availablePermits);
+        Gauge.builder("limit.access.permits.in_use", inUse, AtomicInteger::get)
+                .tag("semaphore", name)
+                .register(meterRegistry);
+        return new SemaphoreMeters(acquire, rejections, inUse);
+    }
+
+    private void registerPoolGauge(String gaugeName, String name, ToIntFunction<PermitPool> value) {
+        Gauge.builder(gaugeName, current, c -> {
+                    var semaphore = c.get(name);
+                    return semaphore == null ? Double.NaN : value.applyAsInt(semaphore.permits());
+                })
+                .tag("semaphore", name)
+                .register(meterRegistry);
+    }
+}
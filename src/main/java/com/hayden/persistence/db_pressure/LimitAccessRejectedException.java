@@ -0,0 +1,30 @@
+package com.hayden.persistence.db_pressure;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * No permit of the semaphore could be taken within the acquire timeout, the caller was interrupted waiting, or the
+ * pool was closed by a reconfiguration. For calls rejected by their rate limit, semaphoreName is the name of the
+ * rate limit.
+ */
+@Getter
+public class LimitAccessRejectedException extends RuntimeException {
+
+    private final String semaphoreName;
+
+    private final Duration waited;
+
+    public LimitAccessRejectedException(String semaphoreName, Duration waited) {
+        super("No permit of %s available within %s ms".formatted(semaphoreName, waited.toMillis()));
+        this.semaphoreName = semaphoreName;
+        this.waited = waited;
+    }
+
+    public LimitAccessRejectedException(String semaphoreName, Duration waited, InterruptedException cause) {
+        super("Interrupted waiting for a permit of %s".formatted(semaphoreName), cause);
+        this.semaphoreName = semaphoreName;
+        this.waited = waited;
+    }
+}
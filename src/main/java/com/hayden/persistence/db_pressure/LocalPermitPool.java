@@ -0,0 +1,71 @@
+package com.hayden.persistence.db_pressure;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-JVM permits - a fair {@link Semaphore}, resized by releasing or reducing permits.
+ */
+public final class LocalPermitPool implements PermitPool {
+
+    private static final class ResizableSemaphore extends Semaphore {
+
+        ResizableSemaphore(int permits) {
+            super(permits, true);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+
+    private final ResizableSemaphore semaphore;
+
+    private volatile int limit;
+
+    public LocalPermitPool(int permits) {
+        this.semaphore = new ResizableSemaphore(permits);
+        this.limit = permits;
+    }
+
+    @Override
+    public void acquire() throws InterruptedException {
+        semaphore.acquire();
+    }
+
+    @Override
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        return semaphore.tryAcquire(timeout, unit);
+    }
+
+    @Override
+    public void release() {
+        semaphore.release();
+    }
+
+    @Override
+    public int availablePermits() {
+        return Math.max(0, semaphore.availablePermits());
+    }
+
+    @Override
+    public int limit() {
+        return limit;
+    }
+
+    /**
+     * Shrinking may leave the semaphore negative until holders release.
+     */
+    @Override
+    public synchronized void resize(int permits) {
+        if (permits < 0)
+            throw new IllegalArgumentException("permits must not be negative, was %d".formatted(permits));
+        int delta = permits - limit;
+        if (delta > 0)
+            semaphore.release(delta);
+        else if (delta < 0)
+            semaphore.reducePermits(-delta);
+        limit = permits;
+    }
+}
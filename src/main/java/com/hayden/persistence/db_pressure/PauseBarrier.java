@@ -3,12 +3,36 @@ package com.hayden.persistence.db_pressure;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
 
-import java.util.concurrent.Phaser;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * <p>
+ * Pauses waiters while phasers run. Waiters register for the duration of their call and park at checkpoints while
+ * any phaser is active. A phaser publishes the pause, then waits for the registered waiters to acknowledge by
+ * parking (or leaving) - but at most gracePeriod, so a waiter stuck in a long query can't hold up the phaser.
+ * Stragglers park at their next checkpoint.
+ * <p>
+ * - Phasers don't exclude each other - each does its own bounded handshake, waiters resume when the last is done.
+ * - A phaser nested in a phaser on the same thread runs without a handshake, and the coordinating thread never
+ *   parks at its own checkpoints.
+ * - A phaser called from inside a waiter does not wait for its own thread to acknowledge.
+ * - Waiters with an active transaction don't park, they yield at the first checkpoint after it. They can't
+ *   acknowledge, so phasers don't wait for them - a waiter registered in a transaction, or found in one at a
+ *   checkpoint, no longer counts for the handshake.
+ * - Phasers of other nodes pause the barrier remotely with a lease - waiters park while any lease is live, without
+ *   a handshake, and a lease that is not renewed expires on its own. See {@link ClusterPauseSignal}.
+ * </p>
+ */
 @Slf4j
 public final class PauseBarrier {
 
+    public static final Duration DEFAULT_GRACE_PERIOD = Duration.ofMillis(50);
+
     // ---- Coordinator side ----
     public record ResultOrExc<T>(T t, Throwable cause) {
 
@@ -30,93 +54,363 @@ public final class PauseBarrier {
         ResultOrExc<T> run();
     }
 
-    private final Phaser phaser = new Phaser(0);
+    private final long graceNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition acknowledged = lock.newCondition();
+    private final Condition resumed = lock.newCondition();
 
+    // fast path for checkpoints - written under lock
     private volatile boolean pauseRequested = false;
 
-    // global: counts overlapping phasers; first does handshake, last releases
-    private final AtomicInteger pauseDepth = new AtomicInteger(0);
+    // guarded by lock
+    private int activePhasers;
+    private int registeredWaiters;
+    private int parkedWaiters;
+    // node -> System.nanoTime() its remote pause expires at
+    private final Map<String, Long> remotePauses = new HashMap<>();
 
-    // per-thread: prevents coordinator from blocking on its own checkpoints
-    private final ThreadLocal<Integer> coordinatorDepthLocal = ThreadLocal.withInitial(() -> 0);
+    // per-thread waiter registration depth is kept in the LimitAccessContext under this key, coordinator depth under
+    // the barrier itself
+    private final Object waiterKey = new Object();
+    // set on waiter threads that don't count for the handshake because they are in a transaction
+    private final Object exemptKey = new Object();
+
+    public PauseBarrier() {
+        this(DEFAULT_GRACE_PERIOD);
+    }
+
+    public PauseBarrier(Duration gracePeriod) {
+        this.graceNanos = gracePeriod.toNanos();
+    }
 
     // ---- Waiter side ----
+
+    /**
+     * Registers the thread as a running waiter - phasers wait (up to the grace period) for registered waiters to
+     * park. Nested registrations on the same thread count once, and a waiter inside a transaction is not counted.
+     */
+    public void registerWaiter() {
+        var context = LimitAccessContext.current();
+        if (context.enter(waiterKey) > 0)
+            return;
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            context.enter(exemptKey);
+            return;
+        }
+        lock.lock();
+        try {
+            registeredWaiters++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void deregisterWaiter() {
+        var context = LimitAccessContext.current();
+        if (context.exit(waiterKey) != 0)
+            return;
+        if (context.exit(exemptKey) == 0)
+            return;
+        lock.lock();
+        try {
+            registeredWaiters--;
+            acknowledged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Whether a phaser runs or a remote pause was requested - checkpoints would park. Lock free, so it may still
+     * report a remote lease that just ran out.
+     */
+    public boolean isPaused() {
+        return pauseRequested;
+    }
+
+    /**
+     * Whether the current thread is inside a waiter call of this barrier.
+     */
+    public boolean isWaiterThread() {
+        return LimitAccessContext.depth(waiterKey) > 0;
+    }
+
     public void checkpointIfPaused() {
         if (!pauseRequested) return;
-        if (coordinatorDepthLocal.get() > 0) return;
-        if (TransactionSynchronizationManager.isSynchronizationActive()) return;
+        if (LimitAccessContext.depth(this) > 0) return;
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            exemptFromHandshake();
+            return;
+        }
 
-        // Two-phase handshake: acknowledge, then wait for release
-        phaser.register();
+        boolean registered = LimitAccessContext.depth(waiterKey) > 0 && LimitAccessContext.depth(exemptKey) == 0;
+        boolean interrupted = false;
+        lock.lock();
         try {
-            int phase = phaser.getPhase();
-
-            if (pauseDepth.get() <= 0) {
+            if (activePhasers == 0 && remotePauseNanos() <= 0)
                 return;
+            // 1) Acknowledge pause (let coordinators know we're parked at the gate)
+            if (registered) {
+                parkedWaiters++;
+                acknowledged.signalAll();
+            }
+            try {
+                // 2) Stay parked until the last coordinator releases and every remote lease is gone
+                while (true) {
+                    if (activePhasers > 0) {
+                        resumed.awaitUninterruptibly();
+                        continue;
+                    }
+                    long remote = remotePauseNanos();
+                    if (remote <= 0)
+                        break;
+                    try {
+                        resumed.awaitNanos(remote);
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                if (registered)
+                    parkedWaiters--;
             }
-            // 1) Acknowledge pause (let coordinator know we're parked at the gate)
-            phaser.arriveAndAwaitAdvance();
-            // 2) Stay parked until coordinator releases
-            phaser.arriveAndAwaitAdvance();
         } finally {
-            phaser.arriveAndDeregister();
+            lock.unlock();
+            if (interrupted)
+                Thread.currentThread().interrupt();
         }
     }
 
-    public <T> ResultOrExc<T> pauseWaitersAndRun(WaiterExecution<T> critical) {
-        boolean coordParty = false;
+    /**
+     * Checkpoint for a waiter holding something others need while it is parked, like its permit: beforePark runs
+     * only if the waiter is going to park, afterResume once it is let go. Both run outside the barrier's lock, so
+     * afterResume may block.
+     */
+    public void checkpointIfPaused(Runnable beforePark, Runnable afterResume) {
+        if (!pauseRequested) return;
+        if (LimitAccessContext.depth(this) > 0) return;
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            exemptFromHandshake();
+            return;
+        }
+        beforePark.run();
         try {
-            // mark this thread as coordinator for re-entrant waiter calls
-            var starting = coordinatorDepthLocal.get();
-            coordinatorDepthLocal.set(coordinatorDepthLocal.get() + 1);
+            checkpointIfPaused();
+        } finally {
+            afterResume.run();
+        }
+    }
 
-            // coordinator participates as a party
-            phaser.register();
+    /**
+     * A counted waiter that reaches a checkpoint in a transaction won't park before it commits - stop counting it,
+     * so the phaser doesn't wait out the grace period for it.
+     */
+    private void exemptFromHandshake() {
+        var context = LimitAccessContext.current();
+        if (context.depthOf(waiterKey) == 0 || context.depthOf(exemptKey) > 0)
+            return;
+        context.enter(exemptKey);
+        lock.lock();
+        try {
+            registeredWaiters--;
+            acknowledged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
 
-            if (pauseDepth.getAndIncrement() == 0)
-                pauseRequested = true;
+    /**
+     * Pause on behalf of a phaser of another node until resumed or until lease passes without a renewal.
+     */
+    public void pauseRemote(String node, Duration lease) {
+        lock.lock();
+        try {
+            remotePauses.put(node, System.nanoTime() + lease.toNanos());
+            pauseRequested = true;
+        } finally {
+            lock.unlock();
+        }
+    }
 
-            if (starting == 0) {
-                coordParty = true;
-                // First/outermost phaser: publish pause and do the 2-phase handshake
+    public void resumeRemote(String node) {
+        lock.lock();
+        try {
+            if (remotePauses.remove(node) != null) {
+                updatePauseRequested();
+                resumed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
 
-                // Phase A: wait for all waiters to ACK they’re paused (first gate)
-                phaser.arriveAndAwaitAdvance();
+    /**
+     * Drops expired leases.
+     * @return time until the last live remote lease expires, 0 if there is none.
+     */
+    // under lock
+    private long remotePauseNanos() {
+        if (remotePauses.isEmpty())
+            return 0;
+        long now = System.nanoTime();
+        long remaining = 0;
+        var leases = remotePauses.values().iterator();
+        while (leases.hasNext()) {
+            long left = leases.next() - now;
+            if (left <= 0)
+                leases.remove();
+            else
+                remaining = Math.max(remaining, left);
+        }
+        if (remaining == 0)
+            updatePauseRequested();
+        return remaining;
+    }
 
-                try {
-                    // ---- critical section runs while waiters are parked at the second gate ----
-                    ResultOrExc<T> res = critical.run();
-                    return res;
-                } finally {
-                    // Phase B: release waiters (second gate)
-                    phaser.arriveAndAwaitAdvance();
-                }
+    // under lock
+    private void updatePauseRequested() {
+        pauseRequested = activePhasers > 0 || !remotePauses.isEmpty();
+    }
 
-            } else {
-                // Already paused: no handshake; just arrive this phase
-                phaser.arrive(); // arrive at whatever gate we're at so we don't block others
+    public <T> ResultOrExc<T> pauseWaitersAndRun(WaiterExecution<T> critical) {
+        // mark this thread as coordinator for re-entrant waiter calls
+        var context = LimitAccessContext.current();
+        if (context.enter(this) > 0) {
+            // Already coordinating on this thread: no handshake
+            try {
                 return critical.run();
+            } catch (Throwable th) {
+                return ResultOrExc.err(th);
+            } finally {
+                context.exit(this);
             }
+        }
 
+        boolean selfIsWaiter = context.depthOf(waiterKey) > 0 && context.depthOf(exemptKey) == 0;
+        try {
+            publishPause(selfIsWaiter);
+            // ---- critical section runs while waiters are parked ----
+            return critical.run();
         } catch (Throwable th) {
             return ResultOrExc.err(th);
         } finally {
-            // Decrement depth and clear pause flag only when last phaser exits
-            int remaining = pauseDepth.decrementAndGet();
+            releasePause();
+            context.exit(this);
+        }
+    }
 
-            if (remaining == 0)
-                pauseRequested = false;
+    /**
+     * Keeps waiters paused past the running phaser until the returned handle runs, for phasers whose work goes on
+     * asynchronously. Only call it inside {@link #pauseWaitersAndRun(WaiterExecution)} - the waiters are already
+     * paused, so there is no handshake.
+     */
+    public Runnable extendPause() {
+        lock.lock();
+        try {
+            activePhasers++;
+        } finally {
+            lock.unlock();
+        }
+        AtomicBoolean released = new AtomicBoolean();
+        return () -> {
+            if (released.compareAndSet(false, true))
+                releasePause();
+        };
+    }
 
-            if (coordParty)
-                phaser.arriveAndDeregister();
-            else
-                phaser.arrive();
+    private void publishPause(boolean selfIsWaiter) {
+        lock.lock();
+        try {
+            if (activePhasers++ == 0)
+                pauseRequested = true;
 
-            int d = coordinatorDepthLocal.get() - 1;
-            if (d == 0)
-                coordinatorDepthLocal.remove();
-            else
-                coordinatorDepthLocal.set(d);
+            int self = selfIsWaiter ? 1 : 0;
+            long remaining = graceNanos;
+            while (registeredWaiters - self > parkedWaiters) {
+                if (remaining <= 0) {
+                    log.debug("{} waiters did not reach a checkpoint within the grace period, proceeding.",
+                            registeredWaiters - self - parkedWaiters);
+                    return;
+                }
+                remaining = acknowledged.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            // proceed with the critical section, the caller keeps the interrupt
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void releasePause() {
+        lock.lock();
+        try {
+            // clear pause flag only when last phaser exits
+            if (--activePhasers == 0) {
+                updatePauseRequested();
+                resumed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean hasWaiterRegistration() {
+        lock.lock();
+        try {
+            return registeredWaiters > 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean hasCoordinatorDepth() {
+        lock.lock();
+        try {
+            return activePhasers > 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isRemotelyPaused() {
+        lock.lock();
+        try {
+            return remotePauseNanos() > 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int activePhasers() {
+        lock.lock();
+        try {
+            return activePhasers;
+        } finally {
+            lock.unlock();
         }
     }
+
+    int registeredWaiters() {
+        lock.lock();
+        try {
+            return registeredWaiters;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int parkedWaiters() {
+        lock.lock();
+        try {
+            return parkedWaiters;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean hasCoordinatorDepthLocal() {
+        return LimitAccessContext.depth(this) > 0;
+    }
 }
@@ -0,0 +1,64 @@
+package com.hayden.persistence.db_pressure;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Source of permits behind a {@link LimitAccessAspect.ReentrantSemaphore}. Permits are interchangeable - release
+ * gives back any permit the caller took.
+ */
+public interface PermitPool {
+
+    void acquire() throws InterruptedException;
+
+    /**
+     * @return false if no permit could be taken within the timeout - zero only takes a permit that is free now.
+     */
+    boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException;
+
+    void release();
+
+    /**
+     * Permits that can be taken without waiting. For pools backed by a shared budget this is the locally cached part.
+     */
+    int availablePermits();
+
+    /**
+     * Current number of permits, held or not.
+     */
+    int limit();
+
+    /**
+     * Changes the number of permits while in use. Shrinking never takes permits back from holders - acquirers wait
+     * until enough have been released.
+     *
+     * @throws UnsupportedOperationException for pools that don't own their size.
+     */
+    default void resize(int permits) {
+        throw new UnsupportedOperationException("%s can't be resized".formatted(getClass().getSimpleName()));
+    }
+
+    /**
+     * Priority aware variants - the priority is the caller's class from {@link LimitAccess#priority()}, pools without
+     * priorities ignore it. A permit is released with the priority it was acquired with.
+     */
+    default void acquire(String priority) throws InterruptedException {
+        acquire();
+    }
+
+    default boolean tryAcquire(String priority, long timeout, TimeUnit unit) throws InterruptedException {
+        return tryAcquire(timeout, unit);
+    }
+
+    default void release(String priority) {
+        release();
+    }
+
+    /**
+     * Called with the latency of the outermost call that held a permit, before the permit is released.
+     *
+     * @param failure what the call threw, null if it returned.
+     */
+    default void onSample(long latencyNanos, Throwable failure) {
+    }
+
+}
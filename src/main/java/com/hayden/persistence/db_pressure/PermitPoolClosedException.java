@@ -0,0 +1,12 @@
+package com.hayden.persistence.db_pressure;
+
+/**
+ * The pool was closed, e.g. replaced or removed by {@link LimitAccessAspect#reconfigure}, while the caller waited
+ * for a permit or after it looked the pool up. Limited calls are rejected with it.
+ */
+public class PermitPoolClosedException extends IllegalStateException {
+
+    public PermitPoolClosedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,121 @@
+package com.hayden.persistence.db_pressure;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ * Permits sized from the connection pool of one routing target, so that callers queue here instead of parking
+ * inside getConnection() until the pool's connection timeout:
+ * - the budget is maximumPoolSize * ratio
+ * - connections in use or awaited by callers outside of this pool (active + pending - our in flight) are taken off
+ *   the budget, so code not annotated with LimitAccess keeps its share
+ * - pool stats are re-read at most every refreshInterval, and waiters re-check at that rate as the pool drains
+ * </p>
+ * Its size follows the pool, so it can't be resized.
+ */
+public final class PoolAwarePermitPool implements PermitPool {
+
+    private final HikariDataSource dataSource;
+    private final double ratio;
+    private final long refreshNanos;
+
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition permitReturned = lock.newCondition();
+
+    // guarded by lock
+    private int inFlight;
+    private int limit;
+    private long refreshedAt;
+    private boolean refreshed;
+
+    public PoolAwarePermitPool(HikariDataSource dataSource, double ratio, Duration refreshInterval) {
+        this.dataSource = dataSource;
+        this.ratio = ratio;
+        this.refreshNanos = refreshInterval.toNanos();
+    }
+
+    @Override
+    public void acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= limit()) {
+                permitReturned.awaitNanos(refreshNanos);
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= limit()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                    return false;
+                permitReturned.awaitNanos(Math.min(remaining, refreshNanos));
+            }
+            inFlight++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            permitReturned.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int availablePermits() {
+        lock.lock();
+        try {
+            return Math.max(0, limit() - inFlight);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int limit() {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            if (!refreshed || now - refreshedAt >= refreshNanos) {
+                limit = computeLimit();
+                refreshedAt = now;
+                refreshed = true;
+            }
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // under lock
+    private int computeLimit() {
+        int budget = Math.max(1, (int) (dataSource.getMaximumPoolSize() * ratio));
+        var pool = dataSource.getHikariPoolMXBean();
+        if (pool == null) {
+            // pool not started yet
+            return budget;
+        }
+        int external = Math.max(0, pool.getActiveConnections() + pool.getThreadsAwaitingConnection() - inFlight);
+        return Math.max(1, budget - external);
+    }
+}
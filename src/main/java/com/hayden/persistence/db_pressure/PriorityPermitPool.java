@@ -0,0 +1,263 @@
+package com.hayden.persistence.db_pressure;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ * Permits handed out by priority class instead of arrival order:
+ * - each class has a weight and may reserve permits only it can use, the rest are shared by every class
+ * - a freed permit goes to the waiting caller with the highest weight + time waited / aging, so low classes climb
+ *   while they wait and are not starved - ties go to the earliest arrival
+ * - a class is only eligible while it has a free reserved permit or a shared one is free
+ * - unknown classes fall back to the default class, weight 0 without reservations unless configured
+ * </p>
+ * Resizing changes the shared permits, reservations stay as they are.
+ */
+public final class PriorityPermitPool implements PermitPool {
+
+    private final String defaultClass;
+    private final Map<String, Integer> classIndex = new HashMap<>();
+    private final int[] weights;
+    private final int[] reserved;
+    private final int totalReserved;
+    // guarded by lock
+    private int shared;
+    private final long agingNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // guarded by lock
+    private final int[] reservedUsed;
+    private final int[] sharedUsed;
+    private int sharedInUse;
+    private final List<Waiter> waiters = new ArrayList<>();
+
+    private final class Waiter {
+        final int priorityClass;
+        final long arrivedNanos = System.nanoTime();
+        final Condition granted = lock.newCondition();
+        boolean isGranted;
+
+        Waiter(int priorityClass) {
+            this.priorityClass = priorityClass;
+        }
+
+        double effectivePriority(long now) {
+            return weights[priorityClass] + (double) (now - arrivedNanos) / agingNanos;
+        }
+    }
+
+    public PriorityPermitPool(int permits,
+                              Map<String, LimitAccessConfigProperties.PriorityClass> classes,
+                              String defaultClass,
+                              Duration aging) {
+        this.defaultClass = defaultClass;
+        Map<String, LimitAccessConfigProperties.PriorityClass> all = new HashMap<>(classes);
+        all.putIfAbsent(defaultClass, new LimitAccessConfigProperties.PriorityClass(0, 0));
+
+        this.weights = new int[all.size()];
+        this.reserved = new int[all.size()];
+        int i = 0;
+        int totalReserved = 0;
+        for (var c : all.entrySet()) {
+            classIndex.put(c.getKey(), i);
+            weights[i] = c.getValue().weight();
+            reserved[i] = Math.max(0, c.getValue().reserved());
+            totalReserved += reserved[i];
+            i++;
+        }
+        if (totalReserved > permits) {
+            throw new IllegalArgumentException("Priority classes reserve %d permits but only %d exist"
+                    .formatted(totalReserved, permits));
+        }
+        this.totalReserved = totalReserved;
+        this.shared = permits - totalReserved;
+        this.reservedUsed = new int[all.size()];
+        this.sharedUsed = new int[all.size()];
+        this.agingNanos = Math.max(1, aging.toNanos());
+    }
+
+    @Override
+    public void acquire() throws InterruptedException {
+        acquire(defaultClass);
+    }
+
+    @Override
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        return tryAcquire(defaultClass, timeout, unit);
+    }
+
+    @Override
+    public void release() {
+        release(defaultClass);
+    }
+
+    @Override
+    public void acquire(String priority) throws InterruptedException {
+        await(priority, false, 0);
+    }
+
+    @Override
+    public boolean tryAcquire(String priority, long timeout, TimeUnit unit) throws InterruptedException {
+        return await(priority, true, unit.toNanos(timeout));
+    }
+
+    @Override
+    public void release(String priority) {
+        int c = indexOf(priority);
+        lock.lock();
+        try {
+            if (sharedUsed[c] > 0) {
+                sharedUsed[c]--;
+                sharedInUse--;
+            } else if (reservedUsed[c] > 0) {
+                reservedUsed[c]--;
+            } else {
+                return;
+            }
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int availablePermits() {
+        lock.lock();
+        try {
+            int available = Math.max(0, shared - sharedInUse);
+            for (int c = 0; c < reserved.length; c++) {
+                available += reserved[c] - reservedUsed[c];
+            }
+            return available;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int limit() {
+        lock.lock();
+        try {
+            return shared + totalReserved;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Permits reserved by the classes the pool was created with - it can't be resized below them.
+     */
+    public int reserved() {
+        return totalReserved;
+    }
+
+    @Override
+    public void resize(int permits) {
+        if (permits < totalReserved) {
+            throw new IllegalArgumentException("Priority classes reserve %d permits, can't resize to %d"
+                    .formatted(totalReserved, permits));
+        }
+        lock.lock();
+        try {
+            shared = permits - totalReserved;
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean await(String priority, boolean timed, long timeoutNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        lock.lockInterruptibly();
+        try {
+            var waiter = new Waiter(indexOf(priority));
+            waiters.add(waiter);
+            dispatch();
+            try {
+                while (!waiter.isGranted) {
+                    if (!timed) {
+                        waiter.granted.await();
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0)
+                        return false;
+                    waiter.granted.awaitNanos(remaining);
+                }
+                return true;
+            } catch (InterruptedException e) {
+                if (waiter.isGranted) {
+                    // granted while being interrupted - give the permit to the next one
+                    giveBack(waiter.priorityClass);
+                }
+                throw e;
+            } finally {
+                waiters.remove(waiter);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // under lock
+    private void giveBack(int c) {
+        if (sharedUsed[c] > 0) {
+            sharedUsed[c]--;
+            sharedInUse--;
+        } else {
+            reservedUsed[c]--;
+        }
+        dispatch();
+    }
+
+    /**
+     * Grants free permits to the eligible waiters with the highest effective priority.
+     */
+    // under lock
+    private void dispatch() {
+        long now = System.nanoTime();
+        while (true) {
+            Waiter best = null;
+            double bestPriority = 0;
+            for (Waiter w : waiters) {
+                if (w.isGranted || !isEligible(w.priorityClass))
+                    continue;
+                double p = w.effectivePriority(now);
+                if (best == null || p > bestPriority || (p == bestPriority && w.arrivedNanos < best.arrivedNanos)) {
+                    best = w;
+                    bestPriority = p;
+                }
+            }
+            if (best == null)
+                return;
+
+            int c = best.priorityClass;
+            if (reservedUsed[c] < reserved[c]) {
+                reservedUsed[c]++;
+            } else {
+                sharedUsed[c]++;
+                sharedInUse++;
+            }
+            best.isGranted = true;
+            best.granted.signal();
+        }
+    }
+
+    // under lock
+    private boolean isEligible(int c) {
+        return reservedUsed[c] < reserved[c] || sharedInUse < shared;
+    }
+
+    private int indexOf(String priority) {
+        Integer c = priority == null || priority.isEmpty() ? null : classIndex.get(priority);
+        return c != null ? c : classIndex.get(defaultClass);
+    }
+}
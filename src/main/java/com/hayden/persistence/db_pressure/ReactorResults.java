@@ -0,0 +1,86 @@
+package com.hayden.persistence.db_pressure;
+
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Reactor side of {@link AsyncResults} - only loaded when reactor is on the classpath.
+ */
+final class ReactorResults {
+
+    /**
+     * Rejection of a lease, kept apart from errors of the publisher itself - only these go to onRejected.
+     */
+    private static final class LeaseRejected extends RuntimeException {
+
+        private final LimitAccessRejectedException rejected;
+
+        LeaseRejected(LimitAccessRejectedException rejected) {
+            super(rejected.getMessage(), rejected, false, false);
+            this.rejected = rejected;
+        }
+    }
+
+    private ReactorResults() {}
+
+    static boolean isPublisher(Class<?> type) {
+        return Mono.class.isAssignableFrom(type) || Flux.class.isAssignableFrom(type);
+    }
+
+    static Object perSubscription(Object publisher,
+                                  Supplier<AsyncResults.Lease> leases,
+                                  Function<LimitAccessRejectedException, Object> onRejected) {
+        if (publisher instanceof Mono<?> mono) {
+            return Mono.usingWhen(lease(leases), l -> mono,
+                            l -> release(l, null), ReactorResults::release, l -> release(l, null))
+                    .onErrorResume(LeaseRejected.class, e -> Mono.from(asPublisher(onRejected.apply(e.rejected))));
+        }
+        return Flux.usingWhen(lease(leases), l -> (Flux<?>) publisher,
+                        l -> release(l, null), ReactorResults::release, l -> release(l, null))
+                .onErrorResume(LeaseRejected.class, e -> Flux.from(asPublisher(onRejected.apply(e.rejected))));
+    }
+
+    static Object empty(Class<?> type) {
+        return Mono.class.isAssignableFrom(type) ? Mono.empty() : Flux.empty();
+    }
+
+    static Object failed(Class<?> type, Throwable failure) {
+        return Mono.class.isAssignableFrom(type) ? Mono.error(failure) : Flux.error(failure);
+    }
+
+    /**
+     * Taken on the subscribing thread when it is free, otherwise waited for on boundedElastic so an event loop
+     * subscribing never blocks. A lease granted after the subscription was cancelled is released right away.
+     */
+    private static Mono<AsyncResults.Lease> lease(Supplier<AsyncResults.Lease> leases) {
+        return Mono.defer(() -> {
+            var lease = leases.get();
+            try {
+                if (lease.tryAcquire())
+                    return Mono.just(lease);
+            } catch (LimitAccessRejectedException e) {
+                return Mono.error(new LeaseRejected(e));
+            }
+            return Mono.fromCallable(() -> {
+                        lease.acquire();
+                        return lease;
+                    })
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .onErrorMap(LimitAccessRejectedException.class, LeaseRejected::new)
+                    .doOnDiscard(AsyncResults.Lease.class, l -> l.release(null));
+        });
+    }
+
+    private static Mono<Void> release(AsyncResults.Lease lease, Throwable failure) {
+        return Mono.fromRunnable(() -> lease.release(failure));
+    }
+
+    private static Publisher<?> asPublisher(Object result) {
+        return result == null ? Mono.empty() : (Publisher<?>) result;
+    }
+}
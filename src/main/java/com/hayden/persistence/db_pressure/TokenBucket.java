@@ -0,0 +1,87 @@
+package com.hayden.persistence.db_pressure;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ * Rate limit as a generic cell rate algorithm - a token bucket kept as a single theoretical arrival time:
+ * - every call moves the arrival time one emission interval (1 / rate) further, starting from now if it lies in
+ *   the past
+ * - a call may go now as long as the arrival time is at most burst intervals ahead of now, otherwise it waits
+ *   until it is
+ * - waiters reserve their slot up front with a CAS, so there is no lock, and they are served in reservation order
+ * - a waiter interrupted before its slot gives it back, the next reservation then goes one interval earlier
+ * </p>
+ * A reservation that would wait longer than allowed is not taken, so shed calls don't use up the rate.
+ */
+public final class TokenBucket {
+
+    private final long emissionNanos;
+    private final long toleranceNanos;
+
+    private final AtomicLong theoreticalArrival;
+
+    public TokenBucket(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0)
+            throw new IllegalArgumentException("permitsPerSecond must be positive, was %s".formatted(permitsPerSecond));
+        this.emissionNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        this.toleranceNanos = emissionNanos * Math.max(1, burst);
+        this.theoreticalArrival = new AtomicLong(System.nanoTime());
+    }
+
+    public boolean tryAcquire() {
+        return reserve(0) == 0;
+    }
+
+    public void acquire() throws InterruptedException {
+        awaitReserved(reserve(Long.MAX_VALUE));
+    }
+
+    /**
+     * @return false without using a token if the wait would be longer than timeout.
+     */
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        long wait = reserve(unit.toNanos(timeout));
+        if (wait < 0)
+            return false;
+        awaitReserved(wait);
+        return true;
+    }
+
+    /**
+     * @return how long to wait for the reserved slot, -1 if that is more than maxWaitNanos and nothing was reserved.
+     */
+    long reserve(long maxWaitNanos) {
+        while (true) {
+            long now = System.nanoTime();
+            long tat = theoreticalArrival.get();
+            long next = (tat - now > 0 ? tat : now) + emissionNanos;
+            long wait = next - now - toleranceNanos;
+            if (wait > maxWaitNanos)
+                return -1;
+            if (theoreticalArrival.compareAndSet(tat, next))
+                return Math.max(0, wait);
+        }
+    }
+
+    private void awaitReserved(long nanos) throws InterruptedException {
+        try {
+            sleep(nanos);
+        } catch (InterruptedException e) {
+            // unused - the later waiters keep their slots, the gap goes to the next reservation
+            theoreticalArrival.addAndGet(-emissionNanos);
+            throw e;
+        }
+    }
+
+    private static void sleep(long nanos) throws InterruptedException {
+        long deadline = System.nanoTime() + nanos;
+        for (long remaining = nanos; remaining > 0; remaining = deadline - System.nanoTime()) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted())
+                throw new InterruptedException();
+        }
+    }
+}
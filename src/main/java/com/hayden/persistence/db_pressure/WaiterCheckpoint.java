@@ -0,0 +1,131 @@
+package com.hayden.persistence.db_pressure;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * <p>
+ * Checkpoints for long running waiters. The aspect only checkpoints when the waiter call starts - a waiter looping
+ * over a large batch should call in here between units of work so that phasers pause it within one unit:
+ * - checkpoint() parks while a phaser runs, on every barrier the current thread is a waiter of, with the waiter's
+ *   permit given back to the pool while parked
+ * - checkpointing(...) wraps an Iterator or Stream to checkpoint every n items
+ * </p>
+ * As with the aspect, a waiter inside a transaction does not park - see {@link ChunkedWaiterExecutor} to commit and
+ * yield per chunk.
+ */
+@Component
+public class WaiterCheckpoint {
+
+    @Autowired
+    LimitAccessAspect limitAccessAspect;
+
+    public void checkpoint() {
+        limitAccessAspect.pauseBarrierMap.forEach((semaphoreName, barrier) -> {
+            if (barrier.isWaiterThread()) {
+                limitAccessAspect.checkpointWaiter(semaphoreName, barrier);
+            }
+        });
+    }
+
+    public void checkpoint(String semaphoreName) {
+        var barrier = limitAccessAspect.pauseBarrierMap.get(semaphoreName);
+        if (barrier != null) {
+            limitAccessAspect.checkpointWaiter(semaphoreName, barrier);
+        }
+    }
+
+    public <T> Iterator<T> checkpointing(Iterator<T> items, int every) {
+        if (every <= 0)
+            throw new IllegalArgumentException("every must be positive, was %d".formatted(every));
+        return new Iterator<>() {
+            private long count;
+
+            @Override
+            public boolean hasNext() {
+                return items.hasNext();
+            }
+
+            @Override
+            public T next() {
+                if (count > 0 && count % every == 0) {
+                    checkpoint();
+                }
+                if (!items.hasNext())
+                    throw new NoSuchElementException();
+                count++;
+                return items.next();
+            }
+
+            @Override
+            public void remove() {
+                items.remove();
+            }
+        };
+    }
+
+    /**
+     * The returned stream is sequential, and reports no size so that terminal operations like count() still visit
+     * every item - peek would be skipped there, and its items buffered ahead of the waiter by a split.
+     */
+    public <T> Stream<T> checkpointing(Stream<T> items, int every) {
+        if (every <= 0)
+            throw new IllegalArgumentException("every must be positive, was %d".formatted(every));
+        return StreamSupport.stream(new CheckpointingSpliterator<>(items.spliterator(), every), false)
+                .onClose(items::close);
+    }
+
+    /**
+     * Checkpoints after every n items were handed to the pipeline, so the unit of work on the item is done when
+     * the waiter parks. Never splits, so every item passes through the waiter's thread.
+     */
+    private final class CheckpointingSpliterator<T> implements Spliterator<T> {
+
+        private final Spliterator<T> items;
+        private final int every;
+        private long count;
+
+        private CheckpointingSpliterator(Spliterator<T> items, int every) {
+            this.items = items;
+            this.every = every;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (!items.tryAdvance(action))
+                return false;
+            if (++count % every == 0) {
+                checkpoint();
+            }
+            return true;
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            return null;
+        }
+
+        @Override
+        public long estimateSize() {
+            return items.estimateSize();
+        }
+
+        @Override
+        public int characteristics() {
+            return items.characteristics() & ~(SIZED | SUBSIZED);
+        }
+
+        @Override
+        public Comparator<? super T> getComparator() {
+            return items.getComparator();
+        }
+    }
+}
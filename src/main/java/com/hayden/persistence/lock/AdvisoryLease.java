@@ -0,0 +1,82 @@
+package com.hayden.persistence.lock;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Advisory locks held on one isolated session, as returned by {@link AdvisoryLock#acquire} and
+ * {@link AdvisoryLock#acquireAsync}. Closing the lease releases the locks and then the session. It may be closed
+ * from any thread, only the first close has an effect.
+ */
+@Slf4j
+public final class AdvisoryLease implements AutoCloseable {
+
+    private final String sessionId;
+    private final long[] keys;
+    private final AdvisoryLock.LockMode mode;
+    private final SingleConnectionDataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+    private final Consumer<AdvisoryLease> onRelease;
+    private final long acquiredAtNanos = System.nanoTime();
+    private final AtomicBoolean released = new AtomicBoolean(false);
+
+    AdvisoryLease(String sessionId,
+                  long[] keys,
+                  AdvisoryLock.LockMode mode,
+                  SingleConnectionDataSource dataSource,
+                  JdbcTemplate jdbcTemplate,
+                  Consumer<AdvisoryLease> onRelease) {
+        this.sessionId = sessionId;
+        this.keys = keys;
+        this.mode = mode;
+        this.dataSource = dataSource;
+        this.jdbcTemplate = jdbcTemplate;
+        this.onRelease = onRelease;
+    }
+
+    public String sessionId() {
+        return sessionId;
+    }
+
+    public long[] keys() {
+        return keys.clone();
+    }
+
+    public AdvisoryLock.LockMode mode() {
+        return mode;
+    }
+
+    /**
+     * Template over the lock session itself - statements run here are on the connection that holds the locks.
+     */
+    public JdbcTemplate jdbcTemplate() {
+        return jdbcTemplate;
+    }
+
+    public long heldNanos() {
+        return System.nanoTime() - acquiredAtNanos;
+    }
+
+    public boolean isReleased() {
+        return released.get();
+    }
+
+    @Override
+    public void close() {
+        if (!released.compareAndSet(false, true))
+            return;
+        try {
+            onRelease.accept(this);
+        } finally {
+            try {
+                dataSource.destroy();
+            } catch (Exception e) {
+                log.error("Failed to close advisory lock session for {}: {}", sessionId, e.getMessage());
+            }
+        }
+    }
+}
@@ -1,75 +1,663 @@
 package com.hayden.persistence.lock;
 
 import com.zaxxer.hikari.HikariDataSource;
-import org.postgresql.Driver;
 import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
 import com.hayden.utilitymodule.db.DbDataSourceTrigger;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.persistence.PersistenceException;
 import lombok.extern.slf4j.Slf4j;
 import org.intellij.lang.annotations.Language;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCallback;
 import org.springframework.jdbc.datasource.SingleConnectionDataSource;
 import org.springframework.stereotype.Component;
 
 import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
-import java.util.Objects;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.Properties;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 @Component
 @Slf4j
 public class AdvisoryLock {
 
+    /**
+     * Lock and unlock statements are constant and take the bigint key as a parameter, so the driver can
+     * cache them on the session and postgres can reuse the plan instead of parsing a new text for every key.
+     */
     @Language("sql")
     public static final String LOCK_SQL = """
-                SELECT pg_advisory_lock(hashtext('%s'));
+                SELECT pg_advisory_lock(?);
             """;
 
     @Language("sql")
     public static final String UNLOCK_SQL = """
-                SELECT pg_advisory_unlock(hashtext('%s'));
+                SELECT pg_advisory_unlock(?);
+            """;
+
+    @Language("sql")
+    public static final String LOCK_SHARED_SQL = """
+                SELECT pg_advisory_lock_shared(?);
+            """;
+
+    @Language("sql")
+    public static final String UNLOCK_SHARED_SQL = """
+                SELECT pg_advisory_unlock_shared(?);
+            """;
+
+    /**
+     * Bulk variants take a bigint[] of keys already in canonical order - unnest keeps the array order, so every
+     * key is taken in the same order by every session.
+     */
+    @Language("sql")
+    public static final String LOCK_ALL_SQL = """
+                SELECT pg_advisory_lock(k) FROM unnest(?::bigint[]) WITH ORDINALITY AS t(k, ord) ORDER BY ord;
+            """;
+
+    @Language("sql")
+    public static final String UNLOCK_ALL_SQL = """
+                SELECT bool_and(pg_advisory_unlock(k)) FROM unnest(?::bigint[]) AS k;
+            """;
+
+    @Language("sql")
+    public static final String LOCK_ALL_SHARED_SQL = """
+                SELECT pg_advisory_lock_shared(k) FROM unnest(?::bigint[]) WITH ORDINALITY AS t(k, ord) ORDER BY ord;
             """;
 
+    @Language("sql")
+    public static final String UNLOCK_ALL_SHARED_SQL = """
+                SELECT bool_and(pg_advisory_unlock_shared(k)) FROM unnest(?::bigint[]) AS k;
+            """;
+
+    @Language("sql")
+    public static final String TRY_LOCK_SQL = """
+                SELECT pg_try_advisory_lock(?);
+            """;
+
+    @Language("sql")
+    public static final String TRY_LOCK_SHARED_SQL = """
+                SELECT pg_try_advisory_lock_shared(?);
+            """;
+
+    @Language("sql")
+    public static final String TRY_LOCK_ALL_SQL = """
+                SELECT k, pg_try_advisory_lock(k) AS locked FROM unnest(?::bigint[]) WITH ORDINALITY AS t(k, ord) ORDER BY ord;
+            """;
+
+    @Language("sql")
+    public static final String TRY_LOCK_ALL_SHARED_SQL = """
+                SELECT k, pg_try_advisory_lock_shared(k) AS locked FROM unnest(?::bigint[]) WITH ORDINALITY AS t(k, ord) ORDER BY ord;
+            """;
+
+    /**
+     * Takes up to the limit of the keys that are free, in array order. The limit stops the scan, so keys past it are
+     * not tried and not locked.
+     */
+    @Language("sql")
+    public static final String TRY_LOCK_ANY_SQL = """
+                SELECT k FROM unnest(?::bigint[]) AS k WHERE pg_try_advisory_lock(k) LIMIT ?;
+            """;
+
+    @Language("sql")
+    public static final String SAMPLE_LOCKS_SQL = """
+                SELECT l.classid, l.objid, l.mode, l.granted, l.pid,
+                       a.application_name, a.client_addr::text AS client_addr, a.state,
+                       COALESCE(EXTRACT(EPOCH FROM (now() - a.state_change)), 0) AS state_seconds
+                FROM pg_locks l
+                LEFT JOIN pg_stat_activity a ON a.pid = l.pid
+                WHERE l.locktype = 'advisory' AND l.objsubid = 1;
+            """;
+
+    private static final long CANCEL_RETRY_MILLIS = 50;
+
+    private static final long FNV_64_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_64_PRIME = 0x100000001b3L;
+
     public record DatabaseMetadata(String username, String password, String jdbcUrl) {}
 
+    /**
+     * One row of pg_locks for an advisory lock joined with the owning backend from pg_stat_activity. lockName is
+     * the application name the key was taken under when it was seen by this JVM, otherwise "unknown".
+     */
+    public record AdvisoryLockHolder(String lockName,
+                                     long key,
+                                     String mode,
+                                     boolean granted,
+                                     int pid,
+                                     String applicationName,
+                                     String clientAddress,
+                                     String state,
+                                     double stateSeconds) {}
+
+    /**
+     * Exclusive holders conflict with every other holder of the key. Shared holders only conflict with exclusive
+     * ones, so readers of a resource run together and writers still get exclusion.
+     */
+    public enum LockMode {
+        EXCLUSIVE(LOCK_SQL, UNLOCK_SQL, LOCK_ALL_SQL, UNLOCK_ALL_SQL, TRY_LOCK_SQL, TRY_LOCK_ALL_SQL),
+        SHARED(LOCK_SHARED_SQL, UNLOCK_SHARED_SQL, LOCK_ALL_SHARED_SQL, UNLOCK_ALL_SHARED_SQL, TRY_LOCK_SHARED_SQL, TRY_LOCK_ALL_SHARED_SQL);
+
+        private final String lockSql;
+        private final String unlockSql;
+        private final String lockAllSql;
+        private final String unlockAllSql;
+        private final String tryLockSql;
+        private final String tryLockAllSql;
+
+        LockMode(String lockSql, String unlockSql, String lockAllSql, String unlockAllSql, String tryLockSql, String tryLockAllSql) {
+            this.lockSql = lockSql;
+            this.unlockSql = unlockSql;
+            this.lockAllSql = lockAllSql;
+            this.unlockAllSql = unlockAllSql;
+            this.tryLockSql = tryLockSql;
+            this.tryLockAllSql = tryLockAllSql;
+        }
+
+        public String tryLockSql() {
+            return tryLockSql;
+        }
+
+        public String tryLockAllSql() {
+            return tryLockAllSql;
+        }
+
+        public String lockAllSql() {
+            return lockAllSql;
+        }
+
+        public String unlockAllSql() {
+            return unlockAllSql;
+        }
+
+        public String lockSql() {
+            return lockSql;
+        }
+
+        public String unlockSql() {
+            return unlockSql;
+        }
+    }
+
     @Autowired
     JdbcTemplate jdbcTemplate;
 
     @Autowired(required = false)
     DbDataSourceTrigger trigger;
 
+    @Autowired(required = false)
+    AdvisoryLockMetrics advisoryLockMetrics = new AdvisoryLockMetrics();
+
+    @Autowired(required = false)
+    AdvisoryLockConfigProperties advisoryLockConfigProperties = new AdvisoryLockConfigProperties();
+
+    @Autowired(required = false)
+    AdvisoryLockReleaseListener releaseListener;
+
+    /**
+     * Bounds the try-lock sessions NOTIFY waiters open at once - sized from notifyMaxProbes in {@link #init}.
+     */
+    private volatile Semaphore probeSessions = new Semaphore(advisoryLockConfigProperties.notifyMaxProbes);
+
+    private final ExecutorService lockExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final ScheduledExecutorService samplerExecutor = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("advisory-lock-sampler").daemon().factory());
+
     public <T> T doWithAdvisoryLock(Callable<T> toDo, String sessionId) {
+        return doWithAdvisoryLock(toDo, sessionId, null, LockMode.EXCLUSIVE);
+    }
 
-        if (TransactionSynchronizationManager.isActualTransactionActive()) {
-            log.error("❗ Spring transaction is active! Using manual connection with advisory lock may lead to inconsistent behavior.");
+    public <T> T doWithSharedAdvisoryLock(Callable<T> toDo, String sessionId) {
+        return doWithAdvisoryLock(toDo, sessionId, null, LockMode.SHARED);
+    }
+
+    public <T> T doWithSharedAdvisoryLock(Callable<T> toDo, String sessionId, String name) {
+        return doWithAdvisoryLock(toDo, sessionId, name, LockMode.SHARED);
+    }
+
+    public <T> T doWithAdvisoryLock(Callable<T> toDo, String sessionId, String name) {
+        return doWithAdvisoryLock(toDo, sessionId, name, LockMode.EXCLUSIVE);
+    }
+
+    public <T> T doWithAdvisoryLock(Callable<T> toDo, String sessionId, String name, LockMode mode) {
+        return doOnKey(name, () -> doWithAdvisoryLockOnCurrentKey(toDo, new long[]{lockKey(sessionId)}, sessionId, mode));
+    }
+
+    public <T> T doWithAdvisoryLocks(Callable<T> toDo, Collection<String> sessionIds) {
+        return doWithAdvisoryLocks(toDo, sessionIds, null, LockMode.EXCLUSIVE);
+    }
+
+    /**
+     * Acquires every key on one session with a single statement, and releases them with a single statement. Keys
+     * are de-duplicated and sorted first so that all callers take them in the same order - overlapping key sets then
+     * queue behind each other instead of deadlocking.
+     */
+    public <T> T doWithAdvisoryLocks(Callable<T> toDo, Collection<String> sessionIds, String name, LockMode mode) {
+        return doOnKey(name, () -> doWithAdvisoryLockOnCurrentKey(toDo, sortedLockKeys(sessionIds), String.join(", ", sessionIds), mode));
+    }
+
+    public static long[] sortedLockKeys(Collection<String> sessionIds) {
+        return sessionIds.stream()
+                .mapToLong(AdvisoryLock::lockKey)
+                .sorted()
+                .distinct()
+                .toArray();
+    }
+
+    private <T> T doOnKey(String name, Supplier<T> toDo) {
+        if (name == null || trigger == null)
+            return toDo.get();
+        else {
+            return trigger.doOnKey(key -> {
+                key.setKey(name);
+                return toDo.get();
+            });
         }
+    }
 
-        DataSource dataSource = jdbcTemplate.getDataSource();
+    /**
+     * Same as {@link #doWithAdvisoryLock(Callable, String)} without blocking the caller: the wait in postgres is
+     * parked on a virtual thread, and the lock is released once the stage returned by toDo completes - normally,
+     * exceptionally or by cancellation. Cancelling the returned future before the lock is granted gives up the
+     * wait as {@link #acquireAsync(String, String, LockMode)} does, toDo then doesn't run.
+     */
+    public <T> CompletableFuture<T> doWithAdvisoryLockAsync(Function<AdvisoryLease, ? extends CompletionStage<T>> toDo,
+                                                            String sessionId) {
+        return doWithAdvisoryLockAsync(toDo, sessionId, null, LockMode.EXCLUSIVE);
+    }
 
-        if (dataSource == null) {
-            log.error("Could not get data source");
-            return null;
+    public <T> CompletableFuture<T> doWithAdvisoryLockAsync(Function<AdvisoryLease, ? extends CompletionStage<T>> toDo,
+                                                            String sessionId,
+                                                            String name,
+                                                            LockMode mode) {
+        CompletableFuture<AdvisoryLease> leased = acquireAsync(sessionId, name, mode);
+        CompletableFuture<T> result = new CompletableFuture<>();
+        // a caller giving up before the grant stops waiting for the lock - a lease granted anyway is released
+        // and toDo never runs
+        result.whenComplete((res, exc) -> {
+            if (result.isCancelled())
+                leased.cancel(false);
+        });
+        leased.whenComplete((lease, exc) -> {
+            if (exc != null) {
+                result.completeExceptionally(exc);
+                return;
+            }
+            if (result.isDone()) {
+                lease.close();
+                return;
+            }
+            CompletionStage<T> stage;
+            try {
+                stage = toDo.apply(lease);
+                if (stage == null)
+                    stage = CompletableFuture.failedFuture(
+                            new NullPointerException("Advisory lock callback for %s returned no stage".formatted(sessionId)));
+            } catch (Throwable t) {
+                stage = CompletableFuture.failedFuture(t);
+            }
+            stage.whenCompleteAsync((res, e) -> {
+                lease.close();
+                if (e != null)
+                    result.completeExceptionally(e);
+                else
+                    result.complete(res);
+            }, lockExecutor);
+        });
+        return result;
+    }
+
+    public CompletableFuture<AdvisoryLease> acquireAsync(String sessionId) {
+        return acquireAsync(sessionId, null, LockMode.EXCLUSIVE);
+    }
+
+    /**
+     * The routing key is resolved on the calling thread, the lock is then waited for on a virtual thread. Cancelling
+     * the returned future before the lock is granted gives up the wait - the lock statement is cancelled in postgres,
+     * or a NOTIFY waiter stops probing. A grant racing the cancel is released right away.
+     */
+    public CompletableFuture<AdvisoryLease> acquireAsync(String sessionId, String name, LockMode mode) {
+        return doOnKey(name, () -> acquireAsync(new long[]{lockKey(sessionId)}, sessionId, mode));
+    }
+
+    private CompletableFuture<AdvisoryLease> acquireAsync(long[] keys, String sessionId, LockMode mode) {
+        DatabaseMetadata metadata;
+        try {
+            metadata = currentMetadata();
+        } catch (SQLException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        var pending = new PendingAcquire();
+        CompletableFuture<AdvisoryLease> leased = new CompletableFuture<>();
+        leased.whenComplete((lease, exc) -> {
+            if (leased.isCancelled())
+                pending.cancel();
+        });
+        lockExecutor.execute(() -> {
+            if (!pending.start())
+                return;
+            AdvisoryLease lease;
+            try {
+                lease = acquire(metadata, keys, sessionId, mode, pending);
+            } catch (Throwable t) {
+                pending.finish();
+                leased.completeExceptionally(t);
+                return;
+            }
+            pending.finish();
+            if (!leased.complete(lease)) {
+                lease.close();
+            }
+        });
+        return leased;
+    }
+
+    /**
+     * Wait of an async acquire in progress. Cancelling it cancels the lock statement running on the waiter's session,
+     * or interrupts the waiter while it isn't in one - parked or probing for NOTIFY.
+     */
+    private static final class PendingAcquire {
+
+        private Thread waiter;
+        private Statement statement;
+        private boolean cancelled;
+
+        synchronized boolean start() {
+            if (cancelled)
+                return false;
+            waiter = Thread.currentThread();
+            return true;
+        }
+
+        /**
+         * @param running the statement that blocks in postgres until the lock is granted, null once it returned.
+         */
+        synchronized void running(Statement running) throws SQLException {
+            if (cancelled && running != null)
+                throw new SQLException("Advisory lock wait was cancelled");
+            statement = running;
+        }
+
+        /**
+         * The waiter is done waiting - an interrupt meant for the wait must not reach whatever it does next.
+         */
+        synchronized void finish() {
+            waiter = null;
+            statement = null;
+            Thread.interrupted();
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            if (statement != null) {
+                // a cancel reaching the session before the statement was sent does nothing - repeat until it returned
+                Thread.ofVirtual().name("advisory-lock-cancel").start(this::cancelUntilReturned);
+            } else if (waiter != null) {
+                waiter.interrupt();
+            }
+        }
+
+        private void cancelUntilReturned() {
+            try {
+                while (cancelRunning()) {
+                    Thread.sleep(CANCEL_RETRY_MILLIS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private synchronized boolean cancelRunning() {
+            if (statement == null)
+                return false;
+            try {
+                statement.cancel();
+            } catch (SQLException e) {
+                log.warn("Failed to cancel advisory lock wait: {}", e.getMessage());
+            }
+            return true;
         }
+    }
+
+    /**
+     * Blocks until the lock is granted on a new isolated session on the current routing key. The caller owns the
+     * returned lease and must close it.
+     */
+    public AdvisoryLease acquire(String sessionId, LockMode mode) throws SQLException {
+        return acquire(currentMetadata(), new long[]{lockKey(sessionId)}, sessionId, mode);
+    }
+
+    public AdvisoryLease acquire(DatabaseMetadata metadata, long[] keys, String sessionId, LockMode mode) throws SQLException {
+        return acquire(metadata, keys, sessionId, mode, null);
+    }
 
-        try (var cxn = newIsolatedConnection(dataSource);
-             var ds = new SingleConnectionDataSource(cxn, false)) {
-            var jdbc = new JdbcTemplate(ds);
+    private AdvisoryLease acquire(DatabaseMetadata metadata, long[] keys, String sessionId, LockMode mode,
+                                  PendingAcquire pending) throws SQLException {
+        long waitStart = advisoryLockMetrics.waiting(sessionId, keys);
+        AdvisoryLease lease;
+        try {
+            lease = waitOnRelease()
+                    ? acquireOnRelease(metadata, keys, sessionId, mode)
+                    : acquireBlocking(metadata, keys, sessionId, mode, pending);
+        } catch (SQLException | RuntimeException e) {
+            advisoryLockMetrics.abandoned(sessionId, keys);
+            throw e;
+        }
+        advisoryLockMetrics.acquired(sessionId, keys, mode, waitStart);
+        return lease;
+    }
+
+    /**
+     * Takes the lock only if it is free right now, on a new isolated session on the current routing key.
+     */
+    public Optional<AdvisoryLease> tryAcquire(String sessionId, LockMode mode) throws SQLException {
+        return tryAcquire(currentMetadata(), new long[]{lockKey(sessionId)}, sessionId, mode);
+    }
+
+    public Optional<AdvisoryLease> tryAcquire(DatabaseMetadata metadata, long[] keys, String sessionId, LockMode mode) throws SQLException {
+        var ds = new SingleConnectionDataSource(newIsolatedConnection(metadata), false);
+        var jdbc = new JdbcTemplate(ds);
+        try {
+            if (doTryLockAll(keys, mode, jdbc)) {
+                return Optional.of(new AdvisoryLease(sessionId, keys, mode, ds, jdbc, this::release));
+            }
+        } catch (RuntimeException e) {
+            ds.destroy();
+            throw e;
+        }
+        ds.destroy();
+        return Optional.empty();
+    }
+
+    private AdvisoryLease acquireBlocking(DatabaseMetadata metadata, long[] keys, String sessionId, LockMode mode,
+                                          PendingAcquire pending) throws SQLException {
+        var ds = new SingleConnectionDataSource(newIsolatedConnection(metadata), false);
+        var jdbc = new JdbcTemplate(ds);
+        try {
+            doLockAll(keys, mode, jdbc, pending);
+        } catch (RuntimeException e) {
+            ds.destroy();
+            throw e;
+        }
+        return new AdvisoryLease(sessionId, keys, mode, ds, jdbc, this::release);
+    }
+
+    /**
+     * NOTIFY wait strategy: no session is held while waiting. Each attempt is a try-lock on a short-lived probe
+     * session, and between attempts the waiter parks until a holder announces one of the keys as released, or until
+     * the recheck interval passes in case a holder went away without announcing.
+     * <p>
+     * - a release wakes one local waiter per key, and at most notifyMaxProbes probe sessions are open at once, so a
+     *   release never opens a session per parked waiter in a burst
+     * - a woken waiter that can't take the lock passes the release on to the next waiter of the key
+     * - a shared holder passes the wake-up on, so the other shared waiters follow it in one by one
+     * - when the probe session can't be opened (too many clients, connection refused) the waiter backs off and
+     *   retries instead of failing
+     */
+    private AdvisoryLease acquireOnRelease(DatabaseMetadata metadata, long[] keys, String sessionId, LockMode mode) throws SQLException {
+        long recheckMillis = advisoryLockConfigProperties.notifyRecheckInterval.toMillis();
+        int connectFailures = 0;
+        while (true) {
+            var released = releaseListener.awaitRelease(metadata, keys);
             try {
-                doLock(sessionId, jdbc);
-                var called = toDo.call();
-                return called;
+                long parkMillis;
+                try {
+                    var lease = probe(metadata, keys, sessionId, mode);
+                    if (lease.isPresent()) {
+                        if (mode == LockMode.SHARED)
+                            releaseListener.wakeNext(metadata, keys);
+                        return lease.get();
+                    }
+                    // woken for a key it can't take, e.g. with another of its keys still held - the next waiter of
+                    // that key may be able to.
+                    passOn(released);
+                    connectFailures = 0;
+                    parkMillis = ThreadLocalRandom.current().nextLong(recheckMillis / 2, recheckMillis + 1);
+                } catch (SQLException e) {
+                    if (!isTransientConnectFailure(e))
+                        throw e;
+                    parkMillis = connectBackoffMillis(++connectFailures, recheckMillis);
+                    log.warn("Could not open probe session for {}, retrying in {} ms: {}",
+                            sessionId, parkMillis, e.getMessage());
+                    if (released.isDone()) {
+                        // this waiter was woken for a release it can't take up now - pass it on.
+                        passOn(released);
+                        Thread.sleep(parkMillis);
+                        continue;
+                    }
+                }
+                released.get(parkMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException | ExecutionException e) {
+                log.debug("No release seen for {} within the recheck interval, retrying.", sessionId);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted waiting for advisory lock %s".formatted(sessionId), e);
             } finally {
-                doTryClose(sessionId, jdbc);
+                released.cancel(false);
             }
+        }
+    }
+
+    private void passOn(CompletableFuture<AdvisoryLockReleaseListener.Release> released) {
+        var release = released.getNow(null);
+        if (release != null)
+            releaseListener.passOn(release);
+    }
+
+    private Optional<AdvisoryLease> probe(DatabaseMetadata metadata, long[] keys, String sessionId, LockMode mode)
+            throws SQLException, InterruptedException {
+        var probes = probeSessions;
+        probes.acquire();
+        try {
+            return tryAcquire(metadata, keys, sessionId, mode);
+        } finally {
+            probes.release();
+        }
+    }
+
+    /**
+     * Connection exceptions (08), insufficient resources such as too_many_connections (53) and cannot_connect_now
+     * (57P03) pass once other sessions go away or the server is up again - anything else is a real failure.
+     */
+    static boolean isTransientConnectFailure(SQLException e) {
+        String state = e.getSQLState();
+        return state != null && (state.startsWith("08") || state.startsWith("53") || state.equals("57P03"));
+    }
+
+    private long connectBackoffMillis(int failures, long recheckMillis) {
+        long base = advisoryLockConfigProperties.notifyConnectBackoff.toMillis();
+        long backoff = base << Math.min(failures - 1, 16);
+        return Math.max(1, Math.min(backoff, recheckMillis));
+    }
+
+    private boolean waitOnRelease() {
+        return releaseListener != null
+                && advisoryLockConfigProperties.waitStrategy == AdvisoryLockConfigProperties.WaitStrategy.NOTIFY;
+    }
+
+    private void release(AdvisoryLease lease) {
+        try {
+            doTryClose(lease.keys(), lease.sessionId(), lease.mode(), lease.jdbcTemplate());
+            if (waitOnRelease()) {
+                announceRelease(lease);
+            }
+        } finally {
+            advisoryLockMetrics.released(lease.sessionId(), lease.mode(), lease.heldNanos());
+        }
+    }
+
+    private void announceRelease(AdvisoryLease lease) {
+        try {
+            releaseListener.notifyReleased(lease.jdbcTemplate(), lease.keys());
+        } catch (RuntimeException e) {
+            log.error("Failed to announce release of {} - waiters will pick it up on recheck: {}",
+                    lease.sessionId(), e.getMessage());
+        }
+    }
+
+    DatabaseMetadata currentMetadata() throws SQLException {
+        DataSource dataSource = jdbcTemplate.getDataSource();
+        if (dataSource == null) {
+            throw new SQLException("Could not get data source");
+        }
+        return retrieveMetadata(dataSource)
+                .orElseThrow(() -> new SQLException("Could not load database metadata"));
+    }
+
+    /**
+     * Connection details of the database the routing key resolves to, or of the current key if name is null.
+     */
+    public Optional<DatabaseMetadata> metadataFor(String name) {
+        return doOnKey(name, () -> {
+            try {
+                return Optional.of(currentMetadata());
+            } catch (SQLException e) {
+                log.error("Could not resolve database metadata for {}: {}", name, e.getMessage());
+                return Optional.empty();
+            }
+        });
+    }
+
+    private <T> T doWithAdvisoryLockOnCurrentKey(Callable<T> toDo, long[] keys, String sessionId, LockMode mode) {
+
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            log.error("❗ Spring transaction is active! Using manual connection with advisory lock may lead to inconsistent behavior.");
+        }
+
+        if (jdbcTemplate.getDataSource() == null) {
+            log.error("Could not get data source");
+            return null;
+        }
+
+        try (var lease = acquire(currentMetadata(), keys, sessionId, mode)) {
+            var called = toDo.call();
+            return called;
         } catch (Exception e) {
             log.error("Failed to do with advisory lock: {}", e.getMessage());
             throw new RuntimeException(e);
@@ -77,15 +665,10 @@ public class AdvisoryLock {
 
     }
 
-    public <T> T doWithAdvisoryLock(Callable<T> toDo, String sessionId, String name) {
-        if (name == null || trigger == null)
-            return doWithAdvisoryLock(toDo, sessionId);
-        else {
-            return trigger.doOnKey(key -> {
-                key.setKey(name);
-                return doWithAdvisoryLock(toDo, sessionId);
-            });
-        }
+    @PreDestroy
+    public void shutdown() {
+        lockExecutor.shutdown();
+        samplerExecutor.shutdownNow();
     }
 
     public Connection newIsolatedConnection(DataSource ds) throws SQLException {
@@ -104,7 +687,30 @@ public class AdvisoryLock {
      * @throws SQLException
      */
     public Connection newIsolatedConnection(DatabaseMetadata metadata) throws SQLException {
-        return DriverManager.getConnection(metadata.jdbcUrl, metadata.username, metadata.password);
+        Properties properties = new Properties();
+        Optional.ofNullable(metadata.username).ifPresent(u -> properties.setProperty("user", u));
+        Optional.ofNullable(metadata.password).ifPresent(p -> properties.setProperty("password", p));
+        // lock session statements are few and always the same - server-prepare them on first use.
+        properties.setProperty("prepareThreshold", "1");
+        return DriverManager.getConnection(metadata.jdbcUrl, properties);
+    }
+
+    /**
+     * Stable 64-bit key for the session id (FNV-1a over the UTF-8 bytes). Computed client side so that it does
+     * not depend on the server's hashtext implementation and collides far less than the 32-bit hashtext space.
+     * <p>
+     * These keys differ from the hashtext(sessionId) keys of earlier versions, so an old and a new node locking the
+     * same name don't exclude each other. Don't roll this out node by node: stop every node holding advisory locks
+     * before starting the new version, or first deploy a version that takes both the old and the new key and only
+     * then drop the old one.
+     */
+    public static long lockKey(String sessionId) {
+        long hash = FNV_64_OFFSET_BASIS;
+        for (byte b : sessionId.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= (b & 0xff);
+            hash *= FNV_64_PRIME;
+        }
+        return hash;
     }
 
     public Optional<DatabaseMetadata> retrieveMetadata(DataSource dataSource) {
@@ -119,57 +725,225 @@ public class AdvisoryLock {
         return Optional.empty();
     }
 
-    private void doTryClose(String sessionId, JdbcTemplate jdbc) {
-        doUnlockRecursive(sessionId, jdbc);
+    private void doTryClose(long[] keys, String sessionId, LockMode mode, JdbcTemplate jdbc) {
+        doUnlockRecursive(sessionId, () -> {
+            if (!doUnlockAll(keys, mode, jdbc)) {
+                log.warn("{} advisory lock for session {} was not held when unlocking.", mode, sessionId);
+            }
+        });
     }
 
     public void doLock(String sessionId, JdbcTemplate template) {
-        template.execute(LOCK_SQL.formatted(sessionId));
+        doLock(lockKey(sessionId), LockMode.EXCLUSIVE, template);
+    }
+
+    public void doLock(long key, LockMode mode, JdbcTemplate template) {
+        doLockAll(new long[]{key}, mode, template, null);
     }
 
     public void doUnlock(String sessionId, JdbcTemplate template) {
-        template.execute(UNLOCK_SQL.formatted(sessionId));
+        doUnlock(sessionId, LockMode.EXCLUSIVE, template);
     }
 
-    public void printAdvisoryLocks(String key) {
-        if (trigger == null || key == null) {
-            printAdvisoryLocks();
-        } else {
-            trigger.doWithKey(sKey -> {
-                sKey.setKey(key);
-                printAdvisoryLocks();
-            });
+    public void doUnlock(String sessionId, LockMode mode, JdbcTemplate template) {
+        if (!doUnlock(lockKey(sessionId), mode, template)) {
+            log.warn("{} advisory lock for session {} was not held when unlocking.", mode, sessionId);
         }
     }
 
-    public void printAdvisoryLocks() {
-        var found = jdbcTemplate.query("""
-            SELECT * FROM pg_locks WHERE locktype = 'advisory';
-            """,
-                (rs, rowNum) -> rs.getString("objid"));
+    public boolean doUnlock(long key, LockMode mode, JdbcTemplate template) {
+        return Boolean.TRUE.equals(template.queryForObject(mode.unlockSql(), Boolean.class, key));
+    }
 
-        found.stream().filter(Objects::nonNull)
-                .forEach(next -> log.info("Found next column advisory lock. {}", next));
+    public void doLockAll(long[] keys, LockMode mode, JdbcTemplate template) {
+        doLockAll(keys, mode, template, null);
+    }
+
+    /**
+     * @param pending told about the lock statement while it blocks, so an async acquire can cancel it.
+     */
+    private void doLockAll(long[] keys, LockMode mode, JdbcTemplate template, PendingAcquire pending) {
+        if (keys.length == 0)
+            return;
+
+        template.execute(keys.length == 1 ? mode.lockSql() : mode.lockAllSql(), (PreparedStatementCallback<Boolean>) ps -> {
+            if (keys.length == 1)
+                ps.setLong(1, keys[0]);
+            else
+                ps.setArray(1, ps.getConnection().createArrayOf("int8", boxed(keys)));
+            if (pending == null)
+                return ps.execute();
+            pending.running(ps);
+            try {
+                return ps.execute();
+            } finally {
+                pending.running(null);
+            }
+        });
+    }
+
+    public boolean doTryLock(long key, LockMode mode, JdbcTemplate template) {
+        return Boolean.TRUE.equals(template.queryForObject(mode.tryLockSql(), Boolean.class, key));
+    }
+
+    /**
+     * Tries every key in order on the session. If any of them is taken, the ones that were granted are released
+     * again so that a failed attempt never holds a partial set.
+     */
+    public boolean doTryLockAll(long[] keys, LockMode mode, JdbcTemplate template) {
+        if (keys.length == 1)
+            return doTryLock(keys[0], mode, template);
+        if (keys.length == 0)
+            return true;
+
+        List<Long> granted = template.execute(mode.tryLockAllSql(), (PreparedStatementCallback<List<Long>>) ps -> {
+            ps.setArray(1, ps.getConnection().createArrayOf("int8", boxed(keys)));
+            List<Long> locked = new ArrayList<>();
+            try (var rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    if (rs.getBoolean("locked"))
+                        locked.add(rs.getLong("k"));
+                }
+            }
+            return locked;
+        });
+
+        if (granted != null && granted.size() == keys.length)
+            return true;
+
+        if (granted != null && !granted.isEmpty())
+            doUnlockAll(granted.stream().mapToLong(Long::longValue).toArray(), mode, template);
+
+        return false;
+    }
+
+    /**
+     * Exclusively locks up to limit of the keys that are free on the session and returns the ones granted. Unlike
+     * {@link #doTryLockAll} a partial grant is kept.
+     */
+    public long[] doTryLockAny(long[] keys, int limit, JdbcTemplate template) {
+        if (keys.length == 0 || limit <= 0)
+            return new long[0];
+
+        List<Long> granted = template.execute(TRY_LOCK_ANY_SQL, (PreparedStatementCallback<List<Long>>) ps -> {
+            ps.setArray(1, ps.getConnection().createArrayOf("int8", boxed(keys)));
+            ps.setInt(2, limit);
+            List<Long> locked = new ArrayList<>();
+            try (var rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    locked.add(rs.getLong(1));
+                }
+            }
+            return locked;
+        });
+
+        return granted == null ? new long[0] : granted.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    public boolean doUnlockAll(long[] keys, LockMode mode, JdbcTemplate template) {
+        if (keys.length == 1)
+            return doUnlock(keys[0], mode, template);
+        if (keys.length == 0)
+            return true;
+
+        return Boolean.TRUE.equals(template.execute(mode.unlockAllSql(), (PreparedStatementCallback<Boolean>) ps -> {
+            ps.setArray(1, ps.getConnection().createArrayOf("int8", boxed(keys)));
+            try (var rs = ps.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }));
+    }
+
+    private static Long[] boxed(long[] keys) {
+        return Arrays.stream(keys).boxed().toArray(Long[]::new);
+    }
+
+    @PostConstruct
+    public void init() {
+        probeSessions = new Semaphore(Math.max(1, advisoryLockConfigProperties.notifyMaxProbes));
+        if (advisoryLockConfigProperties.samplingEnabled) {
+            long interval = advisoryLockConfigProperties.sampleInterval.toMillis();
+            samplerExecutor.scheduleAtFixedRate(this::sampleConfiguredKeys, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void sampleConfiguredKeys() {
+        try {
+            if (advisoryLockConfigProperties.sampleRoutingKeys.isEmpty()) {
+                sampleAdvisoryLocks(null);
+            } else {
+                advisoryLockConfigProperties.sampleRoutingKeys.forEach(this::sampleAdvisoryLocks);
+            }
+        } catch (Exception e) {
+            log.error("Failed to sample advisory locks: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Snapshot of all advisory locks held or waited for on the database of the routing key, with keys mapped back
+     * to application lock names. The counts are published to {@link AdvisoryLockMetrics}.
+     */
+    public List<AdvisoryLockHolder> sampleAdvisoryLocks(String routingKey) {
+        List<AdvisoryLockHolder> holders = doOnKey(routingKey, () -> jdbcTemplate.query(SAMPLE_LOCKS_SQL, (rs, rowNum) -> {
+            // bigint keys are split into classid (high bits) and objid (low bits), objsubid 1
+            long key = (rs.getLong("classid") << 32) | (rs.getLong("objid") & 0xffffffffL);
+            return new AdvisoryLockHolder(
+                    advisoryLockMetrics.nameOf(key),
+                    key,
+                    rs.getString("mode"),
+                    rs.getBoolean("granted"),
+                    rs.getInt("pid"),
+                    rs.getString("application_name"),
+                    rs.getString("client_addr"),
+                    rs.getString("state"),
+                    rs.getDouble("state_seconds"));
+        }));
+        advisoryLockMetrics.recordSample(
+                Optional.ofNullable(routingKey)
+                        .or(() -> Optional.ofNullable(trigger).map(DbDataSourceTrigger::currentKey))
+                        .orElse("default"),
+                holders);
+        return holders;
+    }
+
+    public void printAdvisoryLocks(String key) {
+        sampleAdvisoryLocks(key)
+                .forEach(next -> log.info("Found advisory lock {} ({}) {} by pid {} from {} [{}] {} for {}s.",
+                        next.lockName(), next.key(), next.granted() ? "held" : "awaited", next.pid(),
+                        next.clientAddress(), next.applicationName(), next.state(), next.stateSeconds()));
+    }
+
+    public void printAdvisoryLocks() {
+        printAdvisoryLocks(null);
     }
 
     public void scheduleAdvisoryLockLogger() {
         scheduleAdvisoryLockLogger(null);
     }
 
+    /**
+     * @deprecated sampling is scheduled on startup with db.advisory.sampling-enabled and published as metrics.
+     */
+    @Deprecated
     public void scheduleAdvisoryLockLogger(String name) {
-        Executors.newScheduledThreadPool(1)
-                .scheduleAtFixedRate(
-                        () -> printAdvisoryLocks(name),
-                        1,
-                        30,
-                        TimeUnit.SECONDS);
+        samplerExecutor.scheduleAtFixedRate(
+                () -> {
+                    try {
+                        printAdvisoryLocks(name);
+                    } catch (Exception e) {
+                        log.error("Failed to print advisory locks: {}", e.getMessage());
+                    }
+                },
+                1,
+                30,
+                TimeUnit.SECONDS);
     }
 
-    private void doUnlockRecursive(String sessionDir, JdbcTemplate jdbc) {
+    private void doUnlockRecursive(String sessionDir, Runnable unlock) {
         int num = 0;
         while (true) {
             try {
-                doUnlock(sessionDir, jdbc);
+                unlock.run();
                 break;
             } catch (DataAccessException | PersistenceException e) {
                 log.error("Failed to unlock session {} - retrying...", sessionDir, e);
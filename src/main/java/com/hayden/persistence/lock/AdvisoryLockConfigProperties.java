@@ -0,0 +1,93 @@
+package com.hayden.persistence.lock;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@ConfigurationProperties(prefix = "db.advisory")
+@Component
+@Data
+public class AdvisoryLockConfigProperties {
+
+    public enum WaitStrategy {
+        /**
+         * Waiters block in pg_advisory_lock, holding a session each until the lock is granted.
+         */
+        BLOCKING,
+        /**
+         * Waiters try-lock, release their session and retry when a holder announces the release on the release
+         * channel, so waiting costs no session. Every node taking the same keys should use this strategy.
+         */
+        NOTIFY
+    }
+
+    WaitStrategy waitStrategy = WaitStrategy.BLOCKING;
+
+    /**
+     * With NOTIFY, waiters also retry after this long without a release - a holder whose session died releases
+     * its locks without notifying.
+     */
+    Duration notifyRecheckInterval = Duration.ofSeconds(1);
+
+    /**
+     * With NOTIFY, at most this many try-lock probe sessions are open at once on this node. Waiters beyond it queue
+     * for a probe instead of each opening a backend.
+     */
+    int notifyMaxProbes = 4;
+
+    /**
+     * With NOTIFY, first delay before retrying when a probe session can't be opened. Doubles per failure, up to the
+     * recheck interval.
+     */
+    Duration notifyConnectBackoff = Duration.ofMillis(50);
+
+    String releaseChannel = "advisory_lock_release";
+
+    /**
+     * How often a node that is not leader tries to take the election lock.
+     */
+    Duration leaderRetryInterval = Duration.ofSeconds(5);
+
+    /**
+     * How often the leader checks its sticky session, and how long that check may take before it steps down.
+     */
+    Duration leaderKeepaliveInterval = Duration.ofSeconds(5);
+
+    Duration leaderKeepaliveTimeout = Duration.ofSeconds(5);
+
+    /**
+     * Upper bound for postgres to notice a dead leader session through TCP keepalives and release its lock. Keep it
+     * above keepalive interval + timeout so a partitioned leader steps down before another node is elected.
+     */
+    Duration leaderSessionTimeout = Duration.ofSeconds(30);
+
+    /**
+     * How long a node waits for another node's single-flight computation to publish its result before computing
+     * itself, and how often it looks for the result meanwhile.
+     */
+    Duration singleFlightMaxWait = Duration.ofSeconds(2);
+
+    Duration singleFlightPollInterval = Duration.ofMillis(50);
+
+    /**
+     * Periodically join pg_locks with pg_stat_activity and publish holders/waiters per lock name.
+     */
+    boolean samplingEnabled;
+
+    Duration sampleInterval = Duration.ofSeconds(30);
+
+    /**
+     * Routing keys to sample - empty samples whatever the current key resolves to.
+     */
+    List<String> sampleRoutingKeys = new ArrayList<>();
+
+    /**
+     * Lock names beyond this many are tagged as "other" so per-key lock names don't blow up meter cardinality.
+     */
+    int maxTaggedLocks = 500;
+
+}
@@ -0,0 +1,175 @@
+package com.hayden.persistence.lock;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Micrometer surface for advisory locks:
+ * - advisory.lock.acquire: time spent waiting for the lock, per lock name and mode
+ * - advisory.lock.held: time between grant and release, per lock name and mode
+ * - advisory.lock.waiters: threads of this JVM currently waiting in postgres, per lock name and key - keys past
+ *   maxTaggedLocks are tagged "other"
+ * - advisory.lock.sampled.holders / advisory.lock.sampled.waiters: cluster wide view from the pg_locks sampler,
+ *   per routing key and lock name
+ * <p>
+ * Lock names are remembered per key so that keys found in pg_locks can be mapped back to the application name.
+ */
+@Slf4j
+@Component
+public class AdvisoryLockMetrics {
+
+    public static final String OTHER_LOCK_NAME = "other";
+    public static final String UNKNOWN_LOCK_NAME = "unknown";
+
+    @Autowired(required = false)
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Autowired(required = false)
+    AdvisoryLockConfigProperties advisoryLockConfigProperties = new AdvisoryLockConfigProperties();
+
+    private record LockMeters(Timer[] acquire, Timer[] held) {}
+
+    private record WaitKey(String lock, String key) {}
+
+    private final Set<String> taggedNames = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<Long, String> namesByKey = new ConcurrentHashMap<>();
+    // by tagged lock name
+    private final ConcurrentHashMap<String, LockMeters> locks = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<WaitKey, AtomicInteger> localWaiters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AtomicInteger> sampledHolders = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AtomicInteger> sampledWaiters = new ConcurrentHashMap<>();
+
+    /**
+     * @return the start of the wait, to pass to {@link #acquired} or {@link #abandoned} with the same keys.
+     */
+    public long waiting(String lockName, long[] keys) {
+        for (long key : keys) {
+            if (namesByKey.size() < advisoryLockConfigProperties.maxTaggedLocks || namesByKey.containsKey(key))
+                namesByKey.put(key, lockName);
+        }
+        String lock = tagName(lockName);
+        for (long key : keys) {
+            localWaiters.computeIfAbsent(new WaitKey(lock, tagKey(key)), this::registerWaitersGauge).incrementAndGet();
+        }
+        return System.nanoTime();
+    }
+
+    public void acquired(String lockName, long[] keys, AdvisoryLock.LockMode mode, long waitStartNanos) {
+        stopWaiting(lockName, keys);
+        meters(lockName).acquire()[mode.ordinal()].record(System.nanoTime() - waitStartNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void abandoned(String lockName, long[] keys) {
+        stopWaiting(lockName, keys);
+    }
+
+    private void stopWaiting(String lockName, long[] keys) {
+        String lock = tagName(lockName);
+        for (long key : keys) {
+            var waiters = localWaiters.get(new WaitKey(lock, tagKey(key)));
+            if (waiters != null)
+                waiters.decrementAndGet();
+        }
+    }
+
+    public void released(String lockName, AdvisoryLock.LockMode mode, long heldNanos) {
+        meters(lockName).held()[mode.ordinal()].record(heldNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public String nameOf(long key) {
+        return namesByKey.getOrDefault(key, UNKNOWN_LOCK_NAME);
+    }
+
+    /**
+     * Replace the sampled counts for the routing key with those from the latest pg_locks snapshot.
+     */
+    public void recordSample(String routingKey, List<AdvisoryLock.AdvisoryLockHolder> holders) {
+        String prefix = routingKey + "/";
+        resetSampled(sampledHolders, prefix);
+        resetSampled(sampledWaiters, prefix);
+
+        for (var holder : holders) {
+            var counts = holder.granted() ? sampledHolders : sampledWaiters;
+            String gaugeName = holder.granted() ? "advisory.lock.sampled.holders" : "advisory.lock.sampled.waiters";
+            String lock = tagName(holder.lockName());
+            counts.computeIfAbsent(prefix + lock, k -> registerSampledGauge(gaugeName, routingKey, lock))
+                    .incrementAndGet();
+        }
+    }
+
+    private static void resetSampled(Map<String, AtomicInteger> sampled, String prefix) {
+        sampled.forEach((k, v) -> {
+            if (k.startsWith(prefix))
+                v.set(0);
+        });
+    }
+
+    private LockMeters meters(String lockName) {
+        return locks.computeIfAbsent(tagName(lockName), this::registerMeters);
+    }
+
+    private LockMeters registerMeters(String lock) {
+        var modes = AdvisoryLock.LockMode.values();
+        Timer[] acquire = new Timer[modes.length];
+        Timer[] held = new Timer[modes.length];
+        for (var mode : modes) {
+            acquire[mode.ordinal()] = Timer.builder("advisory.lock.acquire")
+                    .tag("lock", lock)
+                    .tag("mode", mode.name())
+                    .register(meterRegistry);
+            held[mode.ordinal()] = Timer.builder("advisory.lock.held")
+                    .tag("lock", lock)
+                    .tag("mode", mode.name())
+                    .register(meterRegistry);
+        }
+        return new LockMeters(acquire, held);
+    }
+
+    private AtomicInteger registerWaitersGauge(WaitKey waitKey) {
+        AtomicInteger count = new AtomicInteger(0);
+        Gauge.builder("advisory.lock.waiters", count, AtomicInteger::get)
+                .tag("lock", waitKey.lock())
+                .tag("key", waitKey.key())
+                .register(meterRegistry);
+        return count;
+    }
+
+    private AtomicInteger registerSampledGauge(String gaugeName, String routingKey, String lock) {
+        AtomicInteger count = new AtomicInteger(0);
+        Gauge.builder(gaugeName, count, AtomicInteger::get)
+                .tag("lock", lock)
+                .tag("routing_key", routingKey)
+                .register(meterRegistry);
+        return count;
+    }
+
+    /**
+     * Keys share the bound of the lock names - a key that was not remembered when it was waited on is "other".
+     */
+    private String tagKey(long key) {
+        return namesByKey.containsKey(key) ? Long.toString(key) : OTHER_LOCK_NAME;
+    }
+
+    private String tagName(String lockName) {
+        if (lockName == null)
+            return UNKNOWN_LOCK_NAME;
+        if (taggedNames.contains(lockName))
+            return lockName;
+        if (taggedNames.size() >= advisoryLockConfigProperties.maxTaggedLocks)
+            return OTHER_LOCK_NAME;
+        taggedNames.add(lockName);
+        return lockName;
+    }
+}
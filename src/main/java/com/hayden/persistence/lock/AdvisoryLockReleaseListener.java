@@ -0,0 +1,135 @@
+package com.hayden.persistence.lock;
+
+import lombok.extern.slf4j.Slf4j;
+import org.intellij.lang.annotations.Language;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCallback;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Release channel for the NOTIFY wait strategy. Holders publish the keys they released, waiters register a future
+ * per attempt and retry the try-lock once any of their keys is released. All waiters of the JVM share the single
+ * LISTEN session of {@link PgNotificationListener}.
+ * <p>
+ * A release wakes only the longest waiting local waiter of the key on the database it was announced on - it either
+ * takes the lock and announces its own release later, or it fails the try, passes the release on and parks again.
+ * Waking every waiter would have each of them open a probe session only for one to win.
+ * <p>
+ * A passed on release only wakes waiters that were already waiting when it was announced, so waiters that can't take
+ * the lock don't keep waking each other until the next release.
+ */
+@Slf4j
+@Component
+public class AdvisoryLockReleaseListener {
+
+    @Language("sql")
+    public static final String NOTIFY_RELEASED_SQL = """
+                SELECT pg_notify(?, k::text) FROM unnest(?::bigint[]) AS k;
+            """;
+
+    /**
+     * A waiter was woken for key - sequence orders it against the registration of the other waiters.
+     */
+    public record Release(AdvisoryLock.DatabaseMetadata metadata, long key, long sequence) {}
+
+    private record WaitKey(AdvisoryLock.DatabaseMetadata metadata, long key) {}
+
+    private record Waiter(long sequence, CompletableFuture<Release> released) {}
+
+    @Autowired
+    PgNotificationListener pgNotificationListener;
+
+    @Autowired(required = false)
+    AdvisoryLockConfigProperties advisoryLockConfigProperties = new AdvisoryLockConfigProperties();
+
+    private final ConcurrentHashMap<WaitKey, Queue<Waiter>> waiters = new ConcurrentHashMap<>();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final Set<AdvisoryLock.DatabaseMetadata> subscribed = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Register before trying the lock, so a release between the failed try and the wait is not missed. The future
+     * completes once this waiter is woken for one of the keys - cancel it when the attempt is over.
+     */
+    public CompletableFuture<Release> awaitRelease(AdvisoryLock.DatabaseMetadata metadata, long[] keys) {
+        if (subscribed.add(metadata)) {
+            pgNotificationListener.subscribe(metadata, advisoryLockConfigProperties.releaseChannel,
+                    payload -> onReleased(metadata, payload));
+        }
+
+        var waiter = new Waiter(sequence.incrementAndGet(), new CompletableFuture<>());
+        for (long key : keys) {
+            waiters.compute(new WaitKey(metadata, key), (k, prev) -> {
+                var next = prev == null ? new ConcurrentLinkedQueue<Waiter>() : prev;
+                next.add(waiter);
+                return next;
+            });
+        }
+        waiter.released().whenComplete((res, exc) -> {
+            for (long key : keys) {
+                waiters.computeIfPresent(new WaitKey(metadata, key), (k, prev) -> {
+                    prev.remove(waiter);
+                    return prev.isEmpty() ? null : prev;
+                });
+            }
+        });
+        return waiter.released();
+    }
+
+    /**
+     * Wakes the next local waiter of each key, as a release of the keys would.
+     */
+    public void wakeNext(AdvisoryLock.DatabaseMetadata metadata, long[] keys) {
+        for (long key : keys) {
+            wakeNext(metadata, key, sequence.incrementAndGet());
+        }
+    }
+
+    /**
+     * Hands a release the woken waiter could not take up to the next waiter that was waiting for it.
+     */
+    public void passOn(Release release) {
+        wakeNext(release.metadata(), release.key(), release.sequence());
+    }
+
+    public void notifyReleased(JdbcTemplate lockSession, long[] keys) {
+        lockSession.execute(NOTIFY_RELEASED_SQL, (PreparedStatementCallback<Boolean>) ps -> {
+            ps.setString(1, advisoryLockConfigProperties.releaseChannel);
+            ps.setArray(2, ps.getConnection().createArrayOf("int8", Arrays.stream(keys).boxed().toArray(Long[]::new)));
+            return ps.execute();
+        });
+    }
+
+    private void onReleased(AdvisoryLock.DatabaseMetadata metadata, String payload) {
+        long key;
+        try {
+            key = Long.parseLong(payload);
+        } catch (NumberFormatException e) {
+            log.warn("Ignoring advisory lock release with payload {}", payload);
+            return;
+        }
+        wakeNext(metadata, key, sequence.incrementAndGet());
+    }
+
+    private void wakeNext(AdvisoryLock.DatabaseMetadata metadata, long key, long releasedAt) {
+        var queued = waiters.get(new WaitKey(metadata, key));
+        if (queued == null)
+            return;
+        var release = new Release(metadata, key, releasedAt);
+        // completing removes the waiter from the queue - skip the ones already woken through another key or cancelled.
+        for (var waiter : queued) {
+            if (waiter.sequence() < releasedAt && waiter.released().complete(release))
+                return;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.hayden.persistence.lock;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.stereotype.Component;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * <p>
+ * Leader election on top of {@link AdvisoryLock}: one node per election name holds an exclusive advisory lock on a
+ * sticky session for as long as it is leader.
+ * <p>
+ * - Candidates try-lock every leaderRetryInterval, so no session is held while not leader.
+ * - The leader checks its session every leaderKeepaliveInterval and steps down if the check fails or takes longer
+ *   than leaderKeepaliveTimeout.
+ * - The session asks postgres for TCP keepalives bounded by leaderSessionTimeout, so the lock of a leader that
+ *   died or was partitioned is released within that bound and another candidate takes over.
+ * </p>
+ */
+@Slf4j
+@Component
+public class LeaderElection {
+
+    public interface LeadershipListener {
+
+        void onLeadershipGranted(String electionName);
+
+        void onLeadershipRevoked(String electionName);
+
+    }
+
+    @Autowired
+    AdvisoryLock advisoryLock;
+
+    @Autowired(required = false)
+    AdvisoryLockConfigProperties advisoryLockConfigProperties = new AdvisoryLockConfigProperties();
+
+    private final ConcurrentHashMap<String, Election> elections = new ConcurrentHashMap<>();
+
+    public Election join(String electionName, LeadershipListener listener) {
+        return join(electionName, null, listener);
+    }
+
+    /**
+     * Joins the election on the database of the routing key, or of the current key if routingKey is null. Joining
+     * an election this node already takes part in adds the listener to it.
+     *
+     * @throws IllegalArgumentException if this node takes part in the election on another database.
+     */
+    public Election join(String electionName, String routingKey, LeadershipListener listener) {
+        var metadata = advisoryLock.metadataFor(routingKey)
+                .orElseThrow(() -> new IllegalStateException("Could not resolve database for election %s".formatted(electionName)));
+        var election = elections.computeIfAbsent(electionName, name -> new Election(name, metadata));
+        if (!election.metadata.equals(metadata))
+            throw new IllegalArgumentException("Election %s is held on %s, can't join it on %s"
+                    .formatted(electionName, election.metadata.jdbcUrl(), metadata.jdbcUrl()));
+        election.addListener(listener);
+        return election;
+    }
+
+    public boolean isLeader(String electionName) {
+        return Optional.ofNullable(elections.get(electionName))
+                .map(Election::isLeader)
+                .orElse(false);
+    }
+
+    public boolean runIfLeader(String electionName, Runnable toRun) {
+        if (!isLeader(electionName))
+            return false;
+        toRun.run();
+        return true;
+    }
+
+    public void leave(String electionName) {
+        Optional.ofNullable(elections.remove(electionName)).ifPresent(Election::close);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        elections.keySet().forEach(this::leave);
+    }
+
+    public final class Election implements AutoCloseable {
+
+        private final String name;
+        private final AdvisoryLock.DatabaseMetadata metadata;
+        private final List<LeadershipListener> listeners = new CopyOnWriteArrayList<>();
+        private final Thread runner;
+
+        private volatile boolean running = true;
+        private volatile AdvisoryLease lease;
+
+        private Election(String name, AdvisoryLock.DatabaseMetadata metadata) {
+            this.name = name;
+            this.metadata = metadata;
+            this.runner = Thread.ofVirtual().name("leader-election-" + name).start(this::run);
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public boolean isLeader() {
+            return lease != null;
+        }
+
+        void addListener(LeadershipListener listener) {
+            listeners.add(listener);
+            if (isLeader())
+                notifyListener(listener, true);
+        }
+
+        /**
+         * Steps down and waits for the runner to release the leader session, bounded by the keepalive timeout of
+         * the unlock - no listener is called once close returned, unless the runner was stuck past that bound.
+         */
+        @Override
+        public void close() {
+            running = false;
+            runner.interrupt();
+            elections.remove(name, this);
+            // a listener leaving from its callback runs on the runner itself
+            if (Thread.currentThread() == runner)
+                return;
+            try {
+                if (!runner.join(advisoryLockConfigProperties.leaderKeepaliveTimeout.multipliedBy(2)))
+                    log.warn("Election {} did not step down in time, its session is dropped with the connection.", name);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void run() {
+            String sessionId = "leader-election:" + name;
+            long[] keys = new long[]{AdvisoryLock.lockKey(sessionId)};
+            while (running) {
+                try {
+                    if (lease == null) {
+                        advisoryLock.tryAcquire(metadata, keys, sessionId, AdvisoryLock.LockMode.EXCLUSIVE)
+                                .ifPresent(this::granted);
+                    } else if (!isSessionAlive()) {
+                        revoked();
+                    }
+                } catch (SQLException | RuntimeException e) {
+                    log.error("Election {} failed to contend, will retry: {}", name, e.getMessage());
+                    if (lease != null)
+                        revoked();
+                }
+
+                try {
+                    Thread.sleep(lease == null
+                            ? advisoryLockConfigProperties.leaderRetryInterval
+                            : advisoryLockConfigProperties.leaderKeepaliveInterval);
+                } catch (InterruptedException e) {
+                    // leaving the election - fall through to step down with the interrupt cleared, so the unlock
+                    // on the session is not aborted.
+                    break;
+                }
+            }
+            Thread.interrupted();
+            if (lease != null)
+                revoked();
+        }
+
+        private void granted(AdvisoryLease acquired) {
+            try {
+                configureSession(acquired);
+            } catch (RuntimeException e) {
+                log.error("Election {} could not configure leader session, giving up the lock: {}", name, e.getMessage());
+                acquired.close();
+                return;
+            }
+            lease = acquired;
+            log.info("Gained leadership of {}.", name);
+            listeners.forEach(l -> notifyListener(l, true));
+        }
+
+        private void revoked() {
+            var previous = lease;
+            lease = null;
+            log.info("Lost leadership of {}.", name);
+            listeners.forEach(l -> notifyListener(l, false));
+            try {
+                previous.close();
+            } catch (RuntimeException e) {
+                log.warn("Failed to release leader session of {} - postgres drops it with the session: {}", name, e.getMessage());
+            }
+        }
+
+        /**
+         * Ask the server to probe the leader's TCP connection so that a vanished leader's lock is released within
+         * leaderSessionTimeout, and bound every statement on the session by the keepalive timeout on the client.
+         */
+        private void configureSession(AdvisoryLease acquired) {
+            long sessionTimeout = Math.max(advisoryLockConfigProperties.leaderSessionTimeout.toSeconds(), 6);
+            int keepaliveTimeout = (int) advisoryLockConfigProperties.leaderKeepaliveTimeout.toMillis();
+            acquired.jdbcTemplate().execute((ConnectionCallback<Void>) con -> {
+                try (Statement stmt = con.createStatement()) {
+                    stmt.execute("SET tcp_keepalives_idle = %d".formatted(sessionTimeout / 3));
+                    stmt.execute("SET tcp_keepalives_interval = %d".formatted(sessionTimeout / 6));
+                    stmt.execute("SET tcp_keepalives_count = 4");
+                }
+                Executor direct = Runnable::run;
+                con.setNetworkTimeout(direct, keepaliveTimeout);
+                return null;
+            });
+        }
+
+        private boolean isSessionAlive() {
+            try {
+                var alive = lease.jdbcTemplate().execute((ConnectionCallback<Boolean>) con ->
+                        con.isValid((int) Math.max(1, advisoryLockConfigProperties.leaderKeepaliveTimeout.toSeconds())));
+                return Boolean.TRUE.equals(alive);
+            } catch (RuntimeException e) {
+                log.error("Leader session of {} failed keepalive: {}", name, e.getMessage());
+                return false;
+            }
+        }
+
+        private void notifyListener(LeadershipListener listener, boolean granted) {
+            try {
+                if (granted)
+                    listener.onLeadershipGranted(name);
+                else
+                    listener.onLeadershipRevoked(name);
+            } catch (RuntimeException e) {
+                log.error("Leadership listener for {} failed: {}", name, e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.hayden.persistence.lock;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * One LISTEN session per database shared by every subscriber in the JVM, so waiting on a channel costs no backend
+ * per waiter. The session is only ever used from its own polling thread - subscribing registers the channel and the
+ * poller issues the LISTEN on its next turn. If the session drops it is re-opened and every channel re-listened,
+ * notifications sent in between are lost, so subscribers should not rely on delivery alone.
+ */
+@Slf4j
+@Component
+public class PgNotificationListener {
+
+    private static final int POLL_MILLIS = 250;
+    private static final long RECONNECT_BACKOFF_MILLIS = 1000;
+
+    private final ConcurrentHashMap<AdvisoryLock.DatabaseMetadata, ListenerSession> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * @return a handle that removes the subscription when closed.
+     */
+    public AutoCloseable subscribe(AdvisoryLock.DatabaseMetadata metadata, String channel, Consumer<String> onPayload) {
+        var session = sessions.computeIfAbsent(metadata, ListenerSession::new);
+        session.add(channel, onPayload);
+        return () -> session.remove(channel, onPayload);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sessions.values().forEach(ListenerSession::stop);
+        sessions.clear();
+    }
+
+    private static final class ListenerSession implements Runnable {
+
+        private final AdvisoryLock.DatabaseMetadata metadata;
+        private final ConcurrentHashMap<String, List<Consumer<String>>> channels = new ConcurrentHashMap<>();
+        private final Set<String> listening = ConcurrentHashMap.newKeySet();
+        private final Thread poller;
+
+        private volatile boolean running = true;
+        private Connection connection;
+
+        ListenerSession(AdvisoryLock.DatabaseMetadata metadata) {
+            this.metadata = metadata;
+            this.poller = Thread.ofVirtual().name("pg-notification-listener").start(this);
+        }
+
+        void add(String channel, Consumer<String> onPayload) {
+            channels.computeIfAbsent(channel, c -> new CopyOnWriteArrayList<>()).add(onPayload);
+        }
+
+        void remove(String channel, Consumer<String> onPayload) {
+            Optional.ofNullable(channels.get(channel)).ifPresent(c -> c.remove(onPayload));
+        }
+
+        void stop() {
+            running = false;
+            poller.interrupt();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    if (connection == null || connection.isClosed()) {
+                        connection = connect();
+                        listening.clear();
+                    }
+                    listenPending();
+                    PGNotification[] notifications = connection.unwrap(PGConnection.class).getNotifications(POLL_MILLIS);
+                    if (notifications != null) {
+                        for (PGNotification notification : notifications) {
+                            dispatch(notification);
+                        }
+                    }
+                } catch (SQLException e) {
+                    log.error("Notification session for {} failed, reconnecting: {}", metadata.jdbcUrl(), e.getMessage());
+                    closeQuietly();
+                    try {
+                        Thread.sleep(RECONNECT_BACKOFF_MILLIS);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+            closeQuietly();
+        }
+
+        private void listenPending() throws SQLException {
+            for (String channel : channels.keySet()) {
+                if (!listening.contains(channel)) {
+                    try (Statement stmt = connection.createStatement()) {
+                        stmt.execute("LISTEN \"" + channel.replace("\"", "\"\"") + "\"");
+                    }
+                    listening.add(channel);
+                }
+            }
+        }
+
+        private void dispatch(PGNotification notification) {
+            var subscribers = channels.get(notification.getName());
+            if (subscribers == null)
+                return;
+            for (var subscriber : subscribers) {
+                try {
+                    subscriber.accept(notification.getParameter());
+                } catch (Exception e) {
+                    log.error("Subscriber for channel {} failed: {}", notification.getName(), e.getMessage());
+                }
+            }
+        }
+
+        private Connection connect() throws SQLException {
+            Properties properties = new Properties();
+            Optional.ofNullable(metadata.username()).ifPresent(u -> properties.setProperty("user", u));
+            Optional.ofNullable(metadata.password()).ifPresent(p -> properties.setProperty("password", p));
+            return DriverManager.getConnection(metadata.jdbcUrl(), properties);
+        }
+
+        private void closeQuietly() {
+            if (connection == null)
+                return;
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                log.debug("Failed to close notification session: {}", e.getMessage());
+            }
+            connection = null;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.hayden.persistence.lock;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.sql.SQLException;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * <p>
+ * Stampede protection for expensive recomputations, on two levels:
+ * - In the JVM, concurrent calls for the same key share one computation and its result (or failure).
+ * - Across nodes, the computing thread of each JVM try-locks an advisory lock for the key. The node that gets it
+ *   computes. The others serve the stale value if they have one, otherwise poll the lookup (e.g. the shared cache the
+ *   winner writes to) for up to singleFlightMaxWait before computing themselves.
+ * </p>
+ * Results are shared by key only - callers must not use the same key for computations of different types.
+ */
+@Slf4j
+@Component
+public class SingleFlight {
+
+    @Autowired
+    AdvisoryLock advisoryLock;
+
+    @Autowired(required = false)
+    AdvisoryLockConfigProperties advisoryLockConfigProperties = new AdvisoryLockConfigProperties();
+
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * De-duplicates concurrent computations of the key in this JVM.
+     */
+    public <T> T execute(String key, Callable<T> compute) {
+        return dedupe(key, compute);
+    }
+
+    /**
+     * De-duplicates concurrent computations of the key across the cluster.
+     *
+     * @param lookup reads the result published by whichever node computed it, empty while not available
+     * @param stale  value to serve instead of waiting while another node computes, if the caller has one
+     */
+    public <T> T executeClustered(String key, Callable<T> compute, Supplier<Optional<T>> lookup, Optional<T> stale) {
+        return dedupe(key, () -> computeOnce(key, compute, lookup, stale));
+    }
+
+    private <T> T computeOnce(String key, Callable<T> compute, Supplier<Optional<T>> lookup, Optional<T> stale) throws Exception {
+        Optional<AdvisoryLease> lease;
+        try {
+            lease = advisoryLock.tryAcquire("single-flight:" + key, AdvisoryLock.LockMode.EXCLUSIVE);
+        } catch (SQLException e) {
+            log.error("Could not try single-flight lock for {}, computing locally: {}", key, e.getMessage());
+            return compute.call();
+        }
+
+        if (lease.isPresent()) {
+            try (var held = lease.get()) {
+                return compute.call();
+            }
+        }
+
+        if (stale.isPresent())
+            return stale.get();
+
+        long deadline = System.nanoTime() + advisoryLockConfigProperties.singleFlightMaxWait.toNanos();
+        while (System.nanoTime() < deadline) {
+            var found = lookup.get();
+            if (found.isPresent())
+                return found.get();
+            Thread.sleep(advisoryLockConfigProperties.singleFlightPollInterval);
+        }
+
+        log.debug("Single-flight result for {} not published within {}, computing locally.",
+                key, advisoryLockConfigProperties.singleFlightMaxWait);
+        return lookup.get().orElseGet(() -> {
+            try {
+                return compute.call();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T dedupe(String key, Callable<T> compute) {
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        var existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            return (T) join(existing);
+        }
+
+        try {
+            T computed = compute.call();
+            mine.complete(computed);
+            return computed;
+        } catch (Throwable t) {
+            mine.completeExceptionally(t);
+            if (t instanceof RuntimeException r)
+                throw r;
+            throw new RuntimeException(t);
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    private static Object join(CompletableFuture<Object> existing) {
+        try {
+            return existing.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException r)
+                throw r;
+            throw new RuntimeException(e.getCause());
+        }
+    }
+}
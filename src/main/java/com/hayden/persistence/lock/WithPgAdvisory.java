@@ -13,4 +13,9 @@ public @interface WithPgAdvisory {
 
     int lockArg() default 0;
 
+    /**
+     * SHARED lets concurrent readers of the same key run together, only EXCLUSIVE holders are serialized.
+     */
+    AdvisoryLock.LockMode mode() default AdvisoryLock.LockMode.EXCLUSIVE;
+
 }
@@ -36,7 +36,7 @@ public class WithPgAdvisoryAspect {
             } catch (Throwable e) {
                 throw new RuntimeException(e);
             }
-        }, lockPath);
+        }, lockPath, null, advisory.mode());
 
     }
 
@@ -0,0 +1,13 @@
+package com.hayden.persistence.queue;
+
+/**
+ * A claimed job. claimToken identifies this claim - completing or failing a job whose visibility timeout expired
+ * and that was claimed again by another worker has no effect.
+ */
+public record Job(long id, String queue, String payload, int attempts, int maxAttempts, String claimToken) {
+
+    public boolean isLastAttempt() {
+        return attempts >= maxAttempts;
+    }
+
+}
@@ -0,0 +1,13 @@
+package com.hayden.persistence.queue;
+
+/**
+ * Beans implementing this are run by {@link JobQueueWorkers} for their queue when db.queue.enabled is set. A job
+ * is completed when handle returns and retried with backoff when it throws, until maxAttempts.
+ */
+public interface JobHandler {
+
+    String queue();
+
+    void handle(Job job) throws Exception;
+
+}
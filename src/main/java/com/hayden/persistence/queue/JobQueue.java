@@ -0,0 +1,175 @@
+package com.hayden.persistence.queue;
+
+import com.hayden.persistence.TsidUtils;
+import com.hayden.utilitymodule.db.DbDataSourceTrigger;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.intellij.lang.annotations.Language;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * <p>
+ * Postgres backed job queue. Jobs are rows keyed by TSID, workers claim batches with FOR UPDATE SKIP LOCKED so
+ * concurrent workers never wait on each other's rows:
+ * - claim marks the batch RUNNING and hides it for visibilityTimeout
+ * - complete deletes the job, fail makes it visible again after retryBackoff * attempts, or DEAD after maxAttempts
+ * - RUNNING jobs whose visibility timeout expired (the worker died) are claimed again
+ * </p>
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "db.queue", name = "enabled", havingValue = "true")
+public class JobQueue {
+
+    @Language("sql")
+    public static final String SCHEMA_SQL = """
+                CREATE TABLE IF NOT EXISTS job_queue (
+                    id BIGINT PRIMARY KEY,
+                    queue VARCHAR(255) NOT NULL,
+                    payload TEXT,
+                    status VARCHAR(16) NOT NULL DEFAULT 'PENDING',
+                    attempts INTEGER NOT NULL DEFAULT 0,
+                    max_attempts INTEGER NOT NULL,
+                    visible_at TIMESTAMPTZ NOT NULL DEFAULT now(),
+                    claim_token VARCHAR(64),
+                    last_error TEXT,
+                    created_at TIMESTAMPTZ NOT NULL DEFAULT now()
+                );
+                CREATE INDEX IF NOT EXISTS job_queue_claim_idx ON job_queue (queue, visible_at, id)
+                    WHERE status IN ('PENDING', 'RUNNING');
+            """;
+
+    @Language("sql")
+    public static final String ENQUEUE_SQL = """
+                INSERT INTO job_queue (id, queue, payload, max_attempts, visible_at)
+                VALUES (?, ?, ?, ?, now() + make_interval(secs => ?));
+            """;
+
+    @Language("sql")
+    public static final String CLAIM_SQL = """
+                UPDATE job_queue
+                SET status = 'RUNNING', attempts = attempts + 1, claim_token = ?,
+                    visible_at = now() + make_interval(secs => ?)
+                WHERE id IN (
+                    SELECT id FROM job_queue
+                    WHERE queue = ? AND status IN ('PENDING', 'RUNNING') AND visible_at <= now() AND attempts < max_attempts
+                    ORDER BY visible_at, id
+                    LIMIT ?
+                    FOR UPDATE SKIP LOCKED)
+                RETURNING id, queue, payload, attempts, max_attempts, claim_token;
+            """;
+
+    @Language("sql")
+    public static final String COMPLETE_SQL = """
+                DELETE FROM job_queue WHERE id = ? AND claim_token = ?;
+            """;
+
+    @Language("sql")
+    public static final String FAIL_SQL = """
+                UPDATE job_queue
+                SET status = CASE WHEN attempts >= max_attempts THEN 'DEAD' ELSE 'PENDING' END,
+                    visible_at = now() + make_interval(secs => ? * attempts),
+                    claim_token = NULL, last_error = ?
+                WHERE id = ? AND claim_token = ?;
+            """;
+
+    @Language("sql")
+    public static final String EXPIRE_EXHAUSTED_SQL = """
+                UPDATE job_queue SET status = 'DEAD', claim_token = NULL, last_error = 'visibility timeout on last attempt'
+                WHERE queue = ? AND status = 'RUNNING' AND visible_at <= now() AND attempts >= max_attempts;
+            """;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired(required = false)
+    DbDataSourceTrigger trigger;
+
+    @Autowired
+    JobQueueConfigProperties jobQueueConfigProperties;
+
+    @PostConstruct
+    public void init() {
+        if (jobQueueConfigProperties.initializeSchema) {
+            doOnKey(() -> {
+                jdbcTemplate.execute(SCHEMA_SQL);
+                return null;
+            });
+        }
+    }
+
+    public long enqueue(String queue, String payload) {
+        return enqueue(queue, payload, Duration.ZERO);
+    }
+
+    public long enqueue(String queue, String payload, Duration delay) {
+        long id = TsidUtils.randomTsid().toLong();
+        doOnKey(() -> jdbcTemplate.update(ENQUEUE_SQL, id, queue, payload,
+                jobQueueConfigProperties.maxAttempts, seconds(delay)));
+        return id;
+    }
+
+    /**
+     * Claims up to batchSize visible jobs of the queue. Rows locked by concurrent claims are skipped rather than
+     * waited on, so every worker gets a disjoint batch.
+     */
+    public List<Job> claim(String queue, int batchSize) {
+        String claimToken = UUID.randomUUID().toString();
+        return doOnKey(() -> jdbcTemplate.query(
+                CLAIM_SQL,
+                (rs, rowNum) -> new Job(
+                        rs.getLong("id"),
+                        rs.getString("queue"),
+                        rs.getString("payload"),
+                        rs.getInt("attempts"),
+                        rs.getInt("max_attempts"),
+                        rs.getString("claim_token")),
+                claimToken,
+                seconds(jobQueueConfigProperties.visibilityTimeout),
+                queue,
+                batchSize));
+    }
+
+    public boolean complete(Job job) {
+        return doOnKey(() -> jdbcTemplate.update(COMPLETE_SQL, job.id(), job.claimToken())) > 0;
+    }
+
+    public boolean fail(Job job, Throwable cause) {
+        if (job.isLastAttempt()) {
+            log.error("Job {} of queue {} failed on its last attempt {}.", job.id(), job.queue(), job.attempts(), cause);
+        }
+        return doOnKey(() -> jdbcTemplate.update(FAIL_SQL,
+                seconds(jobQueueConfigProperties.retryBackoff),
+                String.valueOf(cause.getMessage()),
+                job.id(),
+                job.claimToken())) > 0;
+    }
+
+    /**
+     * Jobs whose worker went away during their last attempt can't be claimed again - mark them DEAD.
+     */
+    public int expireExhausted(String queue) {
+        return doOnKey(() -> jdbcTemplate.update(EXPIRE_EXHAUSTED_SQL, queue));
+    }
+
+    private static double seconds(Duration duration) {
+        return duration.toMillis() / 1000.0;
+    }
+
+    private <T> T doOnKey(Supplier<T> toDo) {
+        if (jobQueueConfigProperties.routingKey == null || trigger == null)
+            return toDo.get();
+        return trigger.doOnKey(key -> {
+            key.setKey(jobQueueConfigProperties.routingKey);
+            return toDo.get();
+        });
+    }
+}
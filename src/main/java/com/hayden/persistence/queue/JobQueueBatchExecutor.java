@@ -0,0 +1,44 @@
+package com.hayden.persistence.queue;
+
+import com.hayden.persistence.db_pressure.LimitAccess;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs one claimed batch as a {@link LimitAccess} waiter, so workers take their permits from the default pool and
+ * park at the batch boundary while phasers (interactive requests) run. In a separate bean from
+ * {@link JobQueueWorkers} so that the aspect intercepts the call.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "db.queue", name = "enabled", havingValue = "true")
+public class JobQueueBatchExecutor {
+
+    @Autowired
+    JobQueue jobQueue;
+
+    @Autowired
+    JobQueueConfigProperties jobQueueConfigProperties;
+
+    /**
+     * @return number of jobs claimed - 0 when the queue had nothing visible.
+     */
+    @LimitAccess(isWaiter = true)
+    public int processBatch(JobHandler handler) {
+        var jobs = jobQueue.claim(handler.queue(), jobQueueConfigProperties.batchSize);
+        for (Job job : jobs) {
+            try {
+                handler.handle(job);
+                if (!jobQueue.complete(job)) {
+                    log.warn("Job {} of queue {} was claimed again before it completed.", job.id(), job.queue());
+                }
+            } catch (Exception e) {
+                log.error("Job {} of queue {} failed on attempt {}: {}", job.id(), job.queue(), job.attempts(), e.getMessage());
+                jobQueue.fail(job, e);
+            }
+        }
+        return jobs.size();
+    }
+}
@@ -0,0 +1,47 @@
+package com.hayden.persistence.queue;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@ConfigurationProperties(prefix = "db.queue")
+@Component
+@Data
+public class JobQueueConfigProperties {
+
+    /**
+     * Creates the queue table on startup and runs workers for every {@link JobHandler} bean.
+     */
+    boolean enabled;
+
+    boolean initializeSchema = true;
+
+    /**
+     * Routing key of the database holding the queue table - null uses the current key.
+     */
+    String routingKey;
+
+    /**
+     * A claimed job becomes visible to other workers again if it is neither completed nor failed within this.
+     */
+    Duration visibilityTimeout = Duration.ofMinutes(5);
+
+    /**
+     * Failed jobs are retried after retryBackoff * attempts.
+     */
+    Duration retryBackoff = Duration.ofSeconds(10);
+
+    int maxAttempts = 5;
+
+    int batchSize = 10;
+
+    int workersPerQueue = 2;
+
+    /**
+     * How long an idle worker sleeps before claiming again.
+     */
+    Duration pollInterval = Duration.ofSeconds(1);
+
+}
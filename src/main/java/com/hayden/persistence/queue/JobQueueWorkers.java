@@ -0,0 +1,82 @@
+package com.hayden.persistence.queue;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Starts workersPerQueue virtual threads per {@link JobHandler} once the application is ready. Each worker claims
+ * and runs batches until the queue is empty, then sleeps for pollInterval.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "db.queue", name = "enabled", havingValue = "true")
+public class JobQueueWorkers {
+
+    @Autowired(required = false)
+    private List<JobHandler> handlers = new ArrayList<>();
+
+    @Autowired
+    JobQueueBatchExecutor jobQueueBatchExecutor;
+
+    @Autowired
+    JobQueue jobQueue;
+
+    @Autowired
+    JobQueueConfigProperties jobQueueConfigProperties;
+
+    private final List<Thread> workers = new ArrayList<>();
+
+    private volatile boolean running = true;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (!workers.isEmpty())
+            return;
+        for (JobHandler handler : handlers) {
+            for (int i = 0; i < jobQueueConfigProperties.workersPerQueue; i++) {
+                workers.add(Thread.ofVirtual()
+                        .name("job-queue-%s-%d".formatted(handler.queue(), i))
+                        .start(() -> work(handler)));
+            }
+            log.info("Started {} workers for job queue {}.", jobQueueConfigProperties.workersPerQueue, handler.queue());
+        }
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        running = false;
+        workers.forEach(Thread::interrupt);
+        workers.clear();
+    }
+
+    private void work(JobHandler handler) {
+        while (running) {
+            int claimed;
+            try {
+                claimed = jobQueueBatchExecutor.processBatch(handler);
+                if (claimed == 0)
+                    jobQueue.expireExhausted(handler.queue());
+            } catch (Exception e) {
+                log.error("Worker for job queue {} failed: {}", handler.queue(), e.getMessage());
+                claimed = 0;
+            }
+
+            if (claimed == 0) {
+                try {
+                    Thread.sleep(jobQueueConfigProperties.pollInterval);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
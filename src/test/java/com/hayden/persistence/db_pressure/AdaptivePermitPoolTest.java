@@ -0,0 +1,63 @@
+package com.hayden.persistence.db_pressure;
+
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.QueryTimeoutException;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AdaptivePermitPoolTest {
+
+    private static final long BASELINE = TimeUnit.MILLISECONDS.toNanos(5);
+
+    @SneakyThrows
+    @Test
+    public void limitGrowsWhileLatencyHoldsAndShrinksWhenItQueues() {
+        var pool = new AdaptivePermitPool(10, 2, 40);
+        saturate(pool, 10);
+
+        for (int i = 0; i < 200; i++) {
+            pool.onSample(BASELINE, null);
+        }
+        int grown = pool.limit();
+        assertThat(grown).isGreaterThan(10).isLessThanOrEqualTo(40);
+
+        saturate(pool, grown - 10);
+        for (int i = 0; i < 200; i++) {
+            pool.onSample(BASELINE * 10, null);
+        }
+        assertThat(pool.limit()).isLessThan(grown).isGreaterThanOrEqualTo(2);
+    }
+
+    @SneakyThrows
+    @Test
+    public void overloadFailuresBackOffToTheFloor() {
+        var pool = new AdaptivePermitPool(20, 3, 20);
+        for (int i = 0; i < 100; i++) {
+            pool.onSample(BASELINE, new QueryTimeoutException("canceling statement due to statement timeout"));
+        }
+        assertThat(pool.limit()).isEqualTo(3);
+
+        pool.onSample(BASELINE, new IllegalArgumentException("not an overload"));
+        assertThat(pool.limit()).isEqualTo(3);
+    }
+
+    @SneakyThrows
+    @Test
+    public void limitIsNotRaisedWhileUnused() {
+        var pool = new AdaptivePermitPool(10, 1, 100);
+        for (int i = 0; i < 200; i++) {
+            pool.onSample(BASELINE, null);
+        }
+        assertThat(pool.limit()).isEqualTo(10);
+        assertThat(pool.availablePermits()).isEqualTo(10);
+    }
+
+    private static void saturate(AdaptivePermitPool pool, int permits) throws InterruptedException {
+        for (int i = 0; i < permits; i++) {
+            pool.acquire();
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.hayden.persistence.db_pressure;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class AsyncLimitAccessTest {
+
+    public static class Target {
+
+        @LimitAccess(semaphoreName = "async")
+        public CompletableFuture<String> future(CompletableFuture<String> work) {
+            return work;
+        }
+
+        @LimitAccess(semaphoreName = "async", acquireTimeoutMillis = 0)
+        public CompletableFuture<String> futureOrReject(CompletableFuture<String> work) {
+            return work;
+        }
+
+        @LimitAccess(semaphoreName = "async", skipIfNotAvailable = true)
+        public CompletableFuture<String> futureOrSkip(CompletableFuture<String> work) {
+            return work;
+        }
+
+        @LimitAccess(semaphoreName = "async")
+        public Mono<String> mono(Sinks.One<String> work) {
+            return work.asMono();
+        }
+
+        @LimitAccess(semaphoreName = "async", acquireTimeoutMillis = 0)
+        public Mono<String> monoOrReject(Sinks.One<String> work) {
+            return work.asMono();
+        }
+
+        @LimitAccess(semaphoreName = "async", skipIfNotAvailable = true)
+        public Flux<String> fluxOrSkip(Flux<String> work) {
+            return work;
+        }
+    }
+
+    private LimitAccessAspect aspect;
+    private Target proxy;
+
+    @BeforeEach
+    public void setUp() {
+        aspect = new LimitAccessAspect();
+        aspect.limitAccessConfigProperties.enable = true;
+        aspect.limitAccessConfigProperties.semaphores.put("async",
+                new LimitAccessConfigProperties.Semaphore("async", 1));
+        aspect.init();
+
+        var factory = new AspectJProxyFactory(new Target());
+        factory.setProxyTargetClass(true);
+        factory.addAspect(aspect);
+        proxy = factory.getProxy();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        aspect.shutdown();
+    }
+
+    @Test
+    public void futureHoldsPermitUntilComplete() {
+        var work = new CompletableFuture<String>();
+
+        var returned = proxy.future(work);
+        assertThat(availablePermits()).isZero();
+
+        work.complete("done");
+        assertThat(returned).isCompletedWithValue("done");
+        assertThat(availablePermits()).isOne();
+    }
+
+    @Test
+    public void cancelledFutureHoldsPermitUntilWorkTerminates() {
+        var work = new CompletableFuture<String>();
+        var returned = proxy.future(work);
+        assertThat(availablePermits()).isZero();
+
+        // the caller gave up, the work goes on
+        returned.cancel(true);
+        assertThat(work).isNotDone();
+        assertThat(availablePermits()).isZero();
+
+        work.complete("done");
+        assertThat(availablePermits()).isOne();
+    }
+
+    @Test
+    public void cancelledWorkReleasesPermit() {
+        var work = new CompletableFuture<String>();
+        var returned = proxy.future(work);
+
+        work.cancel(true);
+        assertThat(returned).isCompletedExceptionally();
+        assertThat(availablePermits()).isOne();
+    }
+
+    @Test
+    public void rejectedFutureFailsInsteadOfThrowing() {
+        var holding = new CompletableFuture<String>();
+        proxy.future(holding);
+
+        var rejected = proxy.futureOrReject(new CompletableFuture<>());
+
+        assertThat(rejected).isCompletedExceptionally();
+        assertThatThrownBy(rejected::join).hasCauseInstanceOf(LimitAccessRejectedException.class);
+        holding.complete("done");
+    }
+
+    @Test
+    public void skippedFutureCompletesEmpty() {
+        var holding = new CompletableFuture<String>();
+        proxy.future(holding);
+
+        assertThat(proxy.futureOrSkip(new CompletableFuture<>())).isCompletedWithValue(null);
+        holding.complete("done");
+    }
+
+    @Test
+    public void monoHoldsPermitUntilTerminated() {
+        Sinks.One<String> work = Sinks.one();
+
+        var returned = proxy.mono(work);
+        // assembled only - the permit is taken on subscription
+        assertThat(availablePermits()).isOne();
+
+        var subscription = returned.subscribe();
+        assertThat(availablePermits()).isZero();
+
+        subscription.dispose();
+        assertThat(availablePermits()).isOne();
+    }
+
+    @Test
+    public void failedMonoReleasesPermit() {
+        Sinks.One<String> work = Sinks.one();
+        var returned = proxy.mono(work);
+        work.tryEmitError(new IllegalStateException("failed"));
+
+        assertThat(returned.onErrorReturn("recovered").block()).isEqualTo("recovered");
+        assertThat(availablePermits()).isOne();
+    }
+
+    @Test
+    public void unsubscribedMonoTakesNoPermit() {
+        proxy.mono(Sinks.one());
+        proxy.mono(Sinks.one());
+
+        assertThat(availablePermits()).isOne();
+    }
+
+    @Test
+    public void everySubscriptionTakesItsOwnPermit() {
+        Sinks.One<String> work = Sinks.one();
+        var returned = proxy.mono(work);
+
+        var first = returned.subscribe();
+        assertThat(availablePermits()).isZero();
+
+        // the second subscription waits for the permit off the subscribing thread
+        var second = returned.toFuture();
+        assertThat(second).isNotDone();
+
+        first.dispose();
+        work.tryEmitValue("done");
+        assertThat(second.orTimeout(5, TimeUnit.SECONDS).join()).isEqualTo("done");
+        assertThat(availablePermits()).isOne();
+    }
+
+    @Test
+    public void rejectedSubscriptionErrors() {
+        var holding = proxy.mono(Sinks.one()).subscribe();
+
+        assertThatThrownBy(() -> proxy.monoOrReject(Sinks.one()).block(Duration.ofSeconds(5)))
+                .isInstanceOf(LimitAccessRejectedException.class);
+
+        holding.dispose();
+        assertThat(availablePermits()).isOne();
+    }
+
+    @Test
+    public void skippedSubscriptionCompletesEmpty() {
+        var holding = proxy.mono(Sinks.one()).subscribe();
+
+        assertThat(proxy.fluxOrSkip(Flux.just("a", "b")).collectList().block(Duration.ofSeconds(5))).isEmpty();
+
+        holding.dispose();
+        assertThat(proxy.fluxOrSkip(Flux.just("a", "b")).collectList().block(Duration.ofSeconds(5)))
+                .containsExactly("a", "b");
+        assertThat(availablePermits()).isOne();
+    }
+
+    private int availablePermits() {
+        return aspect.semaphoreMap.get("async").permits().availablePermits();
+    }
+}
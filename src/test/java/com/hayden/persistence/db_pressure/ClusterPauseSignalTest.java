@@ -0,0 +1,161 @@
+package com.hayden.persistence.db_pressure;
+
+import com.hayden.persistence.lock.AdvisoryLock;
+import com.hayden.persistence.lock.PgNotificationListener;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Two nodes sharing an in-memory stand-in for the pause channel - every pg_notify a node sends is delivered to the
+ * subscribers of both, as postgres would.
+ */
+public class ClusterPauseSignalTest {
+
+    private static final AdvisoryLock.DatabaseMetadata METADATA =
+            new AdvisoryLock.DatabaseMetadata("postgres", "postgres", "jdbc:postgresql://localhost:5489/postgres");
+
+    private final List<Consumer<String>> subscribers = new CopyOnWriteArrayList<>();
+    private final List<ClusterPauseSignal> nodes = new ArrayList<>();
+
+    @AfterEach
+    public void shutdown() {
+        nodes.forEach(ClusterPauseSignal::shutdown);
+    }
+
+    @Test
+    public void pauseAndResumeReachTheOtherNode() {
+        var a = node(Duration.ofSeconds(10));
+        var b = node(Duration.ofSeconds(10));
+        var barrierA = new PauseBarrier();
+        var barrierB = new PauseBarrier();
+        a.register("writes", "default", barrierA);
+        b.register("writes", "default", barrierB);
+
+        a.pause("writes");
+        awaitUntil(barrierB::isRemotelyPaused);
+        // a's own signal comes back on its subscription too, and is ignored
+        assertThat(barrierA.isRemotelyPaused()).isFalse();
+
+        a.resume("writes");
+        awaitUntil(() -> !barrierB.isRemotelyPaused());
+    }
+
+    @Test
+    public void ignoresOwnAndMalformedSignals() {
+        var b = node(Duration.ofSeconds(10));
+        var barrier = new PauseBarrier();
+        var colons = new PauseBarrier();
+        b.register("writes", "default", barrier);
+        b.register("writes:bulk", "default", colons);
+
+        b.onSignal("pause:%s:10000:writes".formatted(b.node()));
+        b.onSignal("garbage");
+        b.onSignal("pause:other:ten-seconds:writes");
+        b.onSignal("explode:other:10000:writes");
+        b.onSignal("pause:other:10000:unknown-semaphore");
+        assertThat(barrier.isRemotelyPaused()).isFalse();
+
+        // the semaphore name is everything after the third colon
+        b.onSignal("pause:other:10000:writes:bulk");
+        assertThat(colons.isRemotelyPaused()).isTrue();
+        assertThat(barrier.isRemotelyPaused()).isFalse();
+
+        b.onSignal("resume:other:10000:writes:bulk");
+        assertThat(colons.isRemotelyPaused()).isFalse();
+    }
+
+    @SneakyThrows
+    @Test
+    public void renewalKeepsThePauseUntilTheNodeDies() {
+        var lease = Duration.ofMillis(150);
+        var a = node(lease);
+        var b = node(lease);
+        var barrierB = new PauseBarrier();
+        a.register("writes", "default", new PauseBarrier());
+        b.register("writes", "default", barrierB);
+
+        a.pause("writes");
+        awaitUntil(barrierB::isRemotelyPaused);
+
+        // several leases pass - the renewals keep b paused
+        Thread.sleep(lease.toMillis() * 4);
+        assertThat(barrierB.isRemotelyPaused()).isTrue();
+
+        // a dies mid phaser: no resume and no more renewals, b resumes once the last lease runs out
+        a.renewExecutor.shutdownNow();
+        long died = System.nanoTime();
+        awaitUntil(() -> !barrierB.isRemotelyPaused());
+        assertThat(Duration.ofNanos(System.nanoTime() - died)).isLessThan(lease.multipliedBy(3));
+    }
+
+    @SneakyThrows
+    private ClusterPauseSignal node(Duration lease) {
+        var advisoryLock = mock(AdvisoryLock.class);
+        when(advisoryLock.metadataFor(any())).thenReturn(Optional.of(METADATA));
+        when(advisoryLock.newIsolatedConnection(any(AdvisoryLock.DatabaseMetadata.class))).thenAnswer(i -> connection());
+
+        var listener = mock(PgNotificationListener.class);
+        when(listener.subscribe(any(), anyString(), any())).thenAnswer(i -> {
+            Consumer<String> subscriber = i.getArgument(2);
+            subscribers.add(subscriber);
+            return (AutoCloseable) () -> subscribers.remove(subscriber);
+        });
+
+        var properties = new LimitAccessConfigProperties();
+        properties.setPauseLease(lease);
+
+        var signal = new ClusterPauseSignal();
+        signal.advisoryLock = advisoryLock;
+        signal.pgNotificationListener = listener;
+        signal.limitAccessConfigProperties = properties;
+        nodes.add(signal);
+        return signal;
+    }
+
+    @SneakyThrows
+    private Connection connection() {
+        var connection = mock(Connection.class);
+        when(connection.prepareStatement(anyString())).thenAnswer(i -> {
+            var statement = mock(PreparedStatement.class);
+            String[] params = new String[2];
+            doAnswer(a -> {
+                params[a.<Integer>getArgument(0) - 1] = a.getArgument(1);
+                return null;
+            }).when(statement).setString(anyInt(), anyString());
+            when(statement.execute()).thenAnswer(a -> {
+                subscribers.forEach(s -> s.accept(params[1]));
+                return true;
+            });
+            return statement;
+        });
+        return connection;
+    }
+
+    @SneakyThrows
+    private static void awaitUntil(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + Duration.ofSeconds(2).toNanos();
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).isLessThan(deadline);
+            Thread.sleep(5);
+        }
+    }
+}
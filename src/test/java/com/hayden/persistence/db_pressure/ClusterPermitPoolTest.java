@@ -0,0 +1,111 @@
+package com.hayden.persistence.db_pressure;
+
+import com.hayden.persistence.lock.AdvisoryLock;
+import com.hayden.utilitymodule.otel.DisableOtelConfiguration;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(classes = LimitAccessAspectTest.TestLimitAccessApplication.class)
+@ActiveProfiles("testjpa")
+@Import(DisableOtelConfiguration.class)
+public class ClusterPermitPoolTest {
+
+    @Autowired
+    private AdvisoryLock advisoryLock;
+
+    private static final ExecutorService EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Two pools with the same name stand in for two nodes - each has its own session, so together they may never
+     * hand out more than the shared budget.
+     */
+    @SneakyThrows
+    @Test
+    public void nodesShareOneBudget() {
+        String name = "cluster-" + UUID.randomUUID();
+        var first = new ClusterPermitPool(advisoryLock, null, name, 4, 2, 2, Duration.ofMillis(10));
+        var second = new ClusterPermitPool(advisoryLock, null, name, 4, 2, 2, Duration.ofMillis(10));
+
+        AtomicInteger inside = new AtomicInteger();
+        AtomicInteger maxInside = new AtomicInteger();
+        List<CompletableFuture<Void>> callers = new ArrayList<>();
+        try {
+            for (int i = 0; i < 40; i++) {
+                var pool = i % 2 == 0 ? first : second;
+                callers.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        pool.acquire();
+                        try {
+                            maxInside.accumulateAndGet(inside.incrementAndGet(), Math::max);
+                            Thread.sleep(5);
+                        } finally {
+                            inside.decrementAndGet();
+                            pool.release();
+                        }
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }, EXECUTOR));
+            }
+            CompletableFuture.allOf(callers.toArray(CompletableFuture[]::new)).join();
+
+            assertThat(maxInside.get()).isBetween(1, 4);
+
+            first.releaseIdle(Duration.ZERO);
+            second.releaseIdle(Duration.ZERO);
+            assertThat(first.availablePermits()).isZero();
+            assertThat(second.availablePermits()).isZero();
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    @SneakyThrows
+    @Test
+    public void closeFailsWaitingAcquirers() {
+        var pool = new ClusterPermitPool(advisoryLock, null, "cluster-" + UUID.randomUUID(), 1, 1, 1, Duration.ofMillis(10));
+        pool.acquire();
+        var waiting = CompletableFuture.runAsync(() -> {
+            try {
+                pool.acquire();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }, EXECUTOR);
+        Thread.sleep(100);
+        assertThat(waiting).isNotDone();
+
+        pool.close();
+
+        assertThatThrownBy(() -> waiting.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(PermitPoolClosedException.class);
+        assertThatThrownBy(() -> pool.tryAcquire(0, TimeUnit.MILLISECONDS))
+                .isInstanceOf(PermitPoolClosedException.class);
+        // the permit still out is released without effect
+        pool.release();
+        assertThat(pool.availablePermits()).isZero();
+    }
+}
@@ -0,0 +1,107 @@
+package com.hayden.persistence.db_pressure;
+
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DatabaseLoadMonitorTest {
+
+    public static class Indexer {
+
+        WaiterCheckpoint waiterCheckpoint;
+
+        @LimitAccess(semaphoreName = "indexing", isWaiter = true)
+        public void index(CountDownLatch started, CountDownLatch batchDone) {
+            started.countDown();
+            await(batchDone);
+            waiterCheckpoint.checkpoint();
+        }
+    }
+
+    private static final ExecutorService EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+    private static final LimitAccessConfigProperties.LoadThresholds THRESHOLDS =
+            new LimitAccessConfigProperties.LoadThresholds(List.of("indexing"), 50, 5, Duration.ofSeconds(10));
+
+    @Test
+    public void anyCrossedThresholdIsOverload() {
+        assertThat(DatabaseLoadMonitor.isOverloaded(THRESHOLDS, new DatabaseLoadMonitor.LoadSample(10, 0, Duration.ZERO))).isFalse();
+        assertThat(DatabaseLoadMonitor.isOverloaded(THRESHOLDS, new DatabaseLoadMonitor.LoadSample(51, 0, Duration.ZERO))).isTrue();
+        assertThat(DatabaseLoadMonitor.isOverloaded(THRESHOLDS, new DatabaseLoadMonitor.LoadSample(10, 6, Duration.ZERO))).isTrue();
+        assertThat(DatabaseLoadMonitor.isOverloaded(THRESHOLDS, new DatabaseLoadMonitor.LoadSample(10, 0, Duration.ofSeconds(11)))).isTrue();
+
+        var unset = new LimitAccessConfigProperties.LoadThresholds(List.of("indexing"), 0, 0, null);
+        assertThat(DatabaseLoadMonitor.isOverloaded(unset, new DatabaseLoadMonitor.LoadSample(1000, 1000, Duration.ofHours(1)))).isFalse();
+    }
+
+    @Test
+    public void overloadPausesWaitersUntilLoadDrops() {
+        var aspect = new LimitAccessAspect();
+        aspect.init();
+        var monitor = new DatabaseLoadMonitor();
+        monitor.limitAccessAspect = aspect;
+
+        monitor.apply("another", THRESHOLDS, new DatabaseLoadMonitor.LoadSample(80, 0, Duration.ZERO));
+        assertThat(aspect.retrievePauseBarrier("indexing").isRemotelyPaused()).isTrue();
+        assertThat(monitor.lastSample("another")).isPresent();
+
+        monitor.apply("another", THRESHOLDS, new DatabaseLoadMonitor.LoadSample(20, 0, Duration.ZERO));
+        assertThat(aspect.retrievePauseBarrier("indexing").isRemotelyPaused()).isFalse();
+        aspect.shutdown();
+    }
+
+    @SneakyThrows
+    @Test
+    public void parkedWaiterGivesItsPermitBack() {
+        var aspect = new LimitAccessAspect();
+        aspect.limitAccessConfigProperties.enable = true;
+        aspect.limitAccessConfigProperties.semaphores.put("indexing",
+                new LimitAccessConfigProperties.Semaphore("indexing", 1));
+        aspect.init();
+        var monitor = new DatabaseLoadMonitor();
+        monitor.limitAccessAspect = aspect;
+
+        var indexer = new Indexer();
+        indexer.waiterCheckpoint = new WaiterCheckpoint();
+        indexer.waiterCheckpoint.limitAccessAspect = aspect;
+        var factory = new AspectJProxyFactory(indexer);
+        factory.setProxyTargetClass(true);
+        factory.addAspect(aspect);
+        Indexer proxy = factory.getProxy();
+        var permits = aspect.semaphoreMap.get("indexing").permits();
+
+        var started = new CountDownLatch(1);
+        var batchDone = new CountDownLatch(1);
+        var waiter = CompletableFuture.runAsync(() -> proxy.index(started, batchDone), EXECUTOR);
+        assertThat(started.await(1, TimeUnit.SECONDS)).isTrue();
+        assertThat(permits.availablePermits()).isZero();
+
+        monitor.apply("another", THRESHOLDS, new DatabaseLoadMonitor.LoadSample(80, 0, Duration.ZERO));
+        batchDone.countDown();
+
+        // parked at its checkpoint without the permit - an interactive caller can take it meanwhile
+        assertThat(permits.tryAcquire(1, TimeUnit.SECONDS)).isTrue();
+        assertThat(waiter).isNotDone();
+        permits.release();
+
+        monitor.apply("another", THRESHOLDS, new DatabaseLoadMonitor.LoadSample(20, 0, Duration.ZERO));
+        waiter.get(1, TimeUnit.SECONDS);
+        assertThat(permits.availablePermits()).isOne();
+        aspect.shutdown();
+    }
+
+    @SneakyThrows
+    private static void await(CountDownLatch latch) {
+        latch.await();
+    }
+}
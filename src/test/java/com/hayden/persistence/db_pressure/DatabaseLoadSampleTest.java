@@ -0,0 +1,77 @@
+package com.hayden.persistence.db_pressure;
+
+import com.hayden.persistence.lock.AdvisoryLock;
+import com.hayden.utilitymodule.otel.DisableOtelConfiguration;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs {@link DatabaseLoadMonitor#SAMPLE_LOAD_SQL} against the testjpa postgres.
+ */
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(classes = LimitAccessAspectTest.TestLimitAccessApplication.class)
+@ActiveProfiles("testjpa")
+@Import(DisableOtelConfiguration.class)
+public class DatabaseLoadSampleTest {
+
+    @Autowired
+    private DatabaseLoadMonitor databaseLoadMonitor;
+
+    @Autowired
+    private AdvisoryLock advisoryLock;
+
+    private static final ExecutorService EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+    @Test
+    public void samplesAPrimaryWithoutStandbys() {
+        var sample = databaseLoadMonitor.sample(null);
+
+        assertThat(sample.activeQueries()).isNotNegative();
+        assertThat(sample.lockWaits()).isNotNegative();
+        assertThat(sample.replicationLag()).isEqualTo(Duration.ZERO);
+    }
+
+    @SneakyThrows
+    @Test
+    public void countsSessionsWaitingOnALock() {
+        int before = databaseLoadMonitor.sample(null).lockWaits();
+        var holder = advisoryLock.acquire("load-sample-lock-wait", AdvisoryLock.LockMode.EXCLUSIVE);
+        // blocks in pg_advisory_lock on its own session until the holder lets go
+        var waiter = CompletableFuture.runAsync(() -> {
+            try {
+                advisoryLock.acquire("load-sample-lock-wait", AdvisoryLock.LockMode.EXCLUSIVE).close();
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }, EXECUTOR);
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            DatabaseLoadMonitor.LoadSample sample;
+            do {
+                Thread.sleep(20);
+                sample = databaseLoadMonitor.sample(null);
+            } while (sample.lockWaits() <= before && System.nanoTime() < deadline);
+
+            assertThat(sample.lockWaits()).isGreaterThan(before);
+            assertThat(sample.activeQueries()).isPositive();
+        } finally {
+            holder.close();
+            waiter.get(5, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.hayden.persistence.db_pressure;
+
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Slf4j
+public class LimitAccessContextTest {
+
+    private static final String PRIORITY = "default";
+
+    @SneakyThrows
+    @Test
+    public void nestedAcquireAndReleaseDoNotAllocate() {
+        var first = new LimitAccessAspect.ReentrantSemaphore("first", new LocalPermitPool(1));
+        var second = new LimitAccessAspect.ReentrantSemaphore("second", new LocalPermitPool(1));
+        var barrier = new PauseBarrier();
+
+        for (int i = 0; i < 200_000; i++) {
+            nested(first, second, barrier);
+        }
+
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < 1_000_000; i++) {
+            nested(first, second, barrier);
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+        log.info("Allocated {} bytes over 1M nested acquire/release rounds", allocated);
+        assertThat(allocated).isLessThan(64 * 1024);
+        assertThat(first.permits().availablePermits()).isEqualTo(1);
+        assertThat(second.permits().availablePermits()).isEqualTo(1);
+    }
+
+    @SneakyThrows
+    @Test
+    public void hundredThousandVirtualThreadsHoldPermitsConcurrently() {
+        int threads = 100_000;
+        var semaphore = new LimitAccessAspect.ReentrantSemaphore("semaphore", new LocalPermitPool(threads));
+        var allInside = new CountDownLatch(threads);
+
+        long start = System.nanoTime();
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Integer>> holders = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++) {
+                holders.add(executor.submit(() -> {
+                    semaphore.acquire(PRIORITY);
+                    semaphore.acquire(PRIORITY);
+                    try {
+                        allInside.countDown();
+                        allInside.await();
+                        return semaphore.holds();
+                    } finally {
+                        semaphore.release(PRIORITY);
+                        semaphore.release(PRIORITY);
+                    }
+                }));
+            }
+            assertThat(allInside.await(60, TimeUnit.SECONDS)).isTrue();
+            for (var holder : holders) {
+                assertThat(holder.get()).isEqualTo(2);
+            }
+        }
+        log.info("{} virtual threads acquired and released nested permits in {} ms",
+                threads, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        assertThat(semaphore.permits().availablePermits()).isEqualTo(threads);
+        assertThat(semaphore.holds()).isZero();
+    }
+
+    @SneakyThrows
+    @Test
+    public void wrappedTasksRunUnderTheParentsPermit() {
+        var semaphore = new LimitAccessAspect.ReentrantSemaphore("semaphore", new LocalPermitPool(1));
+        semaphore.acquire(PRIORITY);
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            var child = executor.submit(LimitAccessContext.wrap(() ->
+                    semaphore.tryAcquire(PRIORITY, 0, TimeUnit.MILLISECONDS) && semaphore.holds() == 2));
+            assertThat(child.get()).isTrue();
+
+            var unwrapped = executor.submit(() -> semaphore.tryAcquire(PRIORITY, 0, TimeUnit.MILLISECONDS));
+            assertThat(unwrapped.get()).isFalse();
+        } finally {
+            semaphore.release(PRIORITY);
+        }
+        assertThat(semaphore.permits().availablePermits()).isEqualTo(1);
+    }
+
+    @SneakyThrows
+    @Test
+    public void heldPriorityIsTheOutermostAcquires() {
+        var semaphore = new LimitAccessAspect.ReentrantSemaphore("semaphore", new LocalPermitPool(1));
+        assertThat(semaphore.heldPriority()).isNull();
+
+        semaphore.acquire("interactive");
+        semaphore.acquire("batch");
+        assertThat(semaphore.heldPriority()).isEqualTo("interactive");
+
+        semaphore.release("batch");
+        semaphore.release("interactive");
+        assertThat(semaphore.heldPriority()).isNull();
+    }
+
+    private static void nested(LimitAccessAspect.ReentrantSemaphore first,
+                               LimitAccessAspect.ReentrantSemaphore second,
+                               PauseBarrier barrier) throws InterruptedException {
+        first.acquire(PRIORITY);
+        second.acquire(PRIORITY);
+        first.acquire(PRIORITY);
+        barrier.checkpointIfPaused();
+        first.release(PRIORITY);
+        second.release(PRIORITY);
+        first.release(PRIORITY);
+    }
+}
@@ -0,0 +1,140 @@
+package com.hayden.persistence.db_pressure;
+
+import com.hayden.utilitymodule.db.DbDataSourceTrigger;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class LimitAccessMetricsTest {
+
+    public static class Target {
+
+        Runnable inCall = () -> {};
+
+        @LimitAccess(semaphoreName = "metered", isWaiter = true)
+        public void waiter() {
+            inCall.run();
+        }
+
+        @LimitAccess(semaphoreName = "metered", isPhaser = true)
+        public void phaser() {
+        }
+
+        @LimitAccess(semaphoreName = "metered", skipIfNotAvailable = true)
+        public void skipped() {
+        }
+
+        @LimitAccess(semaphoreName = "keyed", skipIfNotAvailable = true)
+        public void keyed() {
+            inCall.run();
+        }
+    }
+
+    @Test
+    public void recordsPermitsWaitsPausesAndRejections() {
+        var registry = new SimpleMeterRegistry();
+        var aspect = new LimitAccessAspect();
+        aspect.limitAccessMetrics.meterRegistry = registry;
+        aspect.limitAccessConfigProperties.enable = true;
+        aspect.limitAccessConfigProperties.semaphores.put("metered",
+                new LimitAccessConfigProperties.Semaphore("metered", 1));
+        aspect.init();
+
+        var target = new Target();
+        var factory = new AspectJProxyFactory(target);
+        factory.setProxyTargetClass(true);
+        factory.addAspect(aspect);
+        Target proxy = factory.getProxy();
+
+        AtomicReference<Double> inUseDuringCall = new AtomicReference<>();
+        AtomicReference<Double> waitersDuringCall = new AtomicReference<>();
+        target.inCall = () -> {
+            inUseDuringCall.set(registry.get("limit.access.permits.in_use").tag("semaphore", "metered").gauge().value());
+            waitersDuringCall.set(registry.get("limit.access.pause.waiters").tag("semaphore", "metered").gauge().value());
+            // the only permit is held - a skipping call of another thread is rejected
+            CompletableFuture.runAsync(proxy::skipped).join();
+        };
+        proxy.waiter();
+        proxy.phaser();
+
+        assertThat(inUseDuringCall.get()).isEqualTo(1.0);
+        assertThat(waitersDuringCall.get()).isEqualTo(1.0);
+        assertThat(registry.get("limit.access.permits.in_use").tag("semaphore", "metered").gauge().value()).isZero();
+        assertThat(registry.get("limit.access.permits.limit").tag("semaphore", "metered").gauge().value()).isEqualTo(1.0);
+        assertThat(registry.get("limit.access.permits.available").tag("semaphore", "metered").gauge().value()).isEqualTo(1.0);
+        assertThat(registry.get("limit.access.acquire").tags("semaphore", "metered", "mode", "WAITER").timer().count()).isOne();
+        assertThat(registry.get("limit.access.acquire").tags("semaphore", "metered", "mode", "PHASER").timer().count()).isOne();
+        assertThat(registry.get("limit.access.rejections").tags("semaphore", "metered", "reason", "timeout").counter().count()).isOne();
+        assertThat(registry.get("limit.access.pause.handshake").tag("semaphore", "metered").timer().count()).isOne();
+        assertThat(registry.get("limit.access.pause.depth").tag("semaphore", "metered").gauge().value()).isZero();
+        aspect.shutdown();
+    }
+
+    @Test
+    public void rejectionsAreTaggedLikeThePermitsOfTheirPool() {
+        var registry = new SimpleMeterRegistry();
+        var trigger = mock(DbDataSourceTrigger.class);
+        when(trigger.currentKey()).thenReturn("replica");
+        var aspect = new LimitAccessAspect();
+        aspect.trigger = trigger;
+        aspect.limitAccessMetrics.meterRegistry = registry;
+        aspect.limitAccessConfigProperties.enable = true;
+        aspect.limitAccessConfigProperties.semaphores.put("keyed",
+                LimitAccessConfigProperties.Semaphore.builder().name("keyed").permits(1).perRoutingKey(true).build());
+        aspect.init();
+
+        var target = new Target();
+        Target proxy = proxy(target, aspect);
+        target.inCall = () -> {
+            target.inCall = () -> {};
+            CompletableFuture.runAsync(proxy::keyed).join();
+        };
+        proxy.keyed();
+
+        assertThat(registry.get("limit.access.rejections").tags("semaphore", "keyed@replica", "reason", "timeout").counter().count()).isOne();
+        assertThat(registry.get("limit.access.permits.limit").tag("semaphore", "keyed@replica").gauge().value()).isEqualTo(1.0);
+        assertThat(registry.find("limit.access.rejections").tag("semaphore", "keyed").counter()).isNull();
+        aspect.shutdown();
+    }
+
+    @Test
+    public void permitsOfAReplacedPoolAreReleasedFromItsMeters() {
+        var registry = new SimpleMeterRegistry();
+        var aspect = new LimitAccessAspect();
+        aspect.limitAccessMetrics.meterRegistry = registry;
+        aspect.limitAccessConfigProperties.enable = true;
+        var metered = new LimitAccessConfigProperties.Semaphore("metered", 1);
+        aspect.limitAccessConfigProperties.semaphores.put("metered", metered);
+        aspect.init();
+
+        var target = new Target();
+        Target proxy = proxy(target, aspect);
+        AtomicReference<Double> inUseAfterReplace = new AtomicReference<>();
+        target.inCall = () -> {
+            var next = new LimitAccessConfigProperties();
+            next.semaphores.put("metered", metered.toBuilder().adaptive(true).build());
+            aspect.reconfigure(next);
+            inUseAfterReplace.set(registry.get("limit.access.permits.in_use").tag("semaphore", "metered").gauge().value());
+        };
+        proxy.waiter();
+
+        assertThat(aspect.semaphoreMap.get("metered").permits()).isInstanceOf(AdaptivePermitPool.class);
+        assertThat(inUseAfterReplace.get()).isEqualTo(1.0);
+        assertThat(registry.get("limit.access.permits.in_use").tag("semaphore", "metered").gauge().value()).isZero();
+        aspect.shutdown();
+    }
+
+    private static Target proxy(Target target, LimitAccessAspect aspect) {
+        var factory = new AspectJProxyFactory(target);
+        factory.setProxyTargetClass(true);
+        factory.addAspect(aspect);
+        return factory.getProxy();
+    }
+}
@@ -0,0 +1,84 @@
+package com.hayden.persistence.db_pressure;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Micro benchmark of the uncontended per-call cost the aspect adds on top of a plain proxied call. Not JMH - warm up,
+ * then time a few million calls per variant, take the best of several rounds and compare against a generous bound so
+ * that it stays stable on a loaded build machine. The measured numbers are logged.
+ * <p>
+ * Tagged benchmark - left out of the test task, run with ./gradlew benchmark.
+ */
+@Slf4j
+@Tag("benchmark")
+public class LimitAccessOverheadTest {
+
+    private static final int WARMUP = 2_000_000;
+    private static final int CALLS = 2_000_000;
+    private static final int ROUNDS = 5;
+
+    public static class Target {
+
+        long counter;
+
+        @LimitAccess(semaphoreName = "bench")
+        public long limited() {
+            return ++counter;
+        }
+
+        @LimitAccess
+        public long limitedDefault() {
+            return ++counter;
+        }
+
+        public long plain() {
+            return ++counter;
+        }
+    }
+
+    @Test
+    public void uncontendedOverheadIsNanoseconds() {
+        var aspect = new LimitAccessAspect();
+        aspect.limitAccessConfigProperties.enable = true;
+        aspect.init();
+
+        var factory = new AspectJProxyFactory(new Target());
+        factory.setProxyTargetClass(true);
+        factory.addAspect(aspect);
+        Target proxy = factory.getProxy();
+
+        double plain = bestNanosPerCall(proxy::plain);
+        double named = bestNanosPerCall(proxy::limited);
+        double routing = bestNanosPerCall(proxy::limitedDefault);
+
+        log.info("Plain proxied call {} ns, named semaphore {} ns, routing key semaphore {} ns",
+                plain, named, routing);
+
+        assertThat(aspect.plans).hasSize(2);
+        assertThat(named - plain).isLessThan(1_000);
+        assertThat(routing - plain).isLessThan(1_000);
+        aspect.shutdown();
+    }
+
+    private static double bestNanosPerCall(java.util.function.LongSupplier call) {
+        long sink = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            sink += call.getAsLong();
+        }
+        double best = Double.MAX_VALUE;
+        for (int r = 0; r < ROUNDS; r++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < CALLS; i++) {
+                sink += call.getAsLong();
+            }
+            best = Math.min(best, (double) (System.nanoTime() - start) / CALLS);
+        }
+        assertThat(sink).isPositive();
+        return best;
+    }
+}
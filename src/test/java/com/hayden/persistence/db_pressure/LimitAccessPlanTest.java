@@ -0,0 +1,64 @@
+package com.hayden.persistence.db_pressure;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LimitAccessPlanTest {
+
+    public interface Indexer {
+        String index();
+    }
+
+    public static class FastIndexer implements Indexer {
+
+        @LimitAccess(semaphoreName = "fast")
+        @Override
+        public String index() {
+            return "fast";
+        }
+    }
+
+    public static class SlowIndexer implements Indexer {
+
+        @LimitAccess(semaphoreName = "slow", isWaiter = true)
+        @Override
+        public String index() {
+            return "slow";
+        }
+    }
+
+    @Test
+    public void implementationsBehindOneInterfaceGetTheirOwnPlan() {
+        var aspect = new LimitAccessAspect();
+        aspect.limitAccessConfigProperties.enable = true;
+        aspect.limitAccessConfigProperties.semaphores.put("fast",
+                new LimitAccessConfigProperties.Semaphore("fast", 1));
+        aspect.limitAccessConfigProperties.semaphores.put("slow",
+                new LimitAccessConfigProperties.Semaphore("slow", 1));
+        aspect.init();
+
+        assertThat(proxy(new FastIndexer(), aspect).index()).isEqualTo("fast");
+        assertThat(proxy(new SlowIndexer(), aspect).index()).isEqualTo("slow");
+
+        assertThat(aspect.plans).hasSize(2);
+        assertThat(aspect.plans.get(planKey(FastIndexer.class)).semaphore()).isSameAs(aspect.semaphoreMap.get("fast"));
+        assertThat(aspect.plans.get(planKey(FastIndexer.class)).mode()).isEqualTo(LimitAccessAspect.Mode.DEFAULT);
+        assertThat(aspect.plans.get(planKey(SlowIndexer.class)).semaphore()).isSameAs(aspect.semaphoreMap.get("slow"));
+        assertThat(aspect.plans.get(planKey(SlowIndexer.class)).mode()).isEqualTo(LimitAccessAspect.Mode.WAITER);
+        aspect.shutdown();
+    }
+
+    private static Indexer proxy(Indexer target, LimitAccessAspect aspect) {
+        // an interface proxy - the join point's method is Indexer.index for both implementations
+        var factory = new AspectJProxyFactory(target);
+        factory.setInterfaces(Indexer.class);
+        factory.addAspect(aspect);
+        return factory.getProxy();
+    }
+
+    private static LimitAccessAspect.MethodKey planKey(Class<?> targetClass) throws NoSuchMethodException {
+        return new LimitAccessAspect.MethodKey(targetClass, Indexer.class.getMethod("index"));
+    }
+}
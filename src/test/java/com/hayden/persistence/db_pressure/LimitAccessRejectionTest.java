@@ -0,0 +1,129 @@
+package com.hayden.persistence.db_pressure;
+
+import com.hayden.utilitymodule.otel.DisableOtelConfiguration;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.stereotype.Component;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(classes = LimitAccessAspectTest.TestLimitAccessApplication.class)
+@ActiveProfiles("testjpa")
+@Import(DisableOtelConfiguration.class)
+@TestPropertySource(properties = {
+        "db.enable=true",
+        "db.semaphores.shed.name=shed",
+        "db.semaphores.shed.permits=1"
+})
+public class LimitAccessRejectionTest {
+
+    @Autowired
+    private SheddingService sheddingService;
+
+    private static final ExecutorService EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final CountDownLatch held = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private CompletableFuture<Void> holder;
+
+    @SneakyThrows
+    @BeforeEach
+    public void holdOnlyPermit() {
+        holder = CompletableFuture.runAsync(() -> sheddingService.hold(held, release), EXECUTOR);
+        assertThat(held.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @AfterEach
+    public void releasePermit() {
+        release.countDown();
+        holder.join();
+    }
+
+    @Test
+    public void timedOutCallIsRejected() {
+        assertThatThrownBy(() -> sheddingService.timed())
+                .isInstanceOf(LimitAccessRejectedException.class)
+                .satisfies(e -> assertThat(((LimitAccessRejectedException) e).getSemaphoreName()).isEqualTo("shed"));
+    }
+
+    @Test
+    public void skippedCallReturnsDefault() {
+        assertThat(sheddingService.skipped()).isZero();
+    }
+
+    @Test
+    public void fallbackRunsInsteadOfCall() {
+        assertThat(sheddingService.withFallback("in")).isEqualTo("fallback:in");
+    }
+
+    @Test
+    public void interruptedCallerDoesNotRunWithoutPermit() {
+        Thread.currentThread().interrupt();
+        try {
+            assertThatThrownBy(() -> sheddingService.blocking())
+                    .isInstanceOf(LimitAccessRejectedException.class)
+                    .hasCauseInstanceOf(InterruptedException.class);
+            assertThat(Thread.currentThread().isInterrupted()).isTrue();
+        } finally {
+            Thread.interrupted();
+        }
+        assertThat(sheddingService.blockingRuns).isZero();
+    }
+
+    @Component
+    public static class SheddingService {
+
+        volatile int blockingRuns;
+
+        @LimitAccess(semaphoreName = "shed")
+        public void hold(CountDownLatch held, CountDownLatch release) {
+            held.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @LimitAccess(semaphoreName = "shed", acquireTimeoutMillis = 50)
+        public String timed() {
+            return "ran";
+        }
+
+        @LimitAccess(semaphoreName = "shed", skipIfNotAvailable = true)
+        public int skipped() {
+            return 1;
+        }
+
+        @LimitAccess(semaphoreName = "shed", skipIfNotAvailable = true, fallbackMethod = "fallback")
+        public String withFallback(String in) {
+            return "ran:" + in;
+        }
+
+        String fallback(String in, LimitAccessRejectedException rejected) {
+            return "fallback:" + in;
+        }
+
+        @LimitAccess(semaphoreName = "shed")
+        public void blocking() {
+            blockingRuns++;
+        }
+    }
+}
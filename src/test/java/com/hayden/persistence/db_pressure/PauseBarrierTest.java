@@ -0,0 +1,207 @@
+package com.hayden.persistence.db_pressure;
+
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PauseBarrierTest {
+
+    private static final ExecutorService EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+    @SneakyThrows
+    @Test
+    public void phaserDoesNotWaitPastGraceForBusyWaiter() {
+        var barrier = new PauseBarrier(Duration.ofMillis(50));
+        var inQuery = new CountDownLatch(1);
+        var queryDone = new CountDownLatch(1);
+        var phaserRunning = new CountDownLatch(1);
+        var phaserDone = new CountDownLatch(1);
+
+        var waiter = CompletableFuture.runAsync(() -> {
+            barrier.registerWaiter();
+            try {
+                inQuery.countDown();
+                // a long query - no checkpoint until it returns
+                await(queryDone);
+                barrier.checkpointIfPaused();
+            } finally {
+                barrier.deregisterWaiter();
+            }
+        }, EXECUTOR);
+        assertThat(inQuery.await(1, TimeUnit.SECONDS)).isTrue();
+
+        long start = System.nanoTime();
+        var phaser = CompletableFuture.supplyAsync(() -> barrier.pauseWaitersAndRun(() -> {
+            phaserRunning.countDown();
+            await(phaserDone);
+            return PauseBarrier.ResultOrExc.of("done");
+        }), EXECUTOR);
+
+        assertThat(phaserRunning.await(1, TimeUnit.SECONDS)).isTrue();
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofMillis(500));
+
+        // the straggler parks at its next checkpoint while the phaser runs
+        queryDone.countDown();
+        Thread.sleep(50);
+        assertThat(waiter).isNotDone();
+
+        phaserDone.countDown();
+        assertThat(phaser.get(1, TimeUnit.SECONDS).t()).isEqualTo("done");
+        waiter.get(1, TimeUnit.SECONDS);
+
+        assertThat(barrier.hasCoordinatorDepth()).isFalse();
+        assertThat(barrier.hasWaiterRegistration()).isFalse();
+    }
+
+    @Test
+    public void nestedPhasersAndWaitersOnOneThreadDoNotBlock() {
+        var barrier = new PauseBarrier(Duration.ofSeconds(10));
+
+        barrier.registerWaiter();
+        var result = barrier.pauseWaitersAndRun(() -> {
+            barrier.checkpointIfPaused();
+            return barrier.pauseWaitersAndRun(() -> {
+                barrier.checkpointIfPaused();
+                return PauseBarrier.ResultOrExc.of(1);
+            });
+        });
+        barrier.deregisterWaiter();
+
+        assertThat(result.t()).isEqualTo(1);
+        assertThat(barrier.hasCoordinatorDepth()).isFalse();
+        assertThat(barrier.hasCoordinatorDepthLocal()).isFalse();
+        assertThat(barrier.hasWaiterRegistration()).isFalse();
+    }
+
+    @SneakyThrows
+    @Test
+    public void remotePauseParksWaitersUntilResumed() {
+        var barrier = new PauseBarrier();
+        barrier.pauseRemote("node-b", Duration.ofSeconds(10));
+
+        var waiter = CompletableFuture.runAsync(() -> {
+            barrier.registerWaiter();
+            try {
+                barrier.checkpointIfPaused();
+            } finally {
+                barrier.deregisterWaiter();
+            }
+        }, EXECUTOR);
+
+        Thread.sleep(50);
+        assertThat(waiter).isNotDone();
+
+        barrier.resumeRemote("node-b");
+        waiter.get(1, TimeUnit.SECONDS);
+        assertThat(barrier.isRemotelyPaused()).isFalse();
+    }
+
+    @SneakyThrows
+    @Test
+    public void remotePauseExpiresWithoutRenewal() {
+        var barrier = new PauseBarrier();
+        barrier.pauseRemote("node-b", Duration.ofMillis(100));
+
+        long start = System.nanoTime();
+        CompletableFuture.runAsync(barrier::checkpointIfPaused, EXECUTOR).get(1, TimeUnit.SECONDS);
+
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofMillis(90));
+        assertThat(barrier.isRemotelyPaused()).isFalse();
+    }
+
+    @SneakyThrows
+    @Test
+    public void phaserDoesNotWaitForWaiterRegisteredInTransaction() {
+        var barrier = new PauseBarrier(Duration.ofSeconds(10));
+        var registered = new CountDownLatch(1);
+        var phaserDone = new CountDownLatch(1);
+
+        var waiter = CompletableFuture.runAsync(() -> {
+            TransactionSynchronizationManager.initSynchronization();
+            try {
+                barrier.registerWaiter();
+                try {
+                    registered.countDown();
+                    await(phaserDone);
+                    barrier.checkpointIfPaused();
+                } finally {
+                    barrier.deregisterWaiter();
+                }
+            } finally {
+                TransactionSynchronizationManager.clearSynchronization();
+            }
+        }, EXECUTOR);
+        assertThat(registered.await(1, TimeUnit.SECONDS)).isTrue();
+        assertThat(barrier.hasWaiterRegistration()).isFalse();
+
+        long start = System.nanoTime();
+        var result = barrier.pauseWaitersAndRun(() -> PauseBarrier.ResultOrExc.of("done"));
+        phaserDone.countDown();
+
+        assertThat(result.t()).isEqualTo("done");
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(1));
+        waiter.get(1, TimeUnit.SECONDS);
+        assertThat(barrier.hasWaiterRegistration()).isFalse();
+    }
+
+    @SneakyThrows
+    @Test
+    public void waiterCheckpointingInTransactionReleasesThePhaser() {
+        var barrier = new PauseBarrier(Duration.ofSeconds(10));
+        var registered = new CountDownLatch(1);
+        var inTransaction = new CountDownLatch(1);
+        var phaserRunning = new CountDownLatch(1);
+        var phaserDone = new CountDownLatch(1);
+
+        var waiter = CompletableFuture.runAsync(() -> {
+            barrier.registerWaiter();
+            try {
+                registered.countDown();
+                await(inTransaction);
+                TransactionSynchronizationManager.initSynchronization();
+                try {
+                    // yields instead of parking - and stops counting for the handshake
+                    barrier.checkpointIfPaused();
+                } finally {
+                    TransactionSynchronizationManager.clearSynchronization();
+                }
+                await(phaserDone);
+            } finally {
+                barrier.deregisterWaiter();
+            }
+        }, EXECUTOR);
+        assertThat(registered.await(1, TimeUnit.SECONDS)).isTrue();
+        assertThat(barrier.hasWaiterRegistration()).isTrue();
+
+        var phaser = CompletableFuture.supplyAsync(() -> barrier.pauseWaitersAndRun(() -> {
+            phaserRunning.countDown();
+            await(phaserDone);
+            return PauseBarrier.ResultOrExc.of("done");
+        }), EXECUTOR);
+        Thread.sleep(50);
+        long start = System.nanoTime();
+        inTransaction.countDown();
+
+        assertThat(phaserRunning.await(1, TimeUnit.SECONDS)).isTrue();
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(1));
+
+        phaserDone.countDown();
+        assertThat(phaser.get(1, TimeUnit.SECONDS).t()).isEqualTo("done");
+        waiter.get(1, TimeUnit.SECONDS);
+        assertThat(barrier.hasWaiterRegistration()).isFalse();
+    }
+
+    @SneakyThrows
+    private static void await(CountDownLatch latch) {
+        assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+}
@@ -0,0 +1,67 @@
+package com.hayden.persistence.db_pressure;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PoolAwarePermitPoolTest {
+
+    @Test
+    public void budgetFollowsPoolSizeAndExternalUse() {
+        var dataSource = mock(HikariDataSource.class);
+        var pool = mock(HikariPoolMXBean.class);
+        when(dataSource.getMaximumPoolSize()).thenReturn(10);
+        when(dataSource.getHikariPoolMXBean()).thenReturn(pool);
+
+        var permits = new PoolAwarePermitPool(dataSource, 0.8, Duration.ZERO);
+        assertThat(permits.limit()).isEqualTo(8);
+
+        // three connections used and two awaited outside of the aspect
+        when(pool.getActiveConnections()).thenReturn(3);
+        when(pool.getThreadsAwaitingConnection()).thenReturn(2);
+        assertThat(permits.limit()).isEqualTo(3);
+
+        when(pool.getActiveConnections()).thenReturn(10);
+        assertThat(permits.limit()).isEqualTo(1);
+    }
+
+    @SneakyThrows
+    @Test
+    public void callersQueueUntilThePoolDrains() {
+        var dataSource = mock(HikariDataSource.class);
+        var pool = mock(HikariPoolMXBean.class);
+        when(dataSource.getMaximumPoolSize()).thenReturn(2);
+        when(dataSource.getHikariPoolMXBean()).thenReturn(pool);
+
+        var permits = new PoolAwarePermitPool(dataSource, 1.0, Duration.ofMillis(10));
+        permits.acquire();
+        permits.acquire();
+
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            var third = CompletableFuture.runAsync(() -> {
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }, executor);
+
+            Thread.sleep(50);
+            assertThat(third).isNotDone();
+
+            permits.release();
+            third.get(1, TimeUnit.SECONDS);
+            assertThat(permits.availablePermits()).isZero();
+        }
+    }
+}
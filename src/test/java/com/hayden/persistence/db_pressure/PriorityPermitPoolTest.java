@@ -0,0 +1,91 @@
+package com.hayden.persistence.db_pressure;
+
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PriorityPermitPoolTest {
+
+    private static final ExecutorService EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+    private static final Map<String, LimitAccessConfigProperties.PriorityClass> CLASSES = Map.of(
+            "interactive", new LimitAccessConfigProperties.PriorityClass(10, 0),
+            "batch", new LimitAccessConfigProperties.PriorityClass(0, 0),
+            "maintenance", new LimitAccessConfigProperties.PriorityClass(0, 1));
+
+    @SneakyThrows
+    @Test
+    public void higherClassIsServedFirst() {
+        var pool = new PriorityPermitPool(2, CLASSES, "default", Duration.ofHours(1));
+        pool.acquire("batch");
+
+        List<String> order = new CopyOnWriteArrayList<>();
+        var batch = waitFor(pool, "batch", order);
+        Thread.sleep(20);
+        var interactive = waitFor(pool, "interactive", order);
+        Thread.sleep(20);
+
+        pool.release("batch");
+        interactive.get(1, TimeUnit.SECONDS);
+        assertThat(batch).isNotDone();
+
+        pool.release("interactive");
+        batch.get(1, TimeUnit.SECONDS);
+        assertThat(order).containsExactly("interactive", "batch");
+    }
+
+    @SneakyThrows
+    @Test
+    public void waitingCallersAgePastHigherClasses() {
+        var pool = new PriorityPermitPool(2, CLASSES, "default", Duration.ofMillis(1));
+        pool.acquire("batch");
+
+        List<String> order = new CopyOnWriteArrayList<>();
+        var batch = waitFor(pool, "batch", order);
+        Thread.sleep(50);
+        var interactive = waitFor(pool, "interactive", order);
+        Thread.sleep(5);
+
+        pool.release("batch");
+        batch.get(1, TimeUnit.SECONDS);
+        pool.release("batch");
+        interactive.get(1, TimeUnit.SECONDS);
+        assertThat(order).containsExactly("batch", "interactive");
+    }
+
+    @SneakyThrows
+    @Test
+    public void reservedPermitsAreKeptForTheirClass() {
+        var pool = new PriorityPermitPool(2, CLASSES, "default", Duration.ofMillis(200));
+        assertThat(pool.tryAcquire("interactive", 0, TimeUnit.MILLISECONDS)).isTrue();
+        assertThat(pool.tryAcquire("interactive", 0, TimeUnit.MILLISECONDS)).isFalse();
+        assertThat(pool.tryAcquire("unknown", 0, TimeUnit.MILLISECONDS)).isFalse();
+        assertThat(pool.tryAcquire("maintenance", 0, TimeUnit.MILLISECONDS)).isTrue();
+        assertThat(pool.availablePermits()).isZero();
+
+        pool.release("maintenance");
+        pool.release("interactive");
+        assertThat(pool.availablePermits()).isEqualTo(2);
+    }
+
+    private static CompletableFuture<Void> waitFor(PriorityPermitPool pool, String priority, List<String> order) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                pool.acquire(priority);
+                order.add(priority);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }, EXECUTOR);
+    }
+}
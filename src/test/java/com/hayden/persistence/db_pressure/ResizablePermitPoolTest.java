@@ -0,0 +1,108 @@
+package com.hayden.persistence.db_pressure;
+
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ResizablePermitPoolTest {
+
+    @SneakyThrows
+    @Test
+    public void shrinkingWaitsForHoldersToRelease() {
+        var pool = new LocalPermitPool(4);
+        for (int i = 0; i < 4; i++) {
+            pool.acquire();
+        }
+
+        pool.resize(2);
+        assertThat(pool.limit()).isEqualTo(2);
+        assertThat(pool.availablePermits()).isZero();
+
+        // two releases only pay back the reduction
+        pool.release();
+        pool.release();
+        assertThat(pool.tryAcquire(0, TimeUnit.MILLISECONDS)).isFalse();
+
+        pool.release();
+        assertThat(pool.tryAcquire(0, TimeUnit.MILLISECONDS)).isTrue();
+
+        pool.resize(5);
+        assertThat(pool.availablePermits()).isEqualTo(3);
+    }
+
+    @SneakyThrows
+    @Test
+    public void priorityPoolResizesSharedPermits() {
+        var pool = new PriorityPermitPool(3,
+                Map.of("interactive", new LimitAccessConfigProperties.PriorityClass(10, 1)),
+                "default", Duration.ofMillis(200));
+
+        pool.resize(5);
+        assertThat(pool.limit()).isEqualTo(5);
+        for (int i = 0; i < 4; i++) {
+            assertThat(pool.tryAcquire("default", 0, TimeUnit.MILLISECONDS)).isTrue();
+        }
+        assertThat(pool.tryAcquire("default", 0, TimeUnit.MILLISECONDS)).isFalse();
+        assertThat(pool.tryAcquire("interactive", 0, TimeUnit.MILLISECONDS)).isTrue();
+    }
+
+    @Test
+    public void reconfigureResizesRunningSemaphoresInPlace() {
+        var aspect = new LimitAccessAspect();
+        aspect.limitAccessConfigProperties.semaphores.put("resized", semaphore("resized", 2, false));
+        aspect.limitAccessConfigProperties.semaphores.put("replaced", semaphore("replaced", 2, false));
+        aspect.limitAccessConfigProperties.semaphores.put("removed", semaphore("removed", 2, false));
+        aspect.init();
+        var resized = aspect.semaphoreMap.get("resized");
+
+        var next = new LimitAccessConfigProperties();
+        next.semaphores.put("resized", semaphore("resized", 6, false));
+        next.semaphores.put("replaced", semaphore("replaced", 2, true));
+        aspect.reconfigure(next);
+
+        assertThat(aspect.semaphoreMap.get("resized")).isSameAs(resized);
+        assertThat(resized.permits().limit()).isEqualTo(6);
+        assertThat(aspect.semaphoreMap.get("replaced").permits()).isInstanceOf(AdaptivePermitPool.class);
+        assertThat(aspect.semaphoreMap).doesNotContainKey("removed");
+        assertThat(aspect.limitAccessConfigProperties.semaphores).containsOnlyKeys("resized", "replaced");
+        aspect.shutdown();
+    }
+
+    @Test
+    public void invalidReconfigureChangesNothing() {
+        var aspect = new LimitAccessAspect();
+        aspect.limitAccessConfigProperties.priorityClasses.put("interactive", new LimitAccessConfigProperties.PriorityClass(10, 2));
+        var prioritized = LimitAccessConfigProperties.Semaphore.builder().name("prioritized").permits(4).prioritized(true).build();
+        aspect.limitAccessConfigProperties.semaphores.put("prioritized", prioritized);
+        aspect.limitAccessConfigProperties.semaphores.put("resized", semaphore("resized", 2, false));
+        aspect.init();
+        var running = Map.copyOf(aspect.semaphoreMap);
+
+        var next = new LimitAccessConfigProperties();
+        next.priorityClasses.putAll(aspect.limitAccessConfigProperties.priorityClasses);
+        // below the permits the interactive class reserves
+        next.semaphores.put("prioritized", prioritized.toBuilder().permits(1).build());
+        next.semaphores.put("resized", semaphore("resized", 6, false));
+        next.maxAccess = 3;
+
+        assertThatThrownBy(() -> aspect.reconfigure(next)).isInstanceOf(IllegalArgumentException.class);
+        assertThat(aspect.semaphoreMap).isEqualTo(running);
+        assertThat(running.get("prioritized").permits().limit()).isEqualTo(4);
+        assertThat(running.get("resized").permits().limit()).isEqualTo(2);
+        assertThat(aspect.limitAccessConfigProperties.semaphores)
+                .containsEntry("prioritized", prioritized)
+                .containsEntry("resized", semaphore("resized", 2, false));
+        assertThat(aspect.limitAccessConfigProperties.maxAccess).isEqualTo(170);
+        aspect.shutdown();
+    }
+
+    private static LimitAccessConfigProperties.Semaphore semaphore(String name, int permits, boolean adaptive) {
+        return LimitAccessConfigProperties.Semaphore.builder().name(name).permits(permits).adaptive(adaptive).build();
+    }
+}
@@ -0,0 +1,83 @@
+package com.hayden.persistence.db_pressure;
+
+import com.hayden.utilitymodule.db.DbDataSourceTrigger;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RoutingKeySemaphoreTest {
+
+    public static class Target {
+
+        @LimitAccess(semaphoreName = "bulk")
+        public void bulk() {
+        }
+    }
+
+    @SneakyThrows
+    @Test
+    public void namedSemaphoreIsPartitionedByRoutingKey() {
+        var trigger = mock(DbDataSourceTrigger.class);
+        var aspect = new LimitAccessAspect();
+        aspect.trigger = trigger;
+        aspect.limitAccessConfigProperties.semaphores.put("bulk", LimitAccessConfigProperties.Semaphore.builder()
+                .name("bulk")
+                .permits(1)
+                .perRoutingKey(true)
+                .routingKeyPermits(Map.of("cdc-subscriber", 2))
+                .build());
+        aspect.init();
+        var limitAccess = Target.class.getMethod("bulk").getAnnotation(LimitAccess.class);
+
+        when(trigger.currentKey()).thenReturn("another");
+        var another = aspect.retrieveSemaphore(limitAccess);
+        when(trigger.currentKey()).thenReturn("cdc-subscriber");
+        var cdc = aspect.retrieveSemaphore(limitAccess);
+
+        assertThat(another).isNotSameAs(cdc);
+        assertThat(another.permits().limit()).isEqualTo(1);
+        assertThat(cdc.permits().limit()).isEqualTo(2);
+        assertThat(aspect.semaphoreMap).containsOnlyKeys("bulk@another", "bulk@cdc-subscriber");
+
+        // a saturated database does not take the permits of another
+        assertThat(another.permits().tryAcquire(0, TimeUnit.MILLISECONDS)).isTrue();
+        assertThat(another.permits().tryAcquire(0, TimeUnit.MILLISECONDS)).isFalse();
+        assertThat(cdc.permits().tryAcquire(0, TimeUnit.MILLISECONDS)).isTrue();
+
+        // reconfiguring resizes each key's pool from its own permits
+        var next = new LimitAccessConfigProperties();
+        next.semaphores.put("bulk", LimitAccessConfigProperties.Semaphore.builder()
+                .name("bulk")
+                .permits(3)
+                .perRoutingKey(true)
+                .routingKeyPermits(Map.of("cdc-subscriber", 2))
+                .build());
+        aspect.reconfigure(next);
+        assertThat(another.permits().limit()).isEqualTo(3);
+        assertThat(cdc.permits().limit()).isEqualTo(2);
+        aspect.shutdown();
+    }
+
+    @Test
+    public void routingKeyPoolsKeepAnExplicitMaxPermits() {
+        var following = LimitAccessConfigProperties.Semaphore.builder()
+                .name("adaptive")
+                .permits(4)
+                .adaptive(true)
+                .perRoutingKey(true)
+                .routingKeyPermits(Map.of("replica", 8))
+                .build();
+        assertThat(following.forRoutingKey("replica").adaptiveMaxPermits()).isEqualTo(8);
+
+        // set to the base permits on purpose - the key's pool is still capped there
+        var capped = following.toBuilder().maxPermits(4).build();
+        assertThat(capped.forRoutingKey("replica").permits()).isEqualTo(8);
+        assertThat(capped.forRoutingKey("replica").adaptiveMaxPermits()).isEqualTo(4);
+    }
+}
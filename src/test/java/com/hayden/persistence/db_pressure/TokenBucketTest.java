@@ -0,0 +1,128 @@
+package com.hayden.persistence.db_pressure;
+
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TokenBucketTest {
+
+    private static final ExecutorService EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+    public static class Target {
+
+        final AtomicInteger calls = new AtomicInteger();
+
+        @LimitAccess(semaphoreName = "rated", rateLimiter = "queries", skipIfNotAvailable = true)
+        public int query() {
+            return calls.incrementAndGet();
+        }
+
+        @LimitAccess(semaphoreName = "rated", rateLimiter = "queries", acquireTimeoutMillis = 0)
+        public int strictQuery() {
+            return calls.incrementAndGet();
+        }
+    }
+
+    @SneakyThrows
+    @Test
+    public void interruptedWaiterGivesItsSlotBack() {
+        var bucket = new TokenBucket(1, 1);
+        assertThat(bucket.tryAcquire()).isTrue();
+
+        var waiterThread = new CompletableFuture<Thread>();
+        var waiter = CompletableFuture.runAsync(() -> {
+            waiterThread.complete(Thread.currentThread());
+            acquire(bucket);
+        }, EXECUTOR);
+        // parked on the slot it reserved a second out
+        var thread = waiterThread.get(1, TimeUnit.SECONDS);
+        while (thread.getState() != Thread.State.TIMED_WAITING)
+            Thread.sleep(1);
+        thread.interrupt();
+        assertThatThrownBy(() -> waiter.get(1, TimeUnit.SECONDS)).hasCauseInstanceOf(InterruptedException.class);
+
+        // the next caller gets the slot the waiter gave up, not the one after it
+        assertThat(bucket.reserve(Long.MAX_VALUE)).isLessThanOrEqualTo(TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    public void burstGoesAtOnceThenSheds() {
+        var bucket = new TokenBucket(1, 5);
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(bucket.tryAcquire()).isTrue();
+        }
+        assertThat(bucket.tryAcquire()).isFalse();
+    }
+
+    @SneakyThrows
+    @Test
+    public void blockedCallersAreSpacedByTheRate() {
+        var bucket = new TokenBucket(100, 1);
+        assertThat(bucket.tryAcquire()).isTrue();
+
+        long start = System.nanoTime();
+        var callers = new ArrayList<CompletableFuture<Void>>();
+        for (int i = 0; i < 20; i++) {
+            callers.add(CompletableFuture.runAsync(() -> acquire(bucket), EXECUTOR));
+        }
+        CompletableFuture.allOf(callers.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+
+        // 20 tokens at 100 per second
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofMillis(180));
+    }
+
+    @SneakyThrows
+    @Test
+    public void timedAcquireDoesNotReserveWhenTooFarOut() {
+        var bucket = new TokenBucket(1, 1);
+        assertThat(bucket.tryAcquire()).isTrue();
+
+        assertThat(bucket.tryAcquire(10, TimeUnit.MILLISECONDS)).isFalse();
+        // the refused caller did not push the next slot out
+        assertThat(bucket.reserve(Long.MAX_VALUE)).isLessThanOrEqualTo(TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    public void aspectShedsCallsOverTheRateAndKeepsPermits() {
+        var aspect = new LimitAccessAspect();
+        aspect.limitAccessConfigProperties.enable = true;
+        aspect.limitAccessConfigProperties.semaphores.put("rated",
+                new LimitAccessConfigProperties.Semaphore("rated", 2));
+        aspect.limitAccessConfigProperties.rateLimits.put("queries",
+                new LimitAccessConfigProperties.RateLimit(1, 3, false));
+        aspect.init();
+
+        var target = new Target();
+        var factory = new AspectJProxyFactory(target);
+        factory.setProxyTargetClass(true);
+        factory.addAspect(aspect);
+        Target proxy = factory.getProxy();
+
+        for (int i = 0; i < 10; i++) {
+            proxy.query();
+        }
+        assertThat(target.calls.get()).isEqualTo(3);
+        assertThatThrownBy(proxy::strictQuery)
+                .isInstanceOf(LimitAccessRejectedException.class)
+                .extracting("semaphoreName").isEqualTo("queries");
+        assertThat(aspect.semaphoreMap.get("rated").permits().availablePermits()).isEqualTo(2);
+        aspect.shutdown();
+    }
+
+    @SneakyThrows
+    private static void acquire(TokenBucket bucket) {
+        bucket.acquire();
+    }
+}
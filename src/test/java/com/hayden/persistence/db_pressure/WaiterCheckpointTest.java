@@ -0,0 +1,224 @@
+package com.hayden.persistence.db_pressure;
+
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class WaiterCheckpointTest {
+
+    private static final ExecutorService EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+    @SneakyThrows
+    @Test
+    public void iteratorParksWaiterWithinOneBatchOfItems() {
+        var barrier = new PauseBarrier(Duration.ofSeconds(5));
+        var checkpoint = checkpoint("waiter", barrier);
+        var processed = new AtomicInteger();
+        var phaserRunning = new CountDownLatch(1);
+        var phaserDone = new CountDownLatch(1);
+
+        var waiter = CompletableFuture.runAsync(() -> {
+            barrier.registerWaiter();
+            try {
+                Iterator<Integer> items = checkpoint.checkpointing(IntStream.range(0, 1_000).iterator(), 10);
+                while (items.hasNext()) {
+                    items.next();
+                    processed.incrementAndGet();
+                    sleep(1);
+                }
+            } finally {
+                barrier.deregisterWaiter();
+            }
+        }, EXECUTOR);
+
+        var phaser = CompletableFuture.runAsync(() -> barrier.pauseWaitersAndRun(() -> {
+            phaserRunning.countDown();
+            await(phaserDone);
+            return PauseBarrier.ResultOrExc.of(null);
+        }), EXECUTOR);
+
+        // the waiter acknowledged at a checkpoint well before the grace period ran out
+        assertThat(phaserRunning.await(1, TimeUnit.SECONDS)).isTrue();
+        int atPause = processed.get();
+        Thread.sleep(50);
+        assertThat(processed.get()).isEqualTo(atPause);
+        assertThat(atPause).isLessThan(1_000);
+
+        phaserDone.countDown();
+        phaser.get(1, TimeUnit.SECONDS);
+        waiter.get(5, TimeUnit.SECONDS);
+        assertThat(processed.get()).isEqualTo(1_000);
+    }
+
+    @Test
+    public void checkpointIgnoresBarriersThreadIsNotWaiterOf() {
+        var barrier = new PauseBarrier();
+        var checkpoint = checkpoint("waiter", barrier);
+
+        barrier.pauseWaitersAndRun(() -> {
+            // coordinator thread, not a waiter - never parks
+            checkpoint.checkpoint();
+            return PauseBarrier.ResultOrExc.of(null);
+        });
+
+        assertThat(barrier.isWaiterThread()).isFalse();
+    }
+
+    @Test
+    public void streamCheckpointsEveryNItems() {
+        var checkpoint = spy(checkpoint("waiter", new PauseBarrier()));
+
+        List<Integer> seen = checkpoint.checkpointing(IntStream.range(0, 25).boxed(), 5).toList();
+
+        assertThat(seen).hasSize(25);
+        verify(checkpoint, times(5)).checkpoint();
+    }
+
+    @Test
+    public void streamCheckpointsWhenTheTerminalOperationKnowsTheSize() {
+        var checkpoint = spy(checkpoint("waiter", new PauseBarrier()));
+
+        // count() of a sized stream never visits a peek
+        long count = checkpoint.checkpointing(IntStream.range(0, 25).boxed(), 5).count();
+
+        assertThat(count).isEqualTo(25);
+        verify(checkpoint, times(5)).checkpoint();
+    }
+
+    @Test
+    public void parallelStreamCheckpointsOnTheWaitersThread() {
+        var checkpoint = spy(checkpoint("waiter", new PauseBarrier()));
+        var threads = ConcurrentHashMap.<Thread>newKeySet();
+
+        checkpoint.checkpointing(IntStream.range(0, 1_000).boxed().parallel(), 10)
+                .forEach(i -> threads.add(Thread.currentThread()));
+
+        assertThat(threads).containsExactly(Thread.currentThread());
+        verify(checkpoint, times(100)).checkpoint();
+    }
+
+    @Test
+    public void chunkedExecutorRunsEveryItemOnce() {
+        var executor = new ChunkedWaiterExecutor();
+        executor.waiterCheckpoint = checkpoint("waiter", new PauseBarrier());
+        List<List<Integer>> chunks = new ArrayList<>();
+
+        int count = executor.executeInChunks(IntStream.range(0, 10).boxed().toList(), 4, chunks::add);
+
+        assertThat(count).isEqualTo(3);
+        assertThat(chunks).containsExactly(List.of(0, 1, 2, 3), List.of(4, 5, 6, 7), List.of(8, 9));
+    }
+
+    @Test
+    public void chunkedExecutorCommitsOncePerChunk() {
+        var transactionManager = transactionManager();
+        var executor = new ChunkedWaiterExecutor();
+        executor.waiterCheckpoint = checkpoint("waiter", new PauseBarrier());
+        executor.transactionManager = transactionManager;
+
+        int count = executor.executeInChunks(IntStream.range(0, 10).boxed().toList(), 4, chunk -> {});
+
+        assertThat(count).isEqualTo(3);
+        verify(transactionManager, times(3)).getTransaction(any());
+        verify(transactionManager, times(3)).commit(any());
+        verify(transactionManager, never()).rollback(any());
+    }
+
+    @SneakyThrows
+    @Test
+    public void chunkedExecutorParksBetweenChunksWhilePhaserRuns() {
+        var barrier = new PauseBarrier(Duration.ofSeconds(5));
+        var transactionManager = transactionManager();
+        var executor = new ChunkedWaiterExecutor();
+        executor.waiterCheckpoint = checkpoint("waiter", barrier);
+        executor.transactionManager = transactionManager;
+        var chunksRun = new AtomicInteger();
+        var inFirstChunk = new CountDownLatch(1);
+        var phaserDone = new CountDownLatch(1);
+
+        var waiter = CompletableFuture.runAsync(() -> {
+            barrier.registerWaiter();
+            try {
+                executor.executeInChunks(IntStream.range(0, 9).boxed().toList(), 3, chunk -> {
+                    if (chunksRun.getAndIncrement() == 0) {
+                        inFirstChunk.countDown();
+                        // finish the chunk only once the phaser has published its pause
+                        while (barrier.activePhasers() == 0)
+                            sleep(1);
+                    }
+                });
+            } finally {
+                barrier.deregisterWaiter();
+            }
+        }, EXECUTOR);
+        assertThat(inFirstChunk.await(1, TimeUnit.SECONDS)).isTrue();
+
+        long start = System.nanoTime();
+        var phaser = CompletableFuture.supplyAsync(() -> barrier.pauseWaitersAndRun(() -> {
+            // the waiter committed its first chunk and parked before starting the second
+            verify(transactionManager, times(1)).commit(any());
+            sleep(50);
+            int runWhilePaused = chunksRun.get();
+            phaserDone.countDown();
+            return PauseBarrier.ResultOrExc.of(runWhilePaused);
+        }), EXECUTOR);
+
+        var result = phaser.get(2, TimeUnit.SECONDS);
+        assertThat(result.isErr()).isFalse();
+        assertThat(result.t()).isEqualTo(1);
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(1));
+
+        waiter.get(5, TimeUnit.SECONDS);
+        assertThat(chunksRun.get()).isEqualTo(3);
+        verify(transactionManager, times(3)).commit(any());
+    }
+
+    private static PlatformTransactionManager transactionManager() {
+        var transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenAnswer(i -> new SimpleTransactionStatus());
+        return transactionManager;
+    }
+
+    private static WaiterCheckpoint checkpoint(String name, PauseBarrier barrier) {
+        var aspect = new LimitAccessAspect();
+        aspect.semaphoreMap = new ConcurrentHashMap<>();
+        aspect.pauseBarrierMap = new ConcurrentHashMap<>();
+        aspect.pauseBarrierMap.put(name, barrier);
+        var checkpoint = new WaiterCheckpoint();
+        checkpoint.limitAccessAspect = aspect;
+        return checkpoint;
+    }
+
+    @SneakyThrows
+    private static void await(CountDownLatch latch) {
+        latch.await();
+    }
+
+    @SneakyThrows
+    private static void sleep(long millis) {
+        Thread.sleep(millis);
+    }
+}
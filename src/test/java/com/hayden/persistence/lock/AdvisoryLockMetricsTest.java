@@ -0,0 +1,68 @@
+package com.hayden.persistence.lock;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AdvisoryLockMetricsTest {
+
+    @Test
+    public void waitersAreCountedPerKey() {
+        var metrics = metrics(500);
+
+        long start = metrics.waiting("orders", new long[]{1, 2});
+        metrics.waiting("orders", new long[]{2});
+
+        assertThat(waiters(metrics, "orders", "1")).isEqualTo(1);
+        assertThat(waiters(metrics, "orders", "2")).isEqualTo(2);
+
+        metrics.acquired("orders", new long[]{1, 2}, AdvisoryLock.LockMode.EXCLUSIVE, start);
+        assertThat(waiters(metrics, "orders", "1")).isZero();
+        assertThat(waiters(metrics, "orders", "2")).isEqualTo(1);
+
+        metrics.abandoned("orders", new long[]{2});
+        assertThat(waiters(metrics, "orders", "2")).isZero();
+    }
+
+    @Test
+    public void keysPastTheBoundShareOneGauge() {
+        var metrics = metrics(1);
+
+        metrics.waiting("orders", new long[]{1});
+        metrics.waiting("orders", new long[]{2});
+        metrics.waiting("orders", new long[]{3});
+
+        assertThat(waiters(metrics, "orders", "1")).isEqualTo(1);
+        assertThat(waiters(metrics, "orders", AdvisoryLockMetrics.OTHER_LOCK_NAME)).isEqualTo(2);
+    }
+
+    @Test
+    public void timersAreRegisteredOncePerLockAndMode() {
+        var metrics = metrics(500);
+
+        for (int i = 0; i < 3; i++) {
+            long start = metrics.waiting("orders", new long[]{1});
+            metrics.acquired("orders", new long[]{1}, AdvisoryLock.LockMode.SHARED, start);
+            metrics.released("orders", AdvisoryLock.LockMode.SHARED, 1_000);
+        }
+
+        var acquire = metrics.meterRegistry.get("advisory.lock.acquire").tags("lock", "orders").timers();
+        assertThat(acquire).hasSize(AdvisoryLock.LockMode.values().length);
+        assertThat(metrics.meterRegistry.get("advisory.lock.acquire").tags("lock", "orders", "mode", "SHARED")
+                .timer().count()).isEqualTo(3);
+        assertThat(metrics.meterRegistry.get("advisory.lock.held").tags("lock", "orders", "mode", "SHARED")
+                .timer().count()).isEqualTo(3);
+    }
+
+    private static AdvisoryLockMetrics metrics(int maxTaggedLocks) {
+        var metrics = new AdvisoryLockMetrics();
+        metrics.meterRegistry = new SimpleMeterRegistry();
+        metrics.advisoryLockConfigProperties.maxTaggedLocks = maxTaggedLocks;
+        return metrics;
+    }
+
+    private static double waiters(AdvisoryLockMetrics metrics, String lock, String key) {
+        return metrics.meterRegistry.get("advisory.lock.waiters").tags("lock", lock, "key", key).gauge().value();
+    }
+}
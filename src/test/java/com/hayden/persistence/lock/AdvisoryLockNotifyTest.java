@@ -0,0 +1,120 @@
+package com.hayden.persistence.lock;
+
+import com.hayden.utilitymodule.otel.DisableOtelConfiguration;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * NOTIFY wait strategy against the testjpa postgres. The recheck interval is long enough that a waiter getting in
+ * quickly can only have been woken by the holder's release.
+ */
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(classes = AdvisoryLockTest.TestAdvisoryLockApplication.class)
+@ActiveProfiles("testjpa")
+@Import(DisableOtelConfiguration.class)
+@TestPropertySource(properties = {
+        "db.advisory.wait-strategy=NOTIFY",
+        "db.advisory.notify-recheck-interval=4s"
+})
+public class AdvisoryLockNotifyTest {
+
+    private static final String COUNT_WAITING_SQL = """
+                SELECT count(*) FROM pg_locks WHERE locktype = 'advisory' AND NOT granted;
+            """;
+
+    private static final String COUNT_BACKENDS_SQL = """
+                SELECT count(*) FROM pg_stat_activity WHERE backend_type = 'client backend';
+            """;
+
+    @Autowired
+    private AdvisoryLock advisoryLock;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private static final ExecutorService EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+    @SneakyThrows
+    @Test
+    public void parkedWaitersHoldNoBackend() {
+        int waiters = 5;
+        try (var holder = advisoryLock.acquire("notify-parked", AdvisoryLock.LockMode.EXCLUSIVE)) {
+            int backendsBefore = countBackends();
+
+            var waiting = IntStream.range(0, waiters)
+                    .mapToObj(i -> acquireAndClose("notify-parked"))
+                    .toArray(CompletableFuture[]::new);
+            Thread.sleep(500);
+
+            assertThat(jdbcTemplate.queryForObject(COUNT_WAITING_SQL, Integer.class)).isZero();
+            // at most the shared LISTEN session was added - none of the parked waiters keeps a backend.
+            assertThat(countBackends() - backendsBefore).isLessThan(waiters);
+            assertThat(waiting).noneMatch(CompletableFuture::isDone);
+
+            holder.close();
+            CompletableFuture.allOf(waiting).get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @SneakyThrows
+    @Test
+    public void waiterGetsTheLockOnTheHoldersNotify() {
+        var holder = advisoryLock.acquire("notify-handoff", AdvisoryLock.LockMode.EXCLUSIVE);
+        var waiting = acquireAndClose("notify-handoff");
+        Thread.sleep(200);
+        assertThat(waiting).isNotDone();
+
+        long released = System.nanoTime();
+        holder.close();
+        waiting.get(10, TimeUnit.SECONDS);
+
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - released)).isLessThan(1500);
+    }
+
+    @SneakyThrows
+    @Test
+    public void recheckRecoversWhenTheHoldersSessionDies() {
+        var holder = advisoryLock.acquire("notify-dead-holder", AdvisoryLock.LockMode.EXCLUSIVE);
+        int pid = holder.jdbcTemplate().queryForObject("SELECT pg_backend_pid();", Integer.class);
+        var waiting = acquireAndClose("notify-dead-holder");
+        Thread.sleep(200);
+        assertThat(waiting).isNotDone();
+
+        // postgres drops the lock with the session without anyone announcing it - only the recheck can notice.
+        // The holder lease is not closed, its unlock would only be retried against the dead session.
+        jdbcTemplate.queryForObject("SELECT pg_terminate_backend(?);", Boolean.class, pid);
+
+        waiting.get(10, TimeUnit.SECONDS);
+    }
+
+    private CompletableFuture<Void> acquireAndClose(String sessionId) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                advisoryLock.acquire(sessionId, AdvisoryLock.LockMode.EXCLUSIVE).close();
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }, EXECUTOR);
+    }
+
+    private int countBackends() {
+        return jdbcTemplate.queryForObject(COUNT_BACKENDS_SQL, Integer.class);
+    }
+}
@@ -0,0 +1,70 @@
+package com.hayden.persistence.lock;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Releases are delivered straight to the subscriber of each database, as the LISTEN session would.
+ */
+public class AdvisoryLockReleaseListenerTest {
+
+    private static final AdvisoryLock.DatabaseMetadata FIRST =
+            new AdvisoryLock.DatabaseMetadata("postgres", "postgres", "jdbc:postgresql://localhost:5489/first");
+    private static final AdvisoryLock.DatabaseMetadata SECOND =
+            new AdvisoryLock.DatabaseMetadata("postgres", "postgres", "jdbc:postgresql://localhost:5489/second");
+
+    private final Map<AdvisoryLock.DatabaseMetadata, Consumer<String>> subscribers = new HashMap<>();
+
+    @Test
+    public void releaseOnlyWakesWaitersOfItsDatabase() {
+        var listener = listener();
+        var onSecond = listener.awaitRelease(SECOND, new long[]{42});
+        var onFirst = listener.awaitRelease(FIRST, new long[]{42});
+
+        subscribers.get(FIRST).accept("42");
+
+        assertThat(onFirst).isDone();
+        assertThat(onSecond).isNotDone();
+    }
+
+    @Test
+    public void passedOnReleaseOnlyWakesWaitersThatWereWaitingForIt() {
+        var listener = listener();
+        // waits for 1 and 2 - woken for 1 while 2 is still held
+        var multiKey = listener.awaitRelease(FIRST, new long[]{1, 2});
+        var singleKey = listener.awaitRelease(FIRST, new long[]{1});
+
+        subscribers.get(FIRST).accept("1");
+        assertThat(multiKey).isDone();
+        assertThat(singleKey).isNotDone();
+
+        var release = multiKey.join();
+        var multiKeyAgain = listener.awaitRelease(FIRST, new long[]{1, 2});
+        listener.passOn(release);
+        assertThat(singleKey).isDone();
+
+        // the single key waiter fails too - the chain ends instead of waking the multi key waiter again
+        listener.passOn(singleKey.join());
+        assertThat(multiKeyAgain).isNotDone();
+    }
+
+    private AdvisoryLockReleaseListener listener() {
+        var pgNotificationListener = mock(PgNotificationListener.class);
+        when(pgNotificationListener.subscribe(any(), anyString(), any())).thenAnswer(i -> {
+            subscribers.put(i.getArgument(0), i.getArgument(2));
+            return (AutoCloseable) () -> {};
+        });
+        var listener = new AdvisoryLockReleaseListener();
+        listener.pgNotificationListener = pgNotificationListener;
+        return listener;
+    }
+}
@@ -0,0 +1,227 @@
+package com.hayden.persistence.lock;
+
+import com.hayden.utilitymodule.otel.DisableOtelConfiguration;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@Slf4j
+@ExtendWith(SpringExtension.class)
+@SpringBootTest
+@ActiveProfiles("testjpa")
+@Import(DisableOtelConfiguration.class)
+public class AdvisoryLockTest {
+
+    @Autowired
+    private AdvisoryLock advisoryLock;
+
+    private static final ExecutorService EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+    @SpringBootApplication(exclude = org.springframework.boot.actuate.autoconfigure.metrics.export.otlp.OtlpMetricsExportAutoConfiguration.class)
+    @ComponentScan("com.hayden.persistence")
+    @Import(DisableOtelConfiguration.class)
+    public static class TestAdvisoryLockApplication {
+        static void main(String[] args) {
+            SpringApplication.run(TestAdvisoryLockApplication.class, args);
+        }
+    }
+
+    @Test
+    public void lockKeyIsStableAndDistinct() {
+        assertThat(AdvisoryLock.lockKey("session-one")).isEqualTo(AdvisoryLock.lockKey("session-one"));
+        assertThat(AdvisoryLock.lockKey("session-one")).isNotEqualTo(AdvisoryLock.lockKey("session-two"));
+        assertThat(AdvisoryLock.lockKey("")).isNotZero();
+    }
+
+    @SneakyThrows
+    @Test
+    public void exclusiveLockSerializesHolders() {
+        AtomicInteger inside = new AtomicInteger(0);
+        AtomicInteger maxInside = new AtomicInteger(0);
+
+        var futures = IntStream.range(0, 5)
+                .mapToObj(i -> CompletableFuture.runAsync(() -> advisoryLock.doWithAdvisoryLock(() -> {
+                    maxInside.accumulateAndGet(inside.incrementAndGet(), Math::max);
+                    Thread.sleep(50);
+                    inside.decrementAndGet();
+                    return i;
+                }, "exclusive-test"), EXECUTOR))
+                .toArray(CompletableFuture[]::new);
+
+        CompletableFuture.allOf(futures).join();
+
+        assertThat(maxInside.get()).isEqualTo(1);
+    }
+
+    @SneakyThrows
+    @Test
+    public void sharedLockAdmitsConcurrentReaders() {
+        AtomicInteger inside = new AtomicInteger(0);
+        AtomicInteger maxInside = new AtomicInteger(0);
+        CountDownLatch allInside = new CountDownLatch(3);
+
+        var futures = IntStream.range(0, 3)
+                .mapToObj(i -> CompletableFuture.runAsync(() -> advisoryLock.doWithSharedAdvisoryLock(() -> {
+                    maxInside.accumulateAndGet(inside.incrementAndGet(), Math::max);
+                    allInside.countDown();
+                    allInside.await(5, TimeUnit.SECONDS);
+                    inside.decrementAndGet();
+                    return i;
+                }, "shared-test"), EXECUTOR))
+                .toArray(CompletableFuture[]::new);
+
+        CompletableFuture.allOf(futures).join();
+
+        assertThat(maxInside.get()).isEqualTo(3);
+    }
+
+    @SneakyThrows
+    @Test
+    public void multiKeyLocksDoNotDeadlockAcrossOrderings() {
+        List<String> forward = List.of("multi-a", "multi-b", "multi-c");
+        List<String> backward = List.of("multi-c", "multi-b", "multi-a", "multi-a");
+
+        assertThat(AdvisoryLock.sortedLockKeys(forward)).isEqualTo(AdvisoryLock.sortedLockKeys(backward));
+
+        AtomicInteger inside = new AtomicInteger(0);
+        AtomicInteger maxInside = new AtomicInteger(0);
+
+        var futures = IntStream.range(0, 10)
+                .mapToObj(i -> CompletableFuture.runAsync(() -> advisoryLock.doWithAdvisoryLocks(() -> {
+                    maxInside.accumulateAndGet(inside.incrementAndGet(), Math::max);
+                    Thread.sleep(10);
+                    inside.decrementAndGet();
+                    return i;
+                }, i % 2 == 0 ? forward : backward), EXECUTOR))
+                .toArray(CompletableFuture[]::new);
+
+        CompletableFuture.allOf(futures).get(30, TimeUnit.SECONDS);
+
+        assertThat(maxInside.get()).isEqualTo(1);
+    }
+
+    @SneakyThrows
+    @Test
+    public void asyncLeaseIsReleasedWhenStageCompletes() {
+        CompletableFuture<String> gate = new CompletableFuture<>();
+        CountDownLatch firstHeld = new CountDownLatch(1);
+
+        CompletableFuture<String> first = advisoryLock.doWithAdvisoryLockAsync(lease -> {
+            firstHeld.countDown();
+            return gate;
+        }, "async-test");
+
+        assertThat(firstHeld.await(10, TimeUnit.SECONDS)).isTrue();
+
+        CompletableFuture<Boolean> second = advisoryLock.doWithAdvisoryLockAsync(
+                lease -> CompletableFuture.completedFuture(gate.isDone()),
+                "async-test");
+
+        Thread.sleep(200);
+        assertThat(second).isNotDone();
+
+        gate.complete("done");
+
+        assertThat(first.get(10, TimeUnit.SECONDS)).isEqualTo("done");
+        assertThat(second.get(10, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @SneakyThrows
+    @Test
+    public void cancelledAsyncWaitDoesNotRunOrKeepTheLock() {
+        AtomicInteger ran = new AtomicInteger();
+
+        try (var held = advisoryLock.acquire("async-cancel-test", AdvisoryLock.LockMode.EXCLUSIVE)) {
+            CompletableFuture<Integer> waiting = advisoryLock.doWithAdvisoryLockAsync(
+                    lease -> CompletableFuture.completedFuture(ran.incrementAndGet()),
+                    "async-cancel-test");
+            Thread.sleep(200);
+            assertThat(waiting.cancel(true)).isTrue();
+        }
+
+        // the cancelled waiter neither ran nor kept the lock it may have been granted
+        CompletableFuture<Boolean> next = advisoryLock.doWithAdvisoryLockAsync(
+                lease -> CompletableFuture.completedFuture(true),
+                "async-cancel-test");
+        assertThat(next.get(10, TimeUnit.SECONDS)).isTrue();
+        Thread.sleep(200);
+        assertThat(ran.get()).isZero();
+    }
+
+    @SneakyThrows
+    @Test
+    public void cancellingAnAsyncWaitLeavesNoBackendWaiting() {
+        long key = AdvisoryLock.lockKey("async-cancel-backend-test");
+        try (var held = advisoryLock.acquire("async-cancel-backend-test", AdvisoryLock.LockMode.EXCLUSIVE)) {
+            var waiting = advisoryLock.acquireAsync("async-cancel-backend-test");
+            awaitWaitingBackends(key, 1);
+
+            assertThat(waiting.cancel(true)).isTrue();
+
+            // the holder still has the key - only a cancelled statement can take the waiter out of pg_locks
+            awaitWaitingBackends(key, 0);
+        }
+    }
+
+    @SneakyThrows
+    @Test
+    public void nullStageFailsAndReleasesTheLock() {
+        CompletableFuture<String> result = advisoryLock.doWithAdvisoryLockAsync(lease -> null, "async-null-test");
+
+        assertThatThrownBy(() -> result.get(10, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(NullPointerException.class);
+        try (var lease = advisoryLock.tryAcquire("async-null-test", AdvisoryLock.LockMode.EXCLUSIVE).orElseThrow()) {
+            assertThat(lease.keys()).containsExactly(AdvisoryLock.lockKey("async-null-test"));
+        }
+    }
+
+    @SneakyThrows
+    private void awaitWaitingBackends(long key, int expected) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        long waiting;
+        do {
+            waiting = advisoryLock.sampleAdvisoryLocks(null).stream()
+                    .filter(h -> h.key() == key && !h.granted())
+                    .count();
+            if (waiting == expected)
+                return;
+            Thread.sleep(20);
+        } while (System.nanoTime() < deadline);
+        assertThat(waiting).isEqualTo(expected);
+    }
+
+    @SneakyThrows
+    @Test
+    public void samplerMapsHeldKeysToLockNames() {
+        try (var lease = advisoryLock.acquire("sampled-test", AdvisoryLock.LockMode.EXCLUSIVE)) {
+            var holders = advisoryLock.sampleAdvisoryLocks(null);
+            assertThat(holders)
+                    .anyMatch(h -> h.granted()
+                            && h.key() == AdvisoryLock.lockKey("sampled-test")
+                            && h.lockName().equals("sampled-test"));
+        }
+    }
+}
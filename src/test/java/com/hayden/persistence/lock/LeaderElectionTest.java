@@ -0,0 +1,145 @@
+package com.hayden.persistence.lock;
+
+import com.hayden.utilitymodule.otel.DisableOtelConfiguration;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(classes = AdvisoryLockTest.TestAdvisoryLockApplication.class)
+@ActiveProfiles("testjpa")
+@Import(DisableOtelConfiguration.class)
+@TestPropertySource(properties = {
+        "db.advisory.leader-retry-interval=100ms",
+        "db.advisory.leader-keepalive-interval=100ms",
+        "db.advisory.leader-keepalive-timeout=1s"
+})
+public class LeaderElectionTest {
+
+    @Autowired
+    private LeaderElection leaderElection;
+
+    @Autowired
+    private AdvisoryLock advisoryLock;
+
+    @Autowired
+    private AdvisoryLockConfigProperties advisoryLockConfigProperties;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @SneakyThrows
+    @Test
+    public void leadershipIsGrantedAndRevokedOnLeave() {
+        CountDownLatch granted = new CountDownLatch(1);
+        CountDownLatch revoked = new CountDownLatch(1);
+
+        leaderElection.join("leader-test", new LeaderElection.LeadershipListener() {
+            @Override
+            public void onLeadershipGranted(String electionName) {
+                granted.countDown();
+            }
+
+            @Override
+            public void onLeadershipRevoked(String electionName) {
+                revoked.countDown();
+            }
+        });
+
+        assertThat(granted.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(leaderElection.isLeader("leader-test")).isTrue();
+
+        leaderElection.leave("leader-test");
+
+        assertThat(revoked.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(leaderElection.isLeader("leader-test")).isFalse();
+    }
+
+    /**
+     * A second LeaderElection stands in for another node - each has its own election and leader session.
+     */
+    @SneakyThrows
+    @Test
+    public void otherCandidateTakesOverWhenTheLeadersSessionDies() {
+        var other = new LeaderElection();
+        other.advisoryLock = advisoryLock;
+        other.advisoryLockConfigProperties = advisoryLockConfigProperties;
+        var first = new Candidate();
+        var second = new Candidate();
+        try {
+            leaderElection.join("leader-failover-test", first);
+            assertThat(first.granted.await(10, TimeUnit.SECONDS)).isTrue();
+            other.join("leader-failover-test", second);
+            Thread.sleep(300);
+            assertThat(other.isLeader("leader-failover-test")).isFalse();
+
+            long key = AdvisoryLock.lockKey("leader-election:leader-failover-test");
+            int pid = advisoryLock.sampleAdvisoryLocks(null).stream()
+                    .filter(h -> h.key() == key && h.granted())
+                    .findFirst()
+                    .orElseThrow()
+                    .pid();
+            long killed = System.nanoTime();
+            jdbcTemplate.queryForObject("SELECT pg_terminate_backend(?);", Boolean.class, pid);
+
+            // the dead session fails the leader's keepalive check, and postgres dropped its lock for the other node
+            assertThat(first.revoked.await(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(second.granted.await(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(Duration.ofNanos(System.nanoTime() - killed)).isLessThan(Duration.ofSeconds(5));
+            assertThat(leaderElection.isLeader("leader-failover-test")).isFalse();
+            assertThat(other.isLeader("leader-failover-test")).isTrue();
+        } finally {
+            leaderElection.leave("leader-failover-test");
+            other.shutdown();
+        }
+    }
+
+    @Test
+    public void joiningOnAnotherDatabaseIsRejected() {
+        var elsewhere = new AdvisoryLock.DatabaseMetadata("postgres", "postgres", "jdbc:postgresql://localhost:5489/elsewhere");
+        var election = new LeaderElection();
+        election.advisoryLock = spy(advisoryLock);
+        election.advisoryLockConfigProperties = advisoryLockConfigProperties;
+        doReturn(Optional.of(elsewhere)).when(election.advisoryLock).metadataFor("elsewhere");
+        try {
+            election.join("leader-routing-test", new Candidate());
+            assertThatThrownBy(() -> election.join("leader-routing-test", "elsewhere", new Candidate()))
+                    .isInstanceOf(IllegalArgumentException.class);
+        } finally {
+            election.shutdown();
+        }
+    }
+
+    private static final class Candidate implements LeaderElection.LeadershipListener {
+
+        private final CountDownLatch granted = new CountDownLatch(1);
+        private final CountDownLatch revoked = new CountDownLatch(1);
+
+        @Override
+        public void onLeadershipGranted(String electionName) {
+            granted.countDown();
+        }
+
+        @Override
+        public void onLeadershipRevoked(String electionName) {
+            revoked.countDown();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.hayden.persistence.lock;
+
+import com.hayden.utilitymodule.otel.DisableOtelConfiguration;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(classes = AdvisoryLockTest.TestAdvisoryLockApplication.class)
+@ActiveProfiles("testjpa")
+@Import(DisableOtelConfiguration.class)
+public class SingleFlightTest {
+
+    @Autowired
+    private SingleFlight singleFlight;
+
+    @Autowired
+    private AdvisoryLock advisoryLock;
+
+    private static final ExecutorService EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+    @SneakyThrows
+    @Test
+    public void concurrentCallsShareOneComputation() {
+        AtomicInteger computations = new AtomicInteger(0);
+        CountDownLatch release = new CountDownLatch(1);
+
+        var futures = IntStream.range(0, 20)
+                .mapToObj(i -> CompletableFuture.supplyAsync(() -> singleFlight.execute("in-jvm", () -> {
+                    computations.incrementAndGet();
+                    release.await(5, TimeUnit.SECONDS);
+                    return "value";
+                }), EXECUTOR))
+                .toList();
+
+        Thread.sleep(200);
+        release.countDown();
+
+        assertThat(futures).allSatisfy(f -> assertThat(f.get(10, TimeUnit.SECONDS)).isEqualTo("value"));
+        assertThat(computations.get()).isEqualTo(1);
+    }
+
+    @SneakyThrows
+    @Test
+    public void waitsForResultOfNodeHoldingTheLock() {
+        AtomicInteger computations = new AtomicInteger(0);
+        AtomicInteger lookups = new AtomicInteger(0);
+
+        try (var otherNode = advisoryLock.acquire("single-flight:clustered", AdvisoryLock.LockMode.EXCLUSIVE)) {
+            var result = singleFlight.executeClustered(
+                    "clustered",
+                    () -> {
+                        computations.incrementAndGet();
+                        return "computed";
+                    },
+                    () -> lookups.incrementAndGet() > 3 ? Optional.of("published") : Optional.empty(),
+                    Optional.empty());
+
+            assertThat(result).isEqualTo("published");
+            assertThat(computations.get()).isZero();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.hayden.persistence.queue;
+
+import com.hayden.utilitymodule.otel.DisableOtelConfiguration;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest
+@ActiveProfiles("testjpa")
+@Import(DisableOtelConfiguration.class)
+@TestPropertySource(properties = {
+        "db.queue.enabled=true",
+        "db.queue.retry-backoff=0s",
+        "db.queue.max-attempts=2"
+})
+public class JobQueueTest {
+
+    @Autowired
+    private JobQueue jobQueue;
+
+    private static final ExecutorService EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+    @SpringBootApplication(exclude = org.springframework.boot.actuate.autoconfigure.metrics.export.otlp.OtlpMetricsExportAutoConfiguration.class)
+    @ComponentScan("com.hayden.persistence")
+    @Import(DisableOtelConfiguration.class)
+    public static class TestJobQueueApplication {
+        static void main(String[] args) {
+            SpringApplication.run(TestJobQueueApplication.class, args);
+        }
+    }
+
+    @SneakyThrows
+    @Test
+    public void concurrentClaimsAreDisjoint() {
+        String queue = "claims-" + UUID.randomUUID();
+        IntStream.range(0, 50).forEach(i -> jobQueue.enqueue(queue, "job-" + i));
+
+        var claims = IntStream.range(0, 10)
+                .mapToObj(i -> CompletableFuture.supplyAsync(() -> jobQueue.claim(queue, 5), EXECUTOR))
+                .toList();
+
+        Set<Long> claimed = new HashSet<>();
+        int total = 0;
+        for (var c : claims) {
+            List<Job> jobs = c.join();
+            total += jobs.size();
+            jobs.forEach(j -> claimed.add(j.id()));
+        }
+
+        assertThat(total).isEqualTo(50);
+        assertThat(claimed).hasSize(50);
+        assertThat(jobQueue.claim(queue, 5)).isEmpty();
+    }
+
+    @Test
+    public void failedJobsAreRetriedUntilMaxAttempts() {
+        String queue = "retries-" + UUID.randomUUID();
+        long id = jobQueue.enqueue(queue, "payload");
+
+        var first = jobQueue.claim(queue, 1);
+        assertThat(first).singleElement().satisfies(j -> assertThat(j.id()).isEqualTo(id));
+        assertThat(jobQueue.fail(first.getFirst(), new RuntimeException("first"))).isTrue();
+
+        var second = jobQueue.claim(queue, 1);
+        assertThat(second).singleElement().satisfies(j -> assertThat(j.isLastAttempt()).isTrue());
+        assertThat(jobQueue.fail(second.getFirst(), new RuntimeException("second"))).isTrue();
+
+        assertThat(jobQueue.claim(queue, 1)).isEmpty();
+    }
+
+    @Test
+    public void completedJobsAreRemovedAndDelayedJobsHidden() {
+        String queue = "complete-" + UUID.randomUUID();
+        jobQueue.enqueue(queue, "later", Duration.ofMinutes(5));
+        jobQueue.enqueue(queue, "now");
+
+        var claimed = jobQueue.claim(queue, 10);
+        assertThat(claimed).singleElement().satisfies(j -> assertThat(j.payload()).isEqualTo("now"));
+        assertThat(jobQueue.complete(claimed.getFirst())).isTrue();
+        assertThat(jobQueue.complete(claimed.getFirst())).isFalse();
+    }
+}